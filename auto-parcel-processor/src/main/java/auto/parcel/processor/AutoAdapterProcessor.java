@@ -4,11 +4,14 @@ import com.google.auto.common.MoreElements;
 import com.google.auto.common.MoreTypes;
 import com.google.auto.service.AutoService;
 import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
 import com.google.gson.TypeAdapter;
 import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
 import com.google.gson.stream.JsonWriter;
 import com.squareup.javapoet.ClassName;
 import com.squareup.javapoet.CodeBlock;
+import com.squareup.javapoet.FieldSpec;
 import com.squareup.javapoet.JavaFile;
 import com.squareup.javapoet.MethodSpec;
 import com.squareup.javapoet.ParameterizedTypeName;
@@ -19,6 +22,7 @@ import java.io.IOException;
 import java.io.Writer;
 import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import javax.annotation.processing.AbstractProcessor;
@@ -42,6 +46,7 @@ import javax.tools.Diagnostic;
 import javax.tools.JavaFileObject;
 
 import auto.parcel.AutoAdapter;
+import auto.parcel.AutoParcel;
 
 /**
  * Construct a JsonAdapter for the provided class
@@ -100,10 +105,14 @@ public class AutoAdapterProcessor extends AbstractProcessor {
     // generate superclass: TypeAdapter<TargetClass>
     TypeName typeName = TypeName.get(targetClass.asType());
     TypeName adapterType = ParameterizedTypeName.get(ClassName.get(TypeAdapter.class), typeName);
-    TypeSpec adapterClassSpec = TypeSpec.classBuilder(className)
+    TypeSpec.Builder adapterClass = TypeSpec.classBuilder(className)
         .superclass(adapterType)
         .addJavadoc("AutoGenerated by AutoAdapter\n")
-        .addModifiers(Modifier.PUBLIC, Modifier.FINAL)
+        .addModifiers(Modifier.PUBLIC, Modifier.FINAL);
+    if (targetBuilder.resetMethod != null) {
+      adapterClass.addField(buildersField(targetBuilder));
+    }
+    TypeSpec adapterClassSpec = adapterClass
         .addMethod(writeMethod(targetBuilder))
         .addMethod(readMethod(targetBuilder))
         .build();
@@ -131,17 +140,93 @@ public class AutoAdapterProcessor extends AbstractProcessor {
   }
 
   private CodeBlock writeMethodBody(TargetBuilder targetBuilder) {
+    Map<ExecutableElement, ExecutableElement> presenceMethods =
+        presenceMethods(targetBuilder.targetClassFields);
+    // AutoParcelProcessor already reports the optional properties of an @AutoParcel class.
+    if (targetBuilder.targetClass.getAnnotation(AutoParcel.class) == null) {
+      ErrorReporter errorReporter = new ErrorReporter(processingEnv);
+      for (Map.Entry<ExecutableElement, ExecutableElement> entry : presenceMethods.entrySet()) {
+        errorReporter.reportNote(AutoParcelProcessor.optionalPropertyNote(
+            targetBuilder.targetClass, entry.getKey(), entry.getValue()), entry.getKey());
+      }
+    }
     CodeBlock.Builder builder = CodeBlock.builder();
     builder.addStatement("out.beginObject()");
-    for (Element element : targetBuilder.targetClassFields) {
-      Name simpleName = element.getSimpleName();
-      final String statement = String.format("out.name(\"%s\").value(value.%s())", simpleName, simpleName);
-      builder.addStatement(statement);
+    for (ExecutableElement element : targetBuilder.targetClassFields) {
+      if (presenceMethods.containsValue(element)) {
+        continue;
+      }
+      ExecutableElement presenceMethod = presenceMethods.get(element);
+      if (presenceMethod != null) {
+        // An absent optional property is left out, so reading leaves the builder's default.
+        builder.beginControlFlow("if (value.$N())", presenceMethod.getSimpleName());
+      }
+      writeField(targetBuilder, builder, element);
+      if (presenceMethod != null) {
+        builder.endControlFlow();
+      }
     }
     builder.addStatement("out.endObject()");
     return builder.build();
   }
 
+  /**
+   * Returns a map from each primitive getter {@code foo()} to the {@code boolean hasFoo()} method
+   * that says whether the optional property is present, if there is one.
+   */
+  private static Map<ExecutableElement, ExecutableElement> presenceMethods(
+      List<ExecutableElement> getters) {
+    Map<String, ExecutableElement> booleanGetters = Maps.newHashMap();
+    for (ExecutableElement getter : getters) {
+      if (getter.getParameters().isEmpty()
+          && getter.getReturnType().getKind() == TypeKind.BOOLEAN) {
+        booleanGetters.put(getter.getSimpleName().toString(), getter);
+      }
+    }
+    Map<ExecutableElement, ExecutableElement> presenceMethods = Maps.newHashMap();
+    for (ExecutableElement getter : getters) {
+      if (getter.getParameters().isEmpty() && getter.getReturnType().getKind().isPrimitive()) {
+        ExecutableElement presenceMethod = booleanGetters.get(
+            AutoParcelProcessor.presenceMethodName(getter.getSimpleName().toString()));
+        if (presenceMethod != null) {
+          presenceMethods.put(getter, presenceMethod);
+        }
+      }
+    }
+    return presenceMethods;
+  }
+
+  /** Adds the statements that write the property read by {@code element}. */
+  private void writeField(
+      TargetBuilder targetBuilder, CodeBlock.Builder builder, ExecutableElement element) {
+    Name simpleName = element.getSimpleName();
+    final PropertyCodecs.Codec codec = targetBuilder.fieldCodecs.get(simpleName.toString());
+    if (codec != null) {
+      builder.addStatement("out.name($S)", simpleName);
+      writeNullSafe(builder, element.getReturnType(), "value." + simpleName + "()",
+          CodeBlock.builder()
+              .addStatement("$T.write(out, value.$N())",
+                  ClassName.get(codec.codecClass()), simpleName)
+              .build());
+      return;
+    }
+    if (!hasJsonForm(element.getReturnType())) {
+      error("%s of %s has no JSON form, so it needs a @PropertyCodec with static write and read"
+          + " methods", simpleName, targetBuilder.targetClass.getSimpleName());
+      return;
+    }
+    final String value = jsonWriterValueFor(element.getReturnType(), "value." + simpleName + "()");
+    if (jdkEncoding(element.getReturnType()) != null) {
+      // The JSON form of a JDK value type calls a method of the value, so null is written apart.
+      builder.addStatement("out.name($S)", simpleName);
+      writeNullSafe(builder, element.getReturnType(), "value." + simpleName + "()",
+          CodeBlock.builder().addStatement("out.value($L)", value).build());
+      return;
+    }
+    final String statement = String.format("out.name(\"%s\").value(%s)", simpleName, value);
+    builder.addStatement(statement);
+  }
+
   private MethodSpec readMethod(TargetBuilder targetBuilder) {
     return MethodSpec.methodBuilder("read")
         .addAnnotation(Override.class)
@@ -153,13 +238,54 @@ public class AutoAdapterProcessor extends AbstractProcessor {
         .build();
   }
 
+  /**
+   * When the builder can be reset, each thread keeps the builder it last used here, so that reading
+   * does not allocate a new builder for every object.
+   */
+  private FieldSpec buildersField(TargetBuilder targetBuilder) {
+    TypeName threadLocalType = ParameterizedTypeName.get(
+        ClassName.get(ThreadLocal.class), ClassName.get(targetBuilder.builderClass));
+    return FieldSpec.builder(threadLocalType, "builders", Modifier.PRIVATE, Modifier.FINAL)
+        .initializer("new $T()", threadLocalType)
+        .build();
+  }
+
   private CodeBlock readMethodCode(TargetBuilder targetBuilder) {
     CodeBlock.Builder builder = CodeBlock.builder();
-    // create builder object
-    builder.addStatement("$T builder = $T.$N()",
-        targetBuilder.builderClass,
+    if (targetBuilder.resetMethod == null) {
+      // create builder object
+      builder.addStatement("$T builder = $T.$N()",
+          targetBuilder.builderClass,
+          targetBuilder.targetClass,
+          targetBuilder.newBuilderMethod.getSimpleName());
+      readFields(targetBuilder, builder);
+      return builder.build();
+    }
+    // Take this thread's builder, leaving none behind in case reading a property reads another
+    // object of the same type, and give it back reset so it keeps no references to the values.
+    builder.addStatement("$T builder = builders.get()", targetBuilder.builderClass);
+    builder.beginControlFlow("if (builder == null)");
+    builder.addStatement("builder = $T.$N()",
         targetBuilder.targetClass,
         targetBuilder.newBuilderMethod.getSimpleName());
+    builder.unindent();
+    builder.add("} else {\n");
+    builder.indent();
+    builder.addStatement("builders.set(null)");
+    builder.endControlFlow();
+    builder.beginControlFlow("try");
+    readFields(targetBuilder, builder);
+    builder.unindent();
+    builder.add("} finally {\n");
+    builder.indent();
+    builder.addStatement("builder.$N()", targetBuilder.resetMethod.getSimpleName());
+    builder.addStatement("builders.set(builder)");
+    builder.endControlFlow();
+    return builder.build();
+  }
+
+  /** Adds the statements that read the JSON object into {@code builder} and return the result. */
+  private void readFields(TargetBuilder targetBuilder, CodeBlock.Builder builder) {
     builder.addStatement("in.beginObject()");
     builder.beginControlFlow("while (in.hasNext())");
     {
@@ -167,9 +293,26 @@ public class AutoAdapterProcessor extends AbstractProcessor {
       for (ExecutableElement method : targetBuilder.builderClassFields) {
         builder.add("case \"$N\":\n", method.getSimpleName());
         builder.indent();
+        final PropertyCodecs.Codec codec = codecFor(targetBuilder, method);
+        if (codec != null) {
+          readNullSafe(builder, method.getParameters().get(0).asType(), CodeBlock.builder()
+              .addStatement("builder.$N($T.read(in))",
+                  method.getSimpleName(), ClassName.get(codec.codecClass()))
+              .build());
+          builder.addStatement("break");
+          builder.unindent();
+          continue;
+        }
         final String readerMethod = jsonReaderMethodFor(method);
         log("builder method: %s, jsonReaderMethod: %s", method, readerMethod);
-        builder.addStatement("builder.$N($L)", method.getSimpleName(), readerMethod);
+        TypeMirror parameterType = method.getParameters().get(0).asType();
+        if (jdkEncoding(parameterType) != null) {
+          readNullSafe(builder, parameterType, CodeBlock.builder()
+              .addStatement("builder.$N($L)", method.getSimpleName(), readerMethod)
+              .build());
+        } else {
+          builder.addStatement("builder.$N($L)", method.getSimpleName(), readerMethod);
+        }
         builder.addStatement("break");
         builder.unindent();
       }
@@ -179,7 +322,79 @@ public class AutoAdapterProcessor extends AbstractProcessor {
     builder.addStatement("in.endObject()");
     builder.addStatement("return builder.$N()",
         targetBuilder.buildMethod.getSimpleName());
-    return builder.build();
+  }
+
+  /**
+   * The @PropertyCodec for a builder setter: the one of the getter with the same name, or else the
+   * one named on the class for the setter's parameter type.
+   */
+  private PropertyCodecs.Codec codecFor(TargetBuilder targetBuilder, ExecutableElement setter) {
+    PropertyCodecs.Codec codec = targetBuilder.fieldCodecs.get(setter.getSimpleName().toString());
+    if (codec == null) {
+      codec = targetBuilder.propertyCodecs.forType(setter.getParameters().get(0).asType());
+    }
+    return codec != null && codec.supportsJson() ? codec : null;
+  }
+
+  /** Adds {@code write}, or a null value in its place if {@code getterCall} returns null. */
+  private void writeNullSafe(
+      CodeBlock.Builder builder, TypeMirror type, String getterCall, CodeBlock write) {
+    if (type.getKind().isPrimitive()) {
+      builder.add(write);
+      return;
+    }
+    builder.beginControlFlow("if ($L == null)", getterCall);
+    builder.addStatement("out.nullValue()");
+    builder.unindent();
+    builder.add("} else {\n");
+    builder.indent();
+    builder.add(write);
+    builder.endControlFlow();
+  }
+
+  /** Adds {@code read}, or skips a null value in its place so the builder keeps its default. */
+  private void readNullSafe(CodeBlock.Builder builder, TypeMirror type, CodeBlock read) {
+    if (type.getKind().isPrimitive()) {
+      builder.add(read);
+      return;
+    }
+    builder.beginControlFlow("if (in.peek() == $T.NULL)", JsonToken.class);
+    builder.addStatement("in.nextNull()");
+    builder.unindent();
+    builder.add("} else {\n");
+    builder.indent();
+    builder.add(read);
+    builder.endControlFlow();
+  }
+
+  /**
+   * The argument to JsonWriter.value for the given getter call, converting JDK value types that
+   * JsonWriter has no overload for.
+   */
+  private String jsonWriterValueFor(TypeMirror type, String getterCall) {
+    JdkValueTypes.Encoding encoding = jdkEncoding(type);
+    if (encoding != null && encoding.jsonWriteFormat() != null) {
+      return String.format(encoding.jsonWriteFormat(), getterCall);
+    }
+    return getterCall;
+  }
+
+  /**
+   * False for a JDK value type, such as {@code Locale}, that has a compact Parcel encoding but no
+   * lossless JSON form that works on every Android version.
+   */
+  private boolean hasJsonForm(TypeMirror type) {
+    JdkValueTypes.Encoding encoding = jdkEncoding(type);
+    return encoding == null || encoding.jsonWriteFormat() != null;
+  }
+
+  /** The encoding of the given JDK value type, or null if it is not one. */
+  private static JdkValueTypes.Encoding jdkEncoding(TypeMirror type) {
+    if (type.getKind() != TypeKind.DECLARED) {
+      return null;
+    }
+    TypeElement typeElement = MoreElements.asType(MoreTypes.asElement(type));
+    return JdkValueTypes.forType(typeElement.getQualifiedName().toString());
   }
 
   private String jsonReaderMethodFor(ExecutableElement method) {
@@ -199,8 +414,11 @@ public class AutoAdapterProcessor extends AbstractProcessor {
         TypeElement typeElement = MoreElements.asType(MoreTypes.asElement(type));
         final String qualifiedName = typeElement.getQualifiedName().toString();
         log("qualified name: %s", qualifiedName);
+        final JdkValueTypes.Encoding encoding = JdkValueTypes.forType(qualifiedName);
         if (qualifiedName.equals(String.class.getCanonicalName())) {
           return "in.nextString()";
+        } else if (encoding != null && encoding.jsonReadExpression() != null) {
+          return encoding.jsonReadExpression();
         } else {
           return String.format("new %s(in.nextString())", qualifiedName);
         }
@@ -218,6 +436,9 @@ public class AutoAdapterProcessor extends AbstractProcessor {
     TypeElement builderClass;
     List<ExecutableElement> builderClassFields = Lists.newArrayList();
     ExecutableElement buildMethod;
+    ExecutableElement resetMethod;
+    PropertyCodecs propertyCodecs;
+    Map<String, PropertyCodecs.Codec> fieldCodecs = Maps.newHashMap();
   }
 
   /**
@@ -251,6 +472,7 @@ public class AutoAdapterProcessor extends AbstractProcessor {
     targetBuilder.targetClass = typeElement;
     targetBuilder.targetClassFields = collectClassFields(typeElement);
     log("%s fields: %s", targetBuilder.targetClass.getSimpleName(), targetBuilder.targetClassFields);
+    collectCodecs(targetBuilder);
     findBuilder(targetBuilder);
     if (targetBuilder.builderClass == null) {
       log("unable to find builder class");
@@ -261,6 +483,28 @@ public class AutoAdapterProcessor extends AbstractProcessor {
     return targetBuilder;
   }
 
+  /**
+   * The @PropertyCodec of each field that has one with Gson methods
+   */
+  private void collectCodecs(TargetBuilder targetBuilder) {
+    // AutoParcelProcessor already reports the errors in the annotations of an @AutoParcel class.
+    ErrorReporter codecErrors = targetBuilder.targetClass.getAnnotation(AutoParcel.class) == null
+        ? new ErrorReporter(processingEnv)
+        : null;
+    targetBuilder.propertyCodecs =
+        new PropertyCodecs(processingEnv, codecErrors, targetBuilder.targetClass);
+    for (ExecutableElement field : targetBuilder.targetClassFields) {
+      PropertyCodecs.Codec codec = targetBuilder.propertyCodecs.forProperty(field);
+      if (codec == null) continue;
+      if (codec.supportsJson()) {
+        targetBuilder.fieldCodecs.put(field.getSimpleName().toString(), codec);
+      } else {
+        error("%s has no static write and read methods, so it cannot be used for %s",
+            codec.codecClass().getQualifiedName(), field.getSimpleName());
+      }
+    }
+  }
+
   /**
    * All non-static methods that take one param and return a builder
    */
@@ -307,6 +551,7 @@ public class AutoAdapterProcessor extends AbstractProcessor {
               targetBuilder.newBuilderMethod = newBuilderMethod;
               targetBuilder.builderClass = builderClass;
               targetBuilder.buildMethod = buildMethod;
+              targetBuilder.resetMethod = findResetMethod(builderClass);
             }
           }
         }
@@ -314,6 +559,21 @@ public class AutoAdapterProcessor extends AbstractProcessor {
     }
   }
 
+  /**
+   * The builder's no-arg reset() or clear() method that returns the builder, if it has one
+   */
+  private ExecutableElement findResetMethod(TypeElement builderClass) {
+    for (ExecutableElement method : ElementFilter.methodsIn(builderClass.getEnclosedElements())) {
+      if (BuilderSpec.RESET_METHOD_NAMES.contains(method.getSimpleName().toString())
+          && method.getParameters().isEmpty()
+          && !method.getModifiers().contains(Modifier.STATIC)
+          && builderClass.equals(processingEnv.getTypeUtils().asElement(method.getReturnType()))) {
+        return method;
+      }
+    }
+    return null;
+  }
+
   private List<ExecutableElement> collectClassFields(TypeElement typeElement) {
     // Collect fields
     List<ExecutableElement> fields = Lists.newArrayList();
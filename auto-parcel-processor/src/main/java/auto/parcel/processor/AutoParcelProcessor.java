@@ -16,6 +16,11 @@
 package auto.parcel.processor;
 
 import auto.parcel.AutoParcel;
+import auto.parcel.AutoParcelBuilders;
+import auto.parcel.AutoParcelInterner;
+import auto.parcel.AutoParcelStrings;
+import auto.parcel.AutoParcelTables;
+import com.google.auto.common.MoreElements;
 import com.google.auto.service.AutoService;
 import com.google.common.base.Functions;
 import com.google.common.base.Joiner;
@@ -25,6 +30,7 @@ import com.google.common.collect.FluentIterable;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
 
@@ -35,8 +41,9 @@ import java.io.Writer;
 import java.lang.annotation.Annotation;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.BitSet;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
@@ -57,6 +64,7 @@ import javax.lang.model.element.TypeElement;
 import javax.lang.model.element.TypeParameterElement;
 import javax.lang.model.element.VariableElement;
 import javax.lang.model.type.ArrayType;
+import javax.lang.model.type.DeclaredType;
 import javax.lang.model.type.TypeKind;
 import javax.lang.model.type.TypeMirror;
 import javax.lang.model.util.ElementFilter;
@@ -89,6 +97,20 @@ public class AutoParcelProcessor extends AbstractProcessor {
 
   private ErrorReporter errorReporter;
 
+  /**
+   * Classes with more properties than this are <i>wide</i>. The generated {@code equals},
+   * {@code hashCode} and {@code Parcel} code of a wide class is split into methods that each
+   * handle {@link #CHUNK_SIZE} properties, so that each stays small enough for the JIT to compile
+   * and inline, and a wide class with a builder is constructed from the builder itself rather than
+   * from one constructor parameter per property.
+   */
+  private static final int WIDE_PROPERTIES = 64;
+
+  private static final int CHUNK_SIZE = 32;
+
+  /** The most parameter slots a constructor can have, counting one for {@code this}. */
+  private static final int MAX_PARAMETER_SLOTS = 255;
+
   /**
    * Qualified names of {@code @AutoParcel} classes that we attempted to process but had to abandon
    * because we needed other types that they referenced and those other types were missing.
@@ -147,7 +169,7 @@ public class AutoParcelProcessor extends AbstractProcessor {
     return false;  // never claim annotation, because who knows what other processors want?
   }
 
-  private String generatedClassName(TypeElement type, String prefix) {
+  private static String generatedClassName(TypeElement type, String prefix) {
     String name = type.getSimpleName().toString();
     while (type.getEnclosingElement() instanceof TypeElement) {
       type = (TypeElement) type.getEnclosingElement();
@@ -158,7 +180,7 @@ public class AutoParcelProcessor extends AbstractProcessor {
     return pkg + dot + prefix + name;
   }
 
-  private String generatedSubclassName(TypeElement type) {
+  static String generatedSubclassName(TypeElement type) {
     return generatedClassName(type, "AutoParcel_");
   }
 
@@ -175,18 +197,28 @@ public class AutoParcelProcessor extends AbstractProcessor {
     private final ExecutableElement method;
     private final String type;
     private final ImmutableList<String> annotations;
+    private final boolean sharedArray;
+    private final ExecutableElement presenceMethod;
+    private ImmutableList<String> packedGetter;
+    private boolean lazyParcel;
+    private String presenceField;
+    private String presenceBit;
 
     Property(
         String name,
         String identifier,
         ExecutableElement method,
         String type,
-        TypeSimplifier typeSimplifier) {
+        TypeSimplifier typeSimplifier,
+        boolean sharedArray,
+        ExecutableElement presenceMethod) {
       this.name = name;
       this.identifier = identifier;
       this.method = method;
       this.type = type;
       this.annotations = buildAnnotations(typeSimplifier);
+      this.sharedArray = sharedArray;
+      this.presenceMethod = presenceMethod;
     }
 
     private ImmutableList<String> buildAnnotations(TypeSimplifier typeSimplifier) {
@@ -237,6 +269,10 @@ public class AutoParcelProcessor extends AbstractProcessor {
       return method.getSimpleName().toString();
     }
 
+    ExecutableElement getMethod() {
+      return method;
+    }
+
     TypeElement getOwner() {
       return (TypeElement) method.getEnclosingElement();
     }
@@ -288,6 +324,111 @@ public class AutoParcelProcessor extends AbstractProcessor {
       return annotations;
     }
 
+    /** True if the property is of an enum type, so its values can be compared with {@code ==}. */
+    public boolean isEnumType() {
+      TypeMirror type = method.getReturnType();
+      return type.getKind() == TypeKind.DECLARED
+          && ((DeclaredType) type).asElement().getKind() == ElementKind.ENUM;
+    }
+
+    /**
+     * True if the property is an array that is not copied on the way in or out, because of
+     * {@link AutoParcel.SharedArrays}.
+     */
+    public boolean isSharedArray() {
+      return sharedArray;
+    }
+
+    /**
+     * True if the property has no field of its own, because {@link FieldPacking} stores it in
+     * some bits of a field shared with other properties.
+     */
+    public boolean isPacked() {
+      return packedGetter != null;
+    }
+
+    /** Returns the statements of the getter of a packed property, which decode its bits. */
+    public List<String> getPackedGetter() {
+      return packedGetter;
+    }
+
+    void setPacked(List<String> getterStatements) {
+      this.packedGetter = ImmutableList.copyOf(getterStatements);
+    }
+
+    /**
+     * True if the property is read from a {@code Parcel} as bytes that its getter decodes, because
+     * of {@link AutoParcel.LazyParcel}.
+     */
+    public boolean isLazyParcel() {
+      return lazyParcel;
+    }
+
+    void setLazyParcel() {
+      this.lazyParcel = true;
+    }
+
+    /**
+     * Returns an expression for the value of the property in {@code object}, an expression of the
+     * generated class: its field, or a call to its getter if it is packed or may not have been
+     * decoded yet.
+     */
+    public String read(String object) {
+      return isPacked() || isLazyParcel()
+          ? object + "." + getGetter() + "()"
+          : object + "." + identifier;
+    }
+
+    /**
+     * True if the property is a primitive that may be absent, because the class also declares an
+     * abstract {@code boolean hasFoo()} method for property {@code foo}. Its value is then stored
+     * in a primitive field and its presence in a bit of a field shared with the other such
+     * properties, as laid out by {@link PresenceBits}.
+     */
+    public boolean isOptional() {
+      return presenceMethod != null;
+    }
+
+    /** Returns the name of the {@code hasFoo()} method of an optional property. */
+    public String getPresenceMethod() {
+      return presenceMethod.getSimpleName().toString();
+    }
+
+    public String getPresenceAccess() {
+      return accessOf(presenceMethod);
+    }
+
+    /** Returns the field that holds the presence bit of an optional property. */
+    public String getPresenceField() {
+      return presenceField;
+    }
+
+    /** Returns the mask of the presence bit of an optional property, like {@code 0x4}. */
+    public String getPresenceBit() {
+      return presenceBit;
+    }
+
+    void setPresence(String field, String bit) {
+      this.presenceField = field;
+      this.presenceBit = bit;
+    }
+
+    /**
+     * Returns a condition that is true if the optional property is present, given an expression
+     * {@code word} for the value of its {@link #getPresenceField() presence field}.
+     */
+    public String present(String word) {
+      return "(" + word + " & " + presenceBit + ") != 0";
+    }
+
+    /** The value that a builder field for this property has before the property is set. */
+    public String getDefaultValue() {
+      if (getKind() == TypeKind.BOOLEAN) {
+        return "false";
+      }
+      return primitive() ? "0" : "null";
+    }
+
     public boolean isNullable() {
       for (AnnotationMirror annotationMirror : method.getAnnotationMirrors()) {
         String name = annotationMirror.getAnnotationType().asElement().getSimpleName().toString();
@@ -299,17 +440,196 @@ public class AutoParcelProcessor extends AbstractProcessor {
     }
 
     public String getAccess() {
-      Set<Modifier> mods = method.getModifiers();
-      if (mods.contains(Modifier.PUBLIC)) {
-        return "public ";
-      } else if (mods.contains(Modifier.PROTECTED)) {
-        return "protected ";
-      } else {
-        return "";
+      return accessOf(method);
+    }
+  }
+
+  /**
+   * An abstract {@code fooAt(int index)} or {@code int fooLength()} method, which the generated
+   * class implements by reading the array of property {@code foo} without copying it.
+   */
+  public static class ArrayAccessor {
+    private final String name;
+    private final String access;
+    private final Property property;
+    private final String type;
+    private final boolean length;
+
+    ArrayAccessor(ExecutableElement method, Property property, String type, boolean length) {
+      this.name = method.getSimpleName().toString();
+      this.access = accessOf(method);
+      this.property = property;
+      this.type = type;
+      this.length = length;
+    }
+
+    public String getName() {
+      return name;
+    }
+
+    public String getAccess() {
+      return access;
+    }
+
+    public Property getProperty() {
+      return property;
+    }
+
+    /** Returns the element type of the array, or {@code int} for a {@code fooLength()} method. */
+    public String getType() {
+      return type;
+    }
+
+    /** True for a {@code fooLength()} method, false for a {@code fooAt(int)} method. */
+    public boolean isLength() {
+      return length;
+    }
+  }
+
+  /** Returns the access modifier, followed by a space, that an override of {@code method} needs. */
+  private static String accessOf(ExecutableElement method) {
+    Set<Modifier> mods = method.getModifiers();
+    if (mods.contains(Modifier.PUBLIC)) {
+      return "public ";
+    } else if (mods.contains(Modifier.PROTECTED)) {
+      return "protected ";
+    } else {
+      return "";
+    }
+  }
+
+  /**
+   * A method marked {@code @AutoParcel.Memoized}, which the generated class overrides with one that
+   * caches the result of the original in two fields: one holding the value, and a volatile flag
+   * that is set once the value has been stored. Checking the flag rather than the value lets null
+   * results be cached too.
+   */
+  public static class MemoizedMethod {
+    private final String name;
+    private final String type;
+    private final String access;
+    private final String throwsClause;
+
+    MemoizedMethod(ExecutableElement method, TypeSimplifier typeSimplifier) {
+      this.name = method.getSimpleName().toString();
+      this.type = typeSimplifier.simplify(method.getReturnType());
+      this.access = accessOf(method);
+      List<String> thrown = new ArrayList<String>();
+      for (TypeMirror thrownType : method.getThrownTypes()) {
+        thrown.add(typeSimplifier.simplify(thrownType));
       }
+      this.throwsClause = thrown.isEmpty() ? "" : " throws " + Joiner.on(", ").join(thrown);
+    }
+
+    public String getName() {
+      return name;
+    }
+
+    public String getType() {
+      return type;
+    }
+
+    public String getAccess() {
+      return access;
+    }
+
+    /** Returns {@code " throws E1, E2"} for the checked exceptions of the method, or "". */
+    public String getThrowsClause() {
+      return throwsClause;
+    }
+
+    /** Returns the name of the field that holds the cached value. */
+    public String getField() {
+      return name + "$";
+    }
+
+    /** Returns the name of the volatile field that is true once the cached value is stored. */
+    public String getFlag() {
+      return name + "$memoized";
     }
   }
 
+  /**
+   * An abstract {@code withFoo(value)} method, which the generated class implements by calling its
+   * constructor with {@code value} for the property {@code foo} and its own fields for the others,
+   * or by returning {@code this} if {@code value} is identical to the current one.
+   */
+  public static class WitherMethod {
+    private final String name;
+    private final String access;
+    private final Property property;
+
+    WitherMethod(ExecutableElement method, Property property) {
+      this.name = method.getSimpleName().toString();
+      this.access = accessOf(method);
+      this.property = property;
+    }
+
+    public String getName() {
+      return name;
+    }
+
+    public String getAccess() {
+      return access;
+    }
+
+    /** Returns the property that the method sets in the copy it returns. */
+    public Property getProperty() {
+      return property;
+    }
+  }
+
+  /**
+   * Returns the properties in the order in which the generated {@code equals} compares them when
+   * both objects are of the generated class: those that are cheapest to compare, and so most likely
+   * to rule out equality quickly, come first. Properties of the same cost keep their order.
+   */
+  private ImmutableList<Property> propsInEqualsOrder(List<Property> props) {
+    List<Property> ordered = new ArrayList<Property>(props);
+    final Map<Property, Integer> costs = Maps.newHashMap();
+    for (Property prop : props) {
+      costs.put(prop, equalsCost(prop));
+    }
+    Collections.sort(ordered, new Comparator<Property>() {
+      @Override public int compare(Property a, Property b) {
+        return costs.get(a).compareTo(costs.get(b));
+      }
+    });
+    return ImmutableList.copyOf(ordered);
+  }
+
+  /**
+   * A rough rank of how expensive it is to compare two values of the property: primitives and
+   * enums by {@code ==}, then strings and boxed primitives, then other objects, then arrays, and
+   * finally collections and maps, whose {@code equals} visits every element.
+   */
+  private int equalsCost(Property prop) {
+    TypeMirror type = prop.getTypeMirror();
+    if (type.getKind().isPrimitive() || prop.isEnumType()) {
+      return 0;
+    } else if (type.getKind() == TypeKind.ARRAY) {
+      return 3;
+    } else if (type.getKind() != TypeKind.DECLARED) {
+      return 2;
+    }
+    Types typeUtils = processingEnv.getTypeUtils();
+    TypeMirror erased = typeUtils.erasure(type);
+    if (typeUtils.isSameType(erased, getTypeMirror(String.class))) {
+      return 1;
+    }
+    try {
+      typeUtils.unboxedType(erased);
+      return 1;
+    } catch (IllegalArgumentException e) {
+      // Not a boxed primitive.
+    }
+    if (typeUtils.isAssignable(erased, typeUtils.erasure(getTypeMirror(Collection.class)))
+        || typeUtils.isAssignable(erased, typeUtils.erasure(getTypeMirror(Map.class)))) {
+      return 4;
+    }
+    return 2;
+  }
+
   private static boolean isJavaLangObject(TypeElement type) {
     return type.getSuperclass().getKind() == TypeKind.NONE && type.getKind() == ElementKind.CLASS;
   }
@@ -422,9 +742,33 @@ public class AutoParcelProcessor extends AbstractProcessor {
     List<ExecutableElement> methods = new ArrayList<ExecutableElement>();
     findLocalAndInheritedMethods(type, methods);
     determineObjectMethodsToGenerate(methods, vars);
-    ImmutableSet<ExecutableElement> methodsToImplement = methodsToImplement(methods);
+    vars.cacheHashCode = vars.hashCode && type.getAnnotation(AutoParcel.class).cacheHashCode();
+    vars.intern = type.getAnnotation(AutoParcel.class).intern();
+    vars.stringTable = type.getAnnotation(AutoParcel.class).stringTable();
+    vars.parcelTables = vars.stringTable || type.getAnnotation(AutoParcel.class).graph();
+    vars.utf8Strings = type.getAnnotation(AutoParcel.class).utf8Strings();
+    vars.parcelCacheThreshold = type.getAnnotation(AutoParcel.class).parcelCacheThreshold();
+    vars.cacheParcel = vars.parcelCacheThreshold >= 0;
+    ImmutableMap<ExecutableElement, ExecutableElement> arrayAccessorMethods =
+        arrayAccessorMethods(methods);
+    ImmutableMap<ExecutableElement, ExecutableElement> presenceMethods = presenceMethods(methods);
+    for (Map.Entry<ExecutableElement, ExecutableElement> entry : presenceMethods.entrySet()) {
+      // The pairing is inferred from the names alone, and it changes the serialized forms.
+      errorReporter.reportNote(optionalPropertyNote(type, entry.getKey(), entry.getValue()),
+          entry.getKey());
+    }
+    Set<ExecutableElement> accessorMethods = Sets.union(
+        arrayAccessorMethods.keySet(), ImmutableSet.copyOf(presenceMethods.values()));
+    ImmutableSet<ExecutableElement> methodsToImplement =
+        methodsToImplement(methods, accessorMethods);
+    ImmutableList<ExecutableElement> memoizedMethods = memoizedMethods(type, methods);
+    ImmutableList<ExecutableElement> witherMethods = witherMethods(methods);
     Set<TypeMirror> types = new TypeMirrorSet();
     types.addAll(returnTypesOf(methodsToImplement));
+    types.addAll(returnTypesOf(memoizedMethods));
+    for (ExecutableElement method : memoizedMethods) {
+      types.addAll(method.getThrownTypes());
+    }
     //    TypeMirror javaxAnnotationGenerated = getTypeMirror(Generated.class);
     //    types.add(javaxAnnotationGenerated);
     TypeMirror javaUtilArrays = getTypeMirror(Arrays.class);
@@ -433,11 +777,20 @@ public class AutoParcelProcessor extends AbstractProcessor {
       // Arrange to import it unless that would introduce ambiguity.
       types.add(javaUtilArrays);
     }
+    if (vars.intern) {
+      types.add(getTypeMirror(AutoParcelInterner.class));
+    }
+    if (vars.parcelTables) {
+      types.add(getTypeMirror(AutoParcelTables.class));
+    }
+    if (vars.utf8Strings) {
+      types.add(getTypeMirror(AutoParcelStrings.class));
+    }
     BuilderSpec builderSpec = new BuilderSpec(type, processingEnv, errorReporter);
     Optional<BuilderSpec.Builder> builder = builderSpec.getBuilder();
     ImmutableSet<ExecutableElement> toBuilderMethods;
     if (builder.isPresent()) {
-      types.add(getTypeMirror(BitSet.class));
+      types.add(getTypeMirror(AutoParcelBuilders.class));
       toBuilderMethods = builder.get().toBuilderMethods(typeUtils, methodsToImplement);
     } else {
       toBuilderMethods = ImmutableSet.of();
@@ -450,36 +803,200 @@ public class AutoParcelProcessor extends AbstractProcessor {
     vars.imports = typeSimplifier.typesToImport();
     //    vars.generated = typeSimplifier.simplify(javaxAnnotationGenerated);
     vars.arrays = typeSimplifier.simplify(javaUtilArrays);
-    vars.bitSet = typeSimplifier.simplifyRaw(getTypeMirror(BitSet.class));
+    vars.autoParcelBuilders = typeSimplifier.simplifyRaw(getTypeMirror(AutoParcelBuilders.class));
+    if (vars.intern) {
+      vars.autoParcelInterner =
+          typeSimplifier.simplifyRaw(getTypeMirror(AutoParcelInterner.class));
+    }
+    if (vars.parcelTables) {
+      vars.autoParcelTables = typeSimplifier.simplifyRaw(getTypeMirror(AutoParcelTables.class));
+    }
+    if (vars.utf8Strings) {
+      vars.autoParcelStrings = typeSimplifier.simplifyRaw(getTypeMirror(AutoParcelStrings.class));
+    }
     ImmutableMap<ExecutableElement, String> methodToPropertyName =
         methodToPropertyNameMap(propertyMethods);
     Map<ExecutableElement, String> methodToIdentifier =
         Maps.newLinkedHashMap(methodToPropertyName);
     fixReservedIdentifiers(methodToIdentifier);
+    boolean classSharesArrays =
+        MoreElements.isAnnotationPresent(type, AutoParcel.SharedArrays.class);
     List<Property> props = new ArrayList<Property>();
     for (ExecutableElement method : propertyMethods) {
       String propertyType = typeSimplifier.simplify(method.getReturnType());
       String propertyName = methodToPropertyName.get(method);
       String identifier = methodToIdentifier.get(method);
-      props.add(new Property(propertyName, identifier, method, propertyType, typeSimplifier));
+      boolean isArray = method.getReturnType().getKind() == TypeKind.ARRAY;
+      boolean annotatedShared =
+          MoreElements.isAnnotationPresent(method, AutoParcel.SharedArrays.class);
+      if (annotatedShared && !isArray) {
+        errorReporter.reportError(
+            "@AutoParcel.SharedArrays can only apply to an array property", method);
+      }
+      boolean sharedArray = isArray && (classSharesArrays || annotatedShared);
+      props.add(new Property(propertyName, identifier, method, propertyType, typeSimplifier,
+          sharedArray, presenceMethods.get(method)));
+    }
+    ImmutableList.Builder<MemoizedMethod> memoized = ImmutableList.builder();
+    for (ExecutableElement method : memoizedMethods) {
+      memoized.add(new MemoizedMethod(method, typeSimplifier));
     }
+    vars.memoizedMethods = memoized.build();
+    vars.withers = withers(type, witherMethods, props);
+    vars.arrayAccessors = arrayAccessors(arrayAccessorMethods, props, typeSimplifier);
     // If we are running from Eclipse, undo the work of its compiler which sorts methods.
     eclipseHack().reorderProperties(props);
     vars.props = props;
+    vars.wide = props.size() > WIDE_PROPERTIES;
+    vars.constructFromBuilder = vars.wide && builder.isPresent();
+    TypeElement parcelable = processingEnv.getElementUtils().getTypeElement("android.os.Parcelable");
+    vars.parcelable = parcelable != null
+        && processingEnv.getTypeUtils().isAssignable(type.asType(), parcelable.asType());
+    Map<String, String> enumValuesFields = Maps.newLinkedHashMap();
+    ParcelSerialization parcelSerialization = vars.parcelable
+        ? new ParcelSerialization(
+            processingEnv, errorReporter, type, typeSimplifier, enumValuesFields)
+        : null;
+    defineLazyParcelProperties(type, vars, parcelSerialization);
+    if (type.getAnnotation(AutoParcel.class).packed()) {
+      FieldPacking.defineVars(
+          vars, props, vars.constructFromBuilder ? "builder." : "", enumValuesFields);
+    }
+    PresenceBits.defineVars(vars, props);
+    if (!vars.constructFromBuilder) {
+      checkConstructorSize(type, vars);
+    }
+    List<Property> unpackedProps = new ArrayList<Property>();
+    List<Property> nonNullProps = new ArrayList<Property>();
+    for (Property prop : props) {
+      if (!prop.isPacked()) {
+        unpackedProps.add(prop);
+      }
+      if (!prop.primitive() && !prop.isNullable()) {
+        nonNullProps.add(prop);
+      }
+    }
+    vars.equalsOrder = propsInEqualsOrder(unpackedProps);
+    if (vars.wide) {
+      vars.propChunks = Lists.partition(props, CHUNK_SIZE);
+      vars.equalsChunks = Lists.partition(vars.equalsOrder, CHUNK_SIZE);
+      vars.nonNullChunks = Lists.partition(nonNullProps, CHUNK_SIZE);
+    }
     vars.serialVersionUID = getSerialVersionUID(type);
     vars.formalTypes = typeSimplifier.formalTypeParametersString(type);
     vars.actualTypes = TypeSimplifier.actualTypeParametersString(type);
     vars.wildcardTypes = wildcardTypeParametersString(type);
 
-    TypeElement parcelable = processingEnv.getElementUtils().getTypeElement("android.os.Parcelable");
-    vars.parcelable = parcelable != null
-        && processingEnv.getTypeUtils().isAssignable(type.asType(), parcelable.asType());
+    if (vars.parcelTables && !vars.parcelable) {
+      errorReporter.reportError("@AutoParcel(stringTable = true) and @AutoParcel(graph = true) only"
+          + " apply to a class that implements Parcelable", type);
+    }
+    if (vars.utf8Strings && !vars.parcelable) {
+      errorReporter.reportError("@AutoParcel(utf8Strings = true) only applies to a class that"
+          + " implements Parcelable", type);
+    }
+    if (vars.cacheParcel && !vars.parcelable) {
+      errorReporter.reportError("@AutoParcel(parcelCacheThreshold = " + vars.parcelCacheThreshold
+          + ") only applies to a class that implements Parcelable", type);
+    }
+    if (vars.parcelable) {
+      // A wide class with a builder reads its Parcel into a builder, which has no packed fields,
+      // so it writes its packed properties one by one too.
+      parcelSerialization.defineVars(vars, vars.constructFromBuilder ? props : unpackedProps);
+    } else {
+      // Only to report errors in the @PropertyCodec annotations, which an @AutoAdapter may use.
+      PropertyCodecs propertyCodecs = new PropertyCodecs(processingEnv, errorReporter, type);
+      for (Property prop : props) {
+        propertyCodecs.forProperty(prop.getMethod());
+      }
+    }
     // Check for @AutoParcel.Builder and add appropriate variables if it is present.
     if (builder.isPresent()) {
       builder.get().defineVars(vars, typeSimplifier, methodToPropertyName);
     }
   }
 
+  /**
+   * Marks the properties that {@link AutoParcel.LazyParcel} applies to, and reports an error if it
+   * is used where it cannot apply. A property that the annotation of the class would make lazy is
+   * read eagerly instead if its value may contain binders or file descriptors.
+   */
+  private void defineLazyParcelProperties(TypeElement type, AutoParcelTemplateVars vars,
+      ParcelSerialization parcelSerialization) {
+    boolean classIsLazy = MoreElements.isAnnotationPresent(type, AutoParcel.LazyParcel.class);
+    boolean anyLazy = classIsLazy;
+    for (Property prop : vars.props) {
+      ExecutableElement method = prop.getMethod();
+      TypeKind kind = method.getReturnType().getKind();
+      boolean annotated = MoreElements.isAnnotationPresent(method, AutoParcel.LazyParcel.class);
+      if (annotated && (kind.isPrimitive() || kind == TypeKind.ARRAY)) {
+        errorReporter.reportError("@AutoParcel.LazyParcel can only apply to a property of a"
+            + " non-array reference type", method);
+        continue;
+      }
+      anyLazy |= annotated;
+      if (vars.parcelable && !vars.constructFromBuilder
+          && (annotated || (classIsLazy && isLargeValueType(method.getReturnType())))) {
+        if (parcelSerialization.mayWriteBinders(method.getReturnType())) {
+          if (annotated) {
+            errorReporter.reportError("@AutoParcel.LazyParcel cannot apply to a property whose"
+                + " value may contain binders or file descriptors, which Parcel.marshall() rejects",
+                method);
+          }
+          continue;
+        }
+        prop.setLazyParcel();
+        vars.lazyParcel = true;
+      }
+    }
+    if (anyLazy && !vars.parcelable) {
+      errorReporter.reportError(
+          "@AutoParcel.LazyParcel only applies to a class that implements Parcelable", type);
+    } else if (anyLazy && vars.constructFromBuilder) {
+      errorReporter.reportError("@AutoParcel.LazyParcel does not apply to a class with more than "
+          + WIDE_PROPERTIES + " properties and a builder", type);
+    }
+    if (anyLazy && vars.parcelTables) {
+      // A lazy property is decoded after the rest of the Parcel, whose tables are gone by then.
+      errorReporter.reportError("@AutoParcel.LazyParcel does not apply to a class with"
+          + " @AutoParcel(stringTable = true) or @AutoParcel(graph = true)", type);
+    }
+  }
+
+  /**
+   * True if values of {@code type} may be large enough to be worth decoding lazily: collections,
+   * maps and other {@code @AutoParcel} classes.
+   */
+  private boolean isLargeValueType(TypeMirror type) {
+    if (type.getKind() != TypeKind.DECLARED) {
+      return false;
+    }
+    Types typeUtils = processingEnv.getTypeUtils();
+    TypeMirror erased = typeUtils.erasure(type);
+    return typeUtils.isAssignable(erased, typeUtils.erasure(getTypeMirror(Collection.class)))
+        || typeUtils.isAssignable(erased, typeUtils.erasure(getTypeMirror(Map.class)))
+        || typeUtils.asElement(type).getAnnotation(AutoParcel.class) != null;
+  }
+
+  /**
+   * Reports an error if the constructor that takes every property would have more parameters than
+   * the JVM allows, which only a class with a builder can avoid.
+   */
+  private void checkConstructorSize(TypeElement type, AutoParcelTemplateVars vars) {
+    int slots = 1;
+    for (Property prop : vars.props) {
+      TypeKind kind = prop.getKind();
+      slots += (kind == TypeKind.LONG || kind == TypeKind.DOUBLE) ? 2 : 1;
+    }
+    slots += vars.presenceFields.size() * (vars.presenceFieldType.equals("long") ? 2 : 1);
+    if (slots > MAX_PARAMETER_SLOTS) {
+      errorReporter.abortWithError("@AutoParcel class has too many properties for its constructor,"
+          + " which would need " + slots + " parameter slots where the limit is "
+          + MAX_PARAMETER_SLOTS + "; declare an @AutoParcel.Builder, from which a class this wide"
+          + " is constructed directly", type);
+    }
+  }
+
   private ImmutableMap<ExecutableElement, String> methodToPropertyNameMap(
       Iterable<ExecutableElement> propertyMethods) {
     ImmutableMap.Builder<ExecutableElement, String> builder = ImmutableMap.builder();
@@ -597,11 +1114,13 @@ public class AutoParcelProcessor extends AbstractProcessor {
     }
   }
 
-  private ImmutableSet<ExecutableElement> methodsToImplement(List<ExecutableElement> methods) {
+  private ImmutableSet<ExecutableElement> methodsToImplement(
+      List<ExecutableElement> methods, Set<ExecutableElement> accessorMethods) {
     ImmutableSet.Builder<ExecutableElement> toImplement = ImmutableSet.builder();
     boolean errors = false;
     for (ExecutableElement method : methods) {
       if (method.getModifiers().contains(Modifier.ABSTRACT)
+          && !accessorMethods.contains(method)
           && objectMethodToOverride(method) == ObjectMethodToOverride.NONE) {
         if (method.getParameters().isEmpty() && method.getReturnType().getKind() != TypeKind.VOID) {
           if (isReferenceArrayType(method.getReturnType())) {
@@ -610,13 +1129,13 @@ public class AutoParcelProcessor extends AbstractProcessor {
             errors = true;
           }
           toImplement.add(method);
-        } else {
+        } else if (!isWither(method)) {
           // This could reasonably be an error, were it not for an Eclipse bug in
           // ElementUtils.override that sometimes fails to recognize that one method overrides
           // another, and therefore leaves us with both an abstract method and the subclass method
           // that overrides it. This shows up in AutoParcelTest.LukesBase for example.
           errorReporter.reportWarning("@AutoParcel classes cannot have abstract methods other than"
-              + " property getters and Builder converters", method);
+              + " property getters, withers and Builder converters", method);
         }
       }
     }
@@ -626,6 +1145,248 @@ public class AutoParcelProcessor extends AbstractProcessor {
     return toImplement.build();
   }
 
+  /**
+   * Returns the methods marked {@code @AutoParcel.Memoized}, after checking that each of them can
+   * be overridden by a method that caches its result.
+   */
+  private ImmutableList<ExecutableElement> memoizedMethods(
+      TypeElement type, List<ExecutableElement> methods) {
+    ImmutableList.Builder<ExecutableElement> memoized = ImmutableList.builder();
+    boolean errors = false;
+    for (ExecutableElement method : ElementFilter.methodsIn(type.getEnclosedElements())) {
+      if (method.getModifiers().contains(Modifier.PRIVATE)
+          && MoreElements.isAnnotationPresent(method, AutoParcel.Memoized.class)) {
+        errorReporter.reportError("@AutoParcel.Memoized cannot apply to a private method", method);
+        errors = true;
+      }
+    }
+    for (ExecutableElement method : methods) {
+      if (!MoreElements.isAnnotationPresent(method, AutoParcel.Memoized.class)) {
+        continue;
+      }
+      Set<Modifier> modifiers = method.getModifiers();
+      String error = null;
+      if (modifiers.contains(Modifier.ABSTRACT)) {
+        error = "@AutoParcel.Memoized cannot apply to an abstract method";
+      } else if (modifiers.contains(Modifier.STATIC)) {
+        error = "@AutoParcel.Memoized cannot apply to a static method";
+      } else if (modifiers.contains(Modifier.FINAL)) {
+        error = "@AutoParcel.Memoized cannot apply to a final method";
+      } else if (!method.getParameters().isEmpty()) {
+        error = "@AutoParcel.Memoized method must not have parameters";
+      } else if (!method.getTypeParameters().isEmpty()) {
+        error = "@AutoParcel.Memoized method must not have type parameters";
+      } else if (method.getReturnType().getKind() == TypeKind.VOID) {
+        error = "Return type of @AutoParcel.Memoized method must not be void";
+      }
+      if (error == null) {
+        memoized.add(method);
+      } else {
+        errorReporter.reportError(error, method);
+        errors = true;
+      }
+    }
+    if (errors) {
+      throw new AbortProcessingException();
+    }
+    return memoized.build();
+  }
+
+  /** True if {@code method} is an abstract {@code withFoo(value)} method. */
+  private static boolean isWither(ExecutableElement method) {
+    String name = method.getSimpleName().toString();
+    return method.getModifiers().contains(Modifier.ABSTRACT)
+        && method.getParameters().size() == 1
+        && name.length() > 4
+        && name.startsWith("with")
+        && Character.isUpperCase(name.charAt(4));
+  }
+
+  private static ImmutableList<ExecutableElement> witherMethods(List<ExecutableElement> methods) {
+    ImmutableList.Builder<ExecutableElement> withers = ImmutableList.builder();
+    for (ExecutableElement method : methods) {
+      if (isWither(method) && objectMethodToOverride(method) == ObjectMethodToOverride.NONE) {
+        withers.add(method);
+      }
+    }
+    return withers.build();
+  }
+
+  /**
+   * Matches each {@code withFoo(value)} method with the property {@code foo}, after checking that
+   * it returns the {@code @AutoParcel} type and that {@code value} has the type of the property.
+   */
+  private ImmutableList<WitherMethod> withers(
+      TypeElement type, List<ExecutableElement> witherMethods, List<Property> props) {
+    Types typeUtils = processingEnv.getTypeUtils();
+    ImmutableList.Builder<WitherMethod> withers = ImmutableList.builder();
+    boolean errors = false;
+    for (ExecutableElement method : witherMethods) {
+      Property property = null;
+      for (Property prop : props) {
+        String name = prop.getName();
+        String witherName = "with" + Character.toUpperCase(name.charAt(0)) + name.substring(1);
+        if (method.getSimpleName().contentEquals(witherName)) {
+          property = prop;
+        }
+      }
+      String error = null;
+      if (property == null) {
+        error = "Method does not correspond to a property of " + type;
+      } else if (!typeUtils.isSameType(method.getReturnType(), type.asType())) {
+        error = "Return type of wither method must be " + type.asType();
+      } else if (!typeUtils.isSameType(
+          method.getParameters().get(0).asType(), property.getTypeMirror())) {
+        error = "Parameter type should be " + property.getTypeMirror();
+      }
+      if (error == null) {
+        withers.add(new WitherMethod(method, property));
+      } else {
+        errorReporter.reportError(error, method);
+        errors = true;
+      }
+    }
+    if (errors) {
+      throw new AbortProcessingException();
+    }
+    return withers.build();
+  }
+
+  /**
+   * Returns a map from each abstract {@code fooAt(int)} or {@code int fooLength()} method to the
+   * abstract getter {@code foo()} of the primitive array property that it reads.
+   */
+  private ImmutableMap<ExecutableElement, ExecutableElement> arrayAccessorMethods(
+      List<ExecutableElement> methods) {
+    Map<String, ExecutableElement> arrayGetters = Maps.newHashMap();
+    for (ExecutableElement method : methods) {
+      if (method.getModifiers().contains(Modifier.ABSTRACT)
+          && method.getParameters().isEmpty()
+          && method.getReturnType().getKind() == TypeKind.ARRAY) {
+        arrayGetters.put(method.getSimpleName().toString(), method);
+      }
+    }
+    ImmutableMap.Builder<ExecutableElement, ExecutableElement> accessors = ImmutableMap.builder();
+    if (arrayGetters.isEmpty()) {
+      return accessors.build();
+    }
+    for (ExecutableElement method : methods) {
+      if (!method.getModifiers().contains(Modifier.ABSTRACT)) {
+        continue;
+      }
+      String name = method.getSimpleName().toString();
+      List<? extends VariableElement> parameters = method.getParameters();
+      ExecutableElement getter = null;
+      if (name.endsWith("At")
+          && parameters.size() == 1
+          && parameters.get(0).asType().getKind() == TypeKind.INT) {
+        getter = arrayGetters.get(name.substring(0, name.length() - 2));
+      } else if (name.endsWith("Length")
+          && parameters.isEmpty()
+          && method.getReturnType().getKind() == TypeKind.INT) {
+        getter = arrayGetters.get(name.substring(0, name.length() - 6));
+      }
+      if (getter != null) {
+        accessors.put(method, getter);
+      }
+    }
+    return accessors.build();
+  }
+
+  /**
+   * Matches each {@code fooAt(int)} or {@code fooLength()} method with the property {@code foo},
+   * after checking that {@code fooAt} returns the element type of the array.
+   */
+  private ImmutableList<ArrayAccessor> arrayAccessors(
+      Map<ExecutableElement, ExecutableElement> arrayAccessorMethods,
+      List<Property> props,
+      TypeSimplifier typeSimplifier) {
+    Types typeUtils = processingEnv.getTypeUtils();
+    ImmutableList.Builder<ArrayAccessor> accessors = ImmutableList.builder();
+    boolean errors = false;
+    for (Map.Entry<ExecutableElement, ExecutableElement> entry : arrayAccessorMethods.entrySet()) {
+      ExecutableElement method = entry.getKey();
+      Property property = null;
+      for (Property prop : props) {
+        if (prop.getMethod().equals(entry.getValue())) {
+          property = prop;
+        }
+      }
+      if (property == null) {
+        // The getter is not a property, which has already been reported.
+        continue;
+      }
+      boolean length = method.getParameters().isEmpty();
+      TypeMirror elementType = ((ArrayType) property.getTypeMirror()).getComponentType();
+      if (!length && !typeUtils.isSameType(method.getReturnType(), elementType)) {
+        errorReporter.reportError("Return type of array accessor must be " + elementType, method);
+        errors = true;
+      } else {
+        accessors.add(new ArrayAccessor(
+            method, property, length ? "int" : typeSimplifier.simplify(elementType), length));
+      }
+    }
+    if (errors) {
+      throw new AbortProcessingException();
+    }
+    return accessors.build();
+  }
+
+  /**
+   * Returns a map from each abstract primitive getter {@code foo()} to the abstract
+   * {@code boolean hasFoo()} method that makes it an optional property, if there is one.
+   */
+  private static ImmutableMap<ExecutableElement, ExecutableElement> presenceMethods(
+      List<ExecutableElement> methods) {
+    Map<String, ExecutableElement> booleanMethods = Maps.newHashMap();
+    for (ExecutableElement method : methods) {
+      if (method.getModifiers().contains(Modifier.ABSTRACT)
+          && method.getParameters().isEmpty()
+          && method.getReturnType().getKind() == TypeKind.BOOLEAN) {
+        booleanMethods.put(method.getSimpleName().toString(), method);
+      }
+    }
+    ImmutableMap.Builder<ExecutableElement, ExecutableElement> presence = ImmutableMap.builder();
+    for (ExecutableElement method : methods) {
+      if (method.getModifiers().contains(Modifier.ABSTRACT)
+          && method.getParameters().isEmpty()
+          && method.getReturnType().getKind().isPrimitive()) {
+        ExecutableElement has =
+            booleanMethods.get(presenceMethodName(method.getSimpleName().toString()));
+        if (has != null) {
+          presence.put(method, has);
+        }
+      }
+    }
+    return presence.build();
+  }
+
+  /**
+   * Returns the note that says that {@code getter} is an optional property because {@code type}
+   * also declares {@code presenceMethod}.
+   */
+  static String optionalPropertyNote(
+      TypeElement type, ExecutableElement getter, ExecutableElement presenceMethod) {
+    return String.format("Property %1$s of %2$s is optional because %2$s declares %3$s(), so the"
+        + " generated code treats it as absent whenever %3$s() is false",
+        getter.getSimpleName(), type.getSimpleName(), presenceMethod.getSimpleName());
+  }
+
+  /**
+   * Returns the name of the method that says whether the property read by {@code getter} is
+   * present: {@code hasFoo} for a getter called {@code foo}, {@code getFoo} or {@code isFoo}.
+   */
+  static String presenceMethodName(String getter) {
+    for (String prefix : new String[] {"get", "is"}) {
+      if (getter.length() > prefix.length()
+          && getter.startsWith(prefix)
+          && Character.isUpperCase(getter.charAt(prefix.length()))) {
+        return "has" + getter.substring(prefix.length());
+      }
+    }
+    return "has" + Character.toUpperCase(getter.charAt(0)) + getter.substring(1);
+  }
+
   private static boolean isReferenceArrayType(TypeMirror type) {
     return type.getKind() == TypeKind.ARRAY
         && !((ArrayType) type).getComponentType().getKind().isPrimitive();
@@ -54,21 +54,89 @@ class AutoParcelTemplateVars extends TemplateVars {
               "${gwtCompatibleAnnotation}\n" +
               "final class $subclass$formalTypes extends $origClass$actualTypes {\n" +
               "\n" +
+              "## The type of the local variable holding a value that is built and then maybe interned.\n" +
+              "#if ($intern)\n" +
+              "#set ($resultClass = $subclass)\n" +
+              "#else\n" +
+              "#set ($resultClass = $origClass)\n" +
+              "#end\n" +
               "## Fields\n" +
+              "## The builder of a wide class and the class itself read each other's fields, which are therefore\n" +
+              "## not private, since the compiler would add an accessor method for each private one.\n" +
+              "#if ($constructFromBuilder)\n" +
+              "#set ($fieldAccess = \"\")\n" +
+              "#else\n" +
+              "#set ($fieldAccess = \"private \")\n" +
+              "#end\n" +
               "\n" +
               "#foreach ($p in $props)\n" +
+              "#if ($p.lazyParcel)\n" +
+              "## The value given to the constructor, or the bytes read from a Parcel and the value decoded from\n" +
+              "## them, which is published through the volatile field since the getter may run on any thread.\n" +
               "  private final $p.type $p;\n" +
+              "  private final byte[] parcel$${p};\n" +
+              "  private transient volatile $p.type decoded$${p};\n" +
+              "#elseif (!$p.packed)\n" +
+              "  ${fieldAccess}final $p.type $p;\n" +
+              "#end\n" +
+              "#end\n" +
+              "#foreach ($f in $packedFields)\n" +
+              "  ${fieldAccess}final $packedFieldType $f;\n" +
+              "#end\n" +
+              "#foreach ($f in $presenceFields)\n" +
+              "  ${fieldAccess}final $presenceFieldType $f;\n" +
+              "#end\n" +
+              "#foreach ($f in $packedValuesFields)\n" +
+              "  $f\n" +
+              "#end\n" +
+              "\n" +
+              "#if ($cacheHashCode)\n" +
+              "  private transient int hashCode$;\n" +
+              "#end\n" +
+              "#if ($cacheParcel)\n" +
+              "  private transient volatile android.os.Parcel marshalled$;\n" +
+              "#end\n" +
+              "\n" +
+              "#foreach ($m in $memoizedMethods)\n" +
+              "  private transient $m.type $m.field;\n" +
+              "  private transient volatile boolean $m.flag;\n" +
+              "#end\n" +
+              "\n" +
+              "#if ($intern)\n" +
+              "  private static final ${autoParcelInterner}<${subclass}${wildcardTypes}> INTERNER =\n" +
+              "      new ${autoParcelInterner}<${subclass}${wildcardTypes}>();\n" +
               "#end\n" +
               "\n" +
               "## Constructor\n" +
               "\n" +
+              "#if ($constructFromBuilder)\n" +
+              "## A wide class is constructed from its builder, which has already checked the properties, so that\n" +
+              "## the constructor needs neither a parameter slot per property nor code to check each one.\n" +
+              "  $subclass(Builder${builderActualTypes} builder) {\n" +
+              "#foreach ($p in $props)\n" +
+              "#if (!$p.packed)\n" +
+              "    this.$p = builder.$p;\n" +
+              "#end\n" +
+              "#end\n" +
+              "#foreach ($i in $packedInitializers)\n" +
+              "    $i\n" +
+              "#end\n" +
+              "#foreach ($f in $presenceFields)\n" +
+              "    this.$f = builder.$f;\n" +
+              "#end\n" +
+              "  }\n" +
+              "#else\n" +
               "#if ($builderTypeName != \"\")\n" +
               "  private ##\n" +
               "#end\n" +
               "  $subclass(\n" +
               "#foreach ($p in $props)\n" +
               "\n" +
-              "      $p.type $p #if ($foreach.hasNext) , #end\n" +
+              "      $p.type $p #if ($foreach.hasNext || !$presenceFields.empty) , #end\n" +
+              "#end\n" +
+              "#foreach ($f in $presenceFields)\n" +
+              "\n" +
+              "      $presenceFieldType $f #if ($foreach.hasNext) , #end\n" +
               "#end ) {\n" +
               "#foreach ($p in $props)\n" +
               "  #if (!$p.kind.primitive && !$p.nullable)\n" +
@@ -79,9 +147,36 @@ class AutoParcelTemplateVars extends TemplateVars {
               "\n" +
               "  #end\n" +
               "\n" +
+              "#if ($p.optional)\n" +
+              "    this.$p = ${p.present($p.presenceField)} ? $p : $p.defaultValue;\n" +
+              "#elseif (!$p.packed)\n" +
               "    this.$p = $p;\n" +
               "#end\n" +
+              "#if ($p.lazyParcel)\n" +
+              "    this.parcel$${p} = null;\n" +
+              "#end\n" +
+              "#end\n" +
+              "#foreach ($i in $packedInitializers)\n" +
+              "    $i\n" +
+              "#end\n" +
+              "#foreach ($f in $presenceFields)\n" +
+              "    this.$f = $f;\n" +
+              "#end\n" +
+              "  }\n" +
+              "#end\n" +
+              "\n" +
+              "#if ($intern)\n" +
+              "#if ($actualTypes.empty)\n" +
+              "  static ${subclass} intern(${subclass} value) {\n" +
+              "    return INTERNER.intern(value);\n" +
               "  }\n" +
+              "#else\n" +
+              "  @SuppressWarnings(\"unchecked\")\n" +
+              "  static ${formalTypes} ${subclass}${actualTypes} intern(${subclass}${actualTypes} value) {\n" +
+              "    return (${subclass}${actualTypes}) INTERNER.intern(value);\n" +
+              "  }\n" +
+              "#end\n" +
+              "#end\n" +
               "\n" +
               "## Property getters\n" +
               "\n" +
@@ -95,7 +190,7 @@ class AutoParcelTemplateVars extends TemplateVars {
               "  @Override\n" +
               "  ${p.access}${p.type} ${p.getter}() {\n" +
               "\n" +
-              "  #if ($p.kind == \"ARRAY\")\n" +
+              "  #if ($p.kind == \"ARRAY\" && !$p.sharedArray)\n" +
               "\n" +
               "    #if ($p.nullable)\n" +
               "\n" +
@@ -107,6 +202,20 @@ class AutoParcelTemplateVars extends TemplateVars {
               "\n" +
               "    #end\n" +
               "\n" +
+              "  #elseif ($p.packed)\n" +
+              "    #foreach ($statement in $p.packedGetter)\n" +
+              "\n" +
+              "    $statement\n" +
+              "\n" +
+              "    #end\n" +
+              "  #elseif ($p.lazyParcel)\n" +
+              "\n" +
+              "    if (parcel$${p} == null) {\n" +
+              "      return $p;\n" +
+              "    }\n" +
+              "    $p.type value$ = decoded$${p};\n" +
+              "    return value$ != null ? value$ : unmarshall$${p}();\n" +
+              "\n" +
               "  #else\n" +
               "\n" +
               "    return $p;\n" +
@@ -115,6 +224,95 @@ class AutoParcelTemplateVars extends TemplateVars {
               "\n" +
               "  }\n" +
               "\n" +
+              "  #if ($p.optional)\n" +
+              "\n" +
+              "  @Override\n" +
+              "  ${p.presenceAccess}boolean ${p.presenceMethod}() {\n" +
+              "    return ${p.present($p.presenceField)};\n" +
+              "  }\n" +
+              "\n" +
+              "  #end\n" +
+              "#end\n" +
+              "\n" +
+              "#foreach ($m in $memoizedMethods)\n" +
+              "\n" +
+              "  @Override\n" +
+              "  ${m.access}${m.type} ${m.name}()${m.throwsClause} {\n" +
+              "    if (!$m.flag) {\n" +
+              "      synchronized (this) {\n" +
+              "        if (!$m.flag) {\n" +
+              "          $m.field = super.${m.name}();\n" +
+              "          $m.flag = true;\n" +
+              "        }\n" +
+              "      }\n" +
+              "    }\n" +
+              "    return $m.field;\n" +
+              "  }\n" +
+              "\n" +
+              "#end\n" +
+              "\n" +
+              "#foreach ($a in $arrayAccessors)\n" +
+              "\n" +
+              "  @Override\n" +
+              "  ${a.access}${a.type} ${a.name}(#if (!$a.length)int index#end) {\n" +
+              "#if ($a.length)\n" +
+              "    return ${a.property}.length;\n" +
+              "#else\n" +
+              "    return ${a.property}[index];\n" +
+              "#end\n" +
+              "  }\n" +
+              "\n" +
+              "#end\n" +
+              "#foreach ($w in $withers)\n" +
+              "#set ($wp = $w.property)\n" +
+              "\n" +
+              "  @Override\n" +
+              "  ${w.access}${origClass}${actualTypes} ${w.name}($wp.type $wp) {\n" +
+              "#if ($wp.kind == \"FLOAT\")\n" +
+              "    if (Float.floatToIntBits($wp) == Float.floatToIntBits(this.$wp)##\n" +
+              "        #if ($wp.optional) && ${wp.present(\"this.$wp.presenceField\")} #end) {\n" +
+              "      return this;\n" +
+              "    }\n" +
+              "#elseif ($wp.kind == \"DOUBLE\")\n" +
+              "    if (Double.doubleToLongBits($wp) == Double.doubleToLongBits(this.$wp)##\n" +
+              "        #if ($wp.optional) && ${wp.present(\"this.$wp.presenceField\")} #end) {\n" +
+              "      return this;\n" +
+              "    }\n" +
+              "#elseif ($wp.kind != \"ARRAY\" || $wp.sharedArray)\n" +
+              "    if ($wp == ${wp.read(\"this\")}##\n" +
+              "        #if ($wp.optional) && ${wp.present(\"this.$wp.presenceField\")} #end) {\n" +
+              "      return this;\n" +
+              "    }\n" +
+              "#end\n" +
+              "#if ($constructFromBuilder)\n" +
+              "    Builder${builderActualTypes} builder$ = new Builder${builderActualTypes}(this);\n" +
+              "    builder$.$builderSetterNames[$wp.name]($wp);\n" +
+              "    return builder$.${buildMethodName}();\n" +
+              "#else\n" +
+              "    ${resultClass}${actualTypes} result$ = new ${subclass}${actualTypes}(\n" +
+              "#foreach ($p in $props)\n" +
+              "#if ($p.name != $wp.name)\n" +
+              "        ${p.read(\"this\")} #if ($foreach.hasNext || !$presenceFields.empty) , #end\n" +
+              "#elseif ($p.kind == \"ARRAY\" && !$p.sharedArray && $p.nullable)\n" +
+              "        ($p == null) ? null : ${p}.clone() #if ($foreach.hasNext || !$presenceFields.empty) , #end\n" +
+              "#elseif ($p.kind == \"ARRAY\" && !$p.sharedArray)\n" +
+              "        ${p}.clone() #if ($foreach.hasNext || !$presenceFields.empty) , #end\n" +
+              "#else\n" +
+              "        $p #if ($foreach.hasNext || !$presenceFields.empty) , #end\n" +
+              "#end\n" +
+              "#end\n" +
+              "#foreach ($f in $presenceFields)\n" +
+              "        #if ($wp.optional && $wp.presenceField == $f) this.$f | $wp.presenceBit #else this.$f #end ##\n" +
+              "        #if ($foreach.hasNext) , #end\n" +
+              "#end\n" +
+              "        );\n" +
+              "#foreach ($v in $validators)\n" +
+              "    result$.${v}();\n" +
+              "#end\n" +
+              "    return #if ($intern) intern(result$) #else result$ #end;\n" +
+              "#end\n" +
+              "  }\n" +
+              "\n" +
               "#end\n" +
               "\n" +
               "#if ($toString)\n" +
@@ -126,7 +324,10 @@ class AutoParcelTemplateVars extends TemplateVars {
               "  #foreach ($p in $props)\n" +
               "\n" +
               "        + \"$p.name=\" ##\n" +
-              "        + #if ($p.kind == \"ARRAY\") ${arrays}.toString($p) #else $p #end\n" +
+              "        + #if ($p.kind == \"ARRAY\") ${arrays}.toString($p) ##\n" +
+              "          #elseif ($p.packed || $p.lazyParcel) ${p.getter}() ##\n" +
+              "          #elseif ($p.optional) (${p.present($p.presenceField)} ? String.valueOf($p) : \"null\") ##\n" +
+              "          #else $p #end\n" +
               "        #if ($foreach.hasNext) + \", \" #end\n" +
               "\n" +
               "  #end\n" +
@@ -138,18 +339,46 @@ class AutoParcelTemplateVars extends TemplateVars {
               "\n" +
               "#if ($equals)\n" +
               "  #macro (equalsThatExpression $p)\n" +
-              "    #if ($p.kind == \"FLOAT\")\n" +
+              "    #if ($p.optional)\n" +
+              "      (${p.present(\"this.$p.presenceField\")}) == that.${p.presenceMethod}() && ##\n" +
+              "    #end\n" +
+              "    #if ($p.packed)\n" +
+              "      this.${p.getter}() == that.${p.getter}() ##\n" +
+              "    #elseif ($p.kind == \"FLOAT\")\n" +
               "      Float.floatToIntBits(this.$p) == Float.floatToIntBits(that.${p.getter}()) ##\n" +
               "    #elseif ($p.kind == \"DOUBLE\")\n" +
               "      Double.doubleToLongBits(this.$p) == Double.doubleToLongBits(that.${p.getter}()) ##\n" +
               "    #elseif ($p.kind.primitive)\n" +
               "      this.$p == that.${p.getter}() ##\n" +
               "    #elseif ($p.kind == \"ARRAY\")\n" +
-              "      ${arrays}.equals(this.$p, ##\n" +
-              "          (that instanceof $subclass) ? (($subclass) that).$p : that.${p.getter}()) ##\n" +
+              "      ${arrays}.equals(this.$p, that.${p.getter}()) ##\n" +
               "    #else\n" +
-              "      #if ($p.nullable) (this.$p == null) ? (that.${p.getter}() == null) : #end ##\n" +
-              "          this.${p}.equals(that.${p.getter}()) ##\n" +
+              "      #if ($p.lazyParcel)\n" +
+              "        #set ($value = \"this.${p.getter}()\")\n" +
+              "      #else\n" +
+              "        #set ($value = \"this.$p\")\n" +
+              "      #end\n" +
+              "      #if ($p.nullable) ($value == null) ? (that.${p.getter}() == null) : #end ##\n" +
+              "          ${value}.equals(that.${p.getter}()) ##\n" +
+              "    #end\n" +
+              "  #end\n" +
+              "  ## Compares fields directly when the other object is also a $subclass, trying reference\n" +
+              "  ## equality before calling equals.\n" +
+              "  #macro (equalsFieldExpression $p)\n" +
+              "    #if ($p.kind == \"FLOAT\")\n" +
+              "      Float.floatToIntBits(this.$p) == Float.floatToIntBits(that.$p) ##\n" +
+              "    #elseif ($p.kind == \"DOUBLE\")\n" +
+              "      Double.doubleToLongBits(this.$p) == Double.doubleToLongBits(that.$p) ##\n" +
+              "    #elseif ($p.kind.primitive || $p.enumType)\n" +
+              "      this.$p == that.$p ##\n" +
+              "    #elseif ($p.kind == \"ARRAY\")\n" +
+              "      ${arrays}.equals(this.$p, that.$p) ##\n" +
+              "    #elseif ($p.lazyParcel)\n" +
+              "      #equalsThatExpression ($p)\n" +
+              "    #elseif ($p.nullable)\n" +
+              "      this.$p == that.$p || (this.$p != null && this.${p}.equals(that.$p)) ##\n" +
+              "    #else\n" +
+              "      this.$p == that.$p || this.${p}.equals(that.$p) ##\n" +
               "    #end\n" +
               "  #end\n" +
               "\n" +
@@ -158,6 +387,57 @@ class AutoParcelTemplateVars extends TemplateVars {
               "    if (o == this) {\n" +
               "      return true;\n" +
               "    }\n" +
+              "\n" +
+              "  #if (!$props.empty)\n" +
+              "\n" +
+              "    if (o instanceof $subclass) {\n" +
+              "      $subclass$wildcardTypes that = ($subclass$wildcardTypes) o;\n" +
+              "\n" +
+              "    #if ($cacheHashCode)\n" +
+              "\n" +
+              "      if (hashCode$ != 0 && that.hashCode$ != 0 && hashCode$ != that.hashCode$) {\n" +
+              "        return false;\n" +
+              "      }\n" +
+              "\n" +
+              "    #end\n" +
+              "\n" +
+              "      return ##\n" +
+              "           #foreach ($f in $packedFields)\n" +
+              "           (this.$f == that.$f)##\n" +
+              "             #if ($foreach.hasNext || !$presenceFields.empty || !$equalsOrder.empty)\n" +
+              "\n" +
+              "           && ##\n" +
+              "             #end\n" +
+              "           #end\n" +
+              "           #foreach ($f in $presenceFields)\n" +
+              "           (this.$f == that.$f)##\n" +
+              "             #if ($foreach.hasNext || !$equalsOrder.empty)\n" +
+              "\n" +
+              "           && ##\n" +
+              "             #end\n" +
+              "           #end\n" +
+              "           #if ($wide)\n" +
+              "             #foreach ($c in $equalsChunks)\n" +
+              "           equals$${foreach.index}(that)##\n" +
+              "               #if ($foreach.hasNext)\n" +
+              "\n" +
+              "           && ##\n" +
+              "               #end\n" +
+              "             #end\n" +
+              "           #else\n" +
+              "             #foreach ($p in $equalsOrder)\n" +
+              "           (#equalsFieldExpression ($p))##\n" +
+              "               #if ($foreach.hasNext)\n" +
+              "\n" +
+              "           && ##\n" +
+              "               #end\n" +
+              "             #end\n" +
+              "           #end\n" +
+              "           ;\n" +
+              "    }\n" +
+              "\n" +
+              "  #end\n" +
+              "\n" +
               "    if (o instanceof $origClass) {\n" +
               "\n" +
               "  #if ($props.empty)\n" +
@@ -168,6 +448,15 @@ class AutoParcelTemplateVars extends TemplateVars {
               "\n" +
               "      $origClass$wildcardTypes that = ($origClass$wildcardTypes) o;\n" +
               "      return ##\n" +
+              "    #if ($wide)\n" +
+              "           #foreach ($c in $propChunks)\n" +
+              "           equalsThat$${foreach.index}(that)##\n" +
+              "             #if ($foreach.hasNext)\n" +
+              "\n" +
+              "           && ##\n" +
+              "             #end\n" +
+              "           #end\n" +
+              "    #else\n" +
               "           #foreach ($p in $props)\n" +
               "           (#equalsThatExpression ($p))##\n" +
               "             #if ($foreach.hasNext)\n" +
@@ -175,12 +464,43 @@ class AutoParcelTemplateVars extends TemplateVars {
               "           && ##\n" +
               "             #end\n" +
               "           #end\n" +
+              "    #end\n" +
               "           ;\n" +
               "  #end\n" +
               "\n" +
               "    }\n" +
               "    return false;\n" +
               "  }\n" +
+              "  #if ($wide)\n" +
+              "    #foreach ($c in $equalsChunks)\n" +
+              "\n" +
+              "  private boolean equals$${foreach.index}($subclass$wildcardTypes that) {\n" +
+              "    return ##\n" +
+              "      #foreach ($p in $c)\n" +
+              "        (#equalsFieldExpression ($p))##\n" +
+              "        #if ($foreach.hasNext)\n" +
+              "\n" +
+              "        && ##\n" +
+              "        #end\n" +
+              "      #end\n" +
+              "        ;\n" +
+              "  }\n" +
+              "    #end\n" +
+              "    #foreach ($c in $propChunks)\n" +
+              "\n" +
+              "  private boolean equalsThat$${foreach.index}($origClass$wildcardTypes that) {\n" +
+              "    return ##\n" +
+              "      #foreach ($p in $c)\n" +
+              "        (#equalsThatExpression ($p))##\n" +
+              "        #if ($foreach.hasNext)\n" +
+              "\n" +
+              "        && ##\n" +
+              "        #end\n" +
+              "      #end\n" +
+              "        ;\n" +
+              "  }\n" +
+              "    #end\n" +
+              "  #end\n" +
               "\n" +
               "#end\n" +
               "\n" +
@@ -199,30 +519,132 @@ class AutoParcelTemplateVars extends TemplateVars {
               "    #elseif ($p.kind == \"ARRAY\")\n" +
               "      ${arrays}.hashCode($p) ##\n" +
               "    #else\n" +
-              "      #if ($p.nullable) ($p == null) ? 0 : #end ${p}.hashCode() ##\n" +
+              "      #if ($p.lazyParcel)\n" +
+              "        #set ($value = \"${p.getter}()\")\n" +
+              "      #else\n" +
+              "        #set ($value = \"$p\")\n" +
+              "      #end\n" +
+              "      #if ($p.nullable) ($value == null) ? 0 : #end ${value}.hashCode() ##\n" +
               "    #end\n" +
               "  #end\n" +
               "\n" +
               "  @Override\n" +
               "  public int hashCode() {\n" +
+              "\n" +
+              "  #if ($cacheHashCode)\n" +
+              "\n" +
+              "    int h = hashCode$;\n" +
+              "    if (h != 0) {\n" +
+              "      return h;\n" +
+              "    }\n" +
+              "    h = 1;\n" +
+              "\n" +
+              "  #else\n" +
+              "\n" +
               "    int h = 1;\n" +
               "\n" +
-              "  #foreach ($p in $props)\n" +
+              "  #end\n" +
+              "\n" +
+              "\n" +
+              "  #if ($wide)\n" +
+              "    #foreach ($c in $propChunks)\n" +
+              "\n" +
+              "    h = hashCode$${foreach.index}(h);\n" +
+              "\n" +
+              "    #end\n" +
+              "  #else\n" +
+              "    #foreach ($p in $props)\n" +
+              "      #if (!$p.packed)\n" +
               "\n" +
               "    h *= 1000003;\n" +
               "    h ^= #hashCodeExpression($p);\n" +
               "\n" +
+              "      #end\n" +
+              "    #end\n" +
               "  #end\n" +
+              "  #foreach ($f in $packedFields)\n" +
               "\n" +
+              "    h *= 1000003;\n" +
+              "    h ^= #if ($packedFieldType == \"long\") ($f >>> 32) ^ $f #else $f #end;\n" +
+              "\n" +
+              "  #end\n" +
+              "  #foreach ($f in $presenceFields)\n" +
+              "\n" +
+              "    h *= 1000003;\n" +
+              "    h ^= #if ($presenceFieldType == \"long\") ($f >>> 32) ^ $f #else $f #end;\n" +
+              "\n" +
+              "  #end\n" +
+              "\n" +
+              "  #if ($cacheHashCode)\n" +
+              "\n" +
+              "    hashCode$ = h;\n" +
+              "\n" +
+              "  #end\n" +
+              "\n" +
+              "    return h;\n" +
+              "  }\n" +
+              "  #if ($wide)\n" +
+              "    #foreach ($c in $propChunks)\n" +
+              "\n" +
+              "  private int hashCode$${foreach.index}(int h) {\n" +
+              "      #foreach ($p in $c)\n" +
+              "        #if (!$p.packed)\n" +
+              "\n" +
+              "    h *= 1000003;\n" +
+              "    h ^= #hashCodeExpression($p);\n" +
+              "\n" +
+              "        #end\n" +
+              "      #end\n" +
               "    return h;\n" +
               "  }\n" +
+              "    #end\n" +
+              "  #end\n" +
               "#end\n" +
               "\n" +
               "#if ($parcelable)\n" +
+              "## With string or value tables, the Parcel code passes the tables along with the Parcel.\n" +
+              "#if ($parcelTables)\n" +
+              "#set ($inParams = \"android.os.Parcel in, ${autoParcelTables} tables$\")\n" +
+              "#set ($inArgs = \"in, tables$\")\n" +
+              "#set ($destParams = \"android.os.Parcel dest, int flags, ${autoParcelTables} tables$\")\n" +
+              "#set ($destArgs = \"dest, flags, tables$\")\n" +
+              "#else\n" +
+              "#set ($inParams = \"android.os.Parcel in\")\n" +
+              "#set ($inArgs = \"in\")\n" +
+              "#set ($destParams = \"android.os.Parcel dest, int flags\")\n" +
+              "#set ($destArgs = \"dest, flags\")\n" +
+              "#end\n" +
+              "## Interning a value calls its hashCode, which would decode its lazy properties at once.\n" +
+              "#set ($internParcel = $intern && !$lazyParcel)\n" +
+              "#macro (createFromParcelBody)\n" +
+              "#if ($constructFromBuilder)\n" +
+              "      Builder builder = new Builder();\n" +
+              "#foreach ($f in $presenceFields)\n" +
+              "      builder.$f = #if ($presenceFieldType == \"long\") in.readLong() #else in.readInt() #end;\n" +
+              "#end\n" +
+              "#foreach ($w in $parcelNullWords)\n" +
+              "      $parcelNullWordType $w = #if ($parcelNullWordType == \"long\") in.readLong() #else in.readInt() #end;\n" +
+              "#end\n" +
+              "#foreach ($c in $propChunks)\n" +
+              "      builder.readFromParcel$${foreach.index}($inArgs ##\n" +
+              "#foreach ($w in $parcelNullWords)\n" +
+              ", $w ##\n" +
+              "#end\n" +
+              ");\n" +
+              "#end\n" +
+              "      return #if ($internParcel) intern(new $subclass(builder)) #else new $subclass(builder) #end;\n" +
+              "#else\n" +
+              "      return #if ($internParcel) intern(new $subclass($inArgs)) #else new $subclass($inArgs) #end;\n" +
+              "#end\n" +
+              "#end\n" +
               "  public static final android.os.Parcelable.Creator<$subclass> CREATOR = new android.os.Parcelable.Creator<$subclass>() {\n" +
               "    @Override\n" +
               "    public $subclass createFromParcel(android.os.Parcel in) {\n" +
-              "      return new $subclass(in);\n" +
+              "#if ($parcelTables)\n" +
+              "      return ${subclass}.createFromParcel(in, new ${autoParcelTables}());\n" +
+              "#else\n" +
+              "#createFromParcelBody()\n" +
+              "#end\n" +
               "    }\n" +
               "\n" +
               "    @Override\n" +
@@ -230,21 +652,212 @@ class AutoParcelTemplateVars extends TemplateVars {
               "      return new ${subclass}[size];\n" +
               "    }\n" +
               "  };\n" +
+              "#if ($parcelTables)\n" +
+              "\n" +
+              "  static $subclass createFromParcel($inParams) {\n" +
+              "#createFromParcelBody()\n" +
+              "  }\n" +
+              "#end\n" +
               "\n" +
               "  private final static java.lang.ClassLoader CL = ${subclass}.class.getClassLoader();\n" +
               "\n" +
-              "  private $subclass(android.os.Parcel in) {\n" +
-              "    this(#foreach ($p in $props)\n" +
-              "      ($p.castType) in.readValue(CL)#if ($foreach.hasNext), #end\n" +
-              "    #end);\n" +
+              "#foreach ($f in $parcelFields)\n" +
+              "  $f\n" +
+              "#end\n" +
+              "\n" +
+              "#if (!$constructFromBuilder)\n" +
+              "  private $subclass($inParams) {\n" +
+              "#foreach ($f in $packedFields)\n" +
+              "    this.$f = #if ($packedFieldType == \"long\") in.readLong() #else in.readInt() #end;\n" +
+              "#end\n" +
+              "#foreach ($f in $presenceFields)\n" +
+              "    this.$f = #if ($presenceFieldType == \"long\") in.readLong() #else in.readInt() #end;\n" +
+              "#end\n" +
+              "#foreach ($w in $parcelNullWords)\n" +
+              "    $parcelNullWordType $w = #if ($parcelNullWordType == \"long\") in.readLong() #else in.readInt() #end;\n" +
+              "#end\n" +
+              "#if ($wide)\n" +
+              "## Only the constructor may assign the final fields, so a wide class without a builder reads its\n" +
+              "## properties in chunks into a ParcelFields$, like a builder, and then copies them.\n" +
+              "    ParcelFields$${actualTypes} fields = new ParcelFields$${actualTypes}();\n" +
+              "#foreach ($f in $presenceFields)\n" +
+              "    fields.$f = this.$f;\n" +
+              "#end\n" +
+              "#foreach ($c in $propChunks)\n" +
+              "    fields.readFromParcel$${foreach.index}($inArgs ##\n" +
+              "#foreach ($w in $parcelNullWords)\n" +
+              ", $w ##\n" +
+              "#end\n" +
+              ");\n" +
+              "#end\n" +
+              "#foreach ($p in $props)\n" +
+              "#if ($p.lazyParcel)\n" +
+              "    this.$p = null;\n" +
+              "    this.parcel$${p} = fields.parcel$${p};\n" +
+              "#elseif (!$p.packed)\n" +
+              "    this.$p = fields.$p;\n" +
+              "#end\n" +
+              "#end\n" +
+              "#else\n" +
+              "#foreach ($p in $props)\n" +
+              "#if ($p.lazyParcel)\n" +
+              "    this.$p = null;\n" +
+              "#end\n" +
+              "#if (!$p.packed)\n" +
+              "$parcelReaders[$p.name]\n" +
+              "#end\n" +
+              "#end\n" +
+              "#end\n" +
+              "  }\n" +
+              "#if ($wide)\n" +
+              "\n" +
+              "  private static final class ParcelFields$${formalTypes} {\n" +
+              "#foreach ($f in $presenceFields)\n" +
+              "    $presenceFieldType $f;\n" +
+              "#end\n" +
+              "#foreach ($p in $props)\n" +
+              "#if ($p.lazyParcel)\n" +
+              "    byte[] parcel$${p};\n" +
+              "#elseif (!$p.packed)\n" +
+              "    $p.type $p;\n" +
+              "#end\n" +
+              "#end\n" +
+              "#foreach ($c in $propChunks)\n" +
+              "\n" +
+              "    void readFromParcel$${foreach.index}($inParams ##\n" +
+              "#foreach ($w in $parcelNullWords)\n" +
+              ", $parcelNullWordType $w ##\n" +
+              "#end\n" +
+              ") {\n" +
+              "#foreach ($p in $c)\n" +
+              "#if (!$p.packed)\n" +
+              "$parcelReaders[$p.name]\n" +
+              "#end\n" +
+              "#end\n" +
+              "    }\n" +
+              "#end\n" +
               "  }\n" +
+              "#end\n" +
+              "#end\n" +
               "\n" +
               "  @Override\n" +
               "  public void writeToParcel(android.os.Parcel dest, int flags) {\n" +
-              "    #foreach ($p in $props)\n" +
-              "      dest.writeValue($p);\n" +
-              "    #end\n" +
+              "#if ($parcelTables || $cacheParcel)\n" +
+              "#if ($cacheParcel)\n" +
+              "## Only a value written with no flags is cached, since flags may change what nested values write.\n" +
+              "    android.os.Parcel cached = marshalled$;\n" +
+              "    if (cached != null && flags == 0) {\n" +
+              "      dest.appendFrom(cached, 0, cached.dataSize());\n" +
+              "      return;\n" +
+              "    }\n" +
+              "    int start = dest.dataPosition();\n" +
+              "#end\n" +
+              "#if ($parcelTables)\n" +
+              "    writeToParcel(dest, flags, new ${autoParcelTables}());\n" +
+              "#else\n" +
+              "    writeToParcel$(dest, flags);\n" +
+              "#end\n" +
+              "#if ($cacheParcel)\n" +
+              "    int size = dest.dataPosition() - start;\n" +
+              "    if (size >= $parcelCacheThreshold && flags == 0) {\n" +
+              "      android.os.Parcel marshalled = android.os.Parcel.obtain();\n" +
+              "      marshalled.appendFrom(dest, start, size);\n" +
+              "      marshalled$ = marshalled;\n" +
+              "    }\n" +
+              "#end\n" +
+              "  }\n" +
+              "\n" +
+              "#if ($parcelTables)\n" +
+              "  void writeToParcel($destParams) {\n" +
+              "#else\n" +
+              "  private void writeToParcel$(android.os.Parcel dest, int flags) {\n" +
+              "#end\n" +
+              "#end\n" +
+              "#if (!$constructFromBuilder)\n" +
+              "#foreach ($f in $packedFields)\n" +
+              "#if ($packedFieldType == \"long\")\n" +
+              "    dest.writeLong($f);\n" +
+              "#else\n" +
+              "    dest.writeInt($f);\n" +
+              "#end\n" +
+              "#end\n" +
+              "#end\n" +
+              "#foreach ($f in $presenceFields)\n" +
+              "#if ($presenceFieldType == \"long\")\n" +
+              "    dest.writeLong($f);\n" +
+              "#else\n" +
+              "    dest.writeInt($f);\n" +
+              "#end\n" +
+              "#end\n" +
+              "#foreach ($v in $parcelNullWordValues)\n" +
+              "#if ($parcelNullWordType == \"long\")\n" +
+              "    dest.writeLong($v);\n" +
+              "#else\n" +
+              "    dest.writeInt($v);\n" +
+              "#end\n" +
+              "#end\n" +
+              "#if ($wide)\n" +
+              "#foreach ($c in $propChunks)\n" +
+              "    writeToParcel$${foreach.index}($destArgs);\n" +
+              "#end\n" +
+              "  }\n" +
+              "#foreach ($c in $propChunks)\n" +
+              "\n" +
+              "  private void writeToParcel$${foreach.index}($destParams) {\n" +
+              "#foreach ($p in $c)\n" +
+              "#if (!$p.packed || $constructFromBuilder)\n" +
+              "$parcelWriters[$p.name]\n" +
+              "#end\n" +
+              "#end\n" +
+              "  }\n" +
+              "#end\n" +
+              "#else\n" +
+              "#foreach ($p in $props)\n" +
+              "#if (!$p.packed)\n" +
+              "$parcelWriters[$p.name]\n" +
+              "#end\n" +
+              "#end\n" +
               "  }\n" +
+              "#end\n" +
+              "\n" +
+              "#foreach ($p in $props)\n" +
+              "#if ($p.lazyParcel)\n" +
+              "\n" +
+              "  private byte[] marshall$${p}(int flags) {\n" +
+              "    if (parcel$${p} != null) {\n" +
+              "      return parcel$${p};\n" +
+              "    }\n" +
+              "#if ($p.nullable)\n" +
+              "    if ($p == null) {\n" +
+              "      return null;\n" +
+              "    }\n" +
+              "#end\n" +
+              "    android.os.Parcel dest = android.os.Parcel.obtain();\n" +
+              "    try {\n" +
+              "$lazyParcelWriters[$p.name]\n" +
+              "      return dest.marshall();\n" +
+              "    } finally {\n" +
+              "      dest.recycle();\n" +
+              "    }\n" +
+              "  }\n" +
+              "\n" +
+              "  private synchronized $p.type unmarshall$${p}() {\n" +
+              "    $p.type value$ = decoded$${p};\n" +
+              "    if (value$ == null) {\n" +
+              "      android.os.Parcel in = android.os.Parcel.obtain();\n" +
+              "      try {\n" +
+              "        in.unmarshall(parcel$${p}, 0, parcel$${p}.length);\n" +
+              "        in.setDataPosition(0);\n" +
+              "$lazyParcelReaders[$p.name]\n" +
+              "      } finally {\n" +
+              "        in.recycle();\n" +
+              "      }\n" +
+              "      decoded$${p} = value$;\n" +
+              "    }\n" +
+              "    return value$;\n" +
+              "  }\n" +
+              "#end\n" +
+              "#end\n" +
               "\n" +
               "  @Override\n" +
               "  public int describeContents() {\n" +
@@ -271,36 +884,66 @@ class AutoParcelTemplateVars extends TemplateVars {
               "  #if ($builderIsInterface) implements #else extends #end\n" +
               "      ${builderTypeName}${builderActualTypes} {\n" +
               "\n" +
-              "    private final $bitSet set$ = new ${bitSet}();\n" +
+              "#if (!$builderRequiredNames.empty)\n" +
+              "    private static final String[] REQUIRED_PROPERTIES$ = {\n" +
+              "#foreach ($n in $builderRequiredNames)\n" +
+              "      \"$n\",\n" +
+              "#end\n" +
+              "    };\n" +
+              "\n" +
+              "#end\n" +
+              "#foreach ($f in $builderBitFields)\n" +
+              "    private $builderBitType $f;\n" +
+              "#end\n" +
+              "#foreach ($f in $presenceFields)\n" +
+              "    ${fieldAccess}$presenceFieldType $f;\n" +
+              "#end\n" +
               "\n" +
               "    #foreach ($p in $props)\n" +
               "\n" +
-              "    private $p.type $p;\n" +
+              "    ${fieldAccess}$p.type $p;\n" +
               "\n" +
               "    #end\n" +
               "\n" +
               "    Builder() {\n" +
               "    }\n" +
               "\n" +
-              "    Builder(${origClass}${actualTypes} source) {\n" +
-              "\n" +
-              "      #foreach ($p in $props)\n" +
-              "\n" +
-              "      $builderSetterNames[$p.name](source.${p.getter}());\n" +
-              "      ## We use the setter methods rather than assigning the fields directly so we don't have\n" +
-              "      ## to duplicate the logic for cloning arrays. Not cloning arrays would conceivably be\n" +
-              "      ## a security problem.\n" +
-              "\n" +
-              "      #end\n" +
+              "    Builder(${subclass}${actualTypes} source) {\n" +
+              "## The builder shares the fields of source, including arrays, rather than going through the\n" +
+              "## getters and setters, which would clone each array twice. That is safe because the builder\n" +
+              "## never modifies an array in place: its setters replace the field with a clone of their argument.\n" +
+              "#foreach ($a in $builderSetAllBits)\n" +
+              "      $a;\n" +
+              "#end\n" +
+              "#if ($wide)\n" +
+              "#foreach ($c in $propChunks)\n" +
+              "      copyFrom$${foreach.index}(source);\n" +
+              "#end\n" +
+              "#else\n" +
+              "#foreach ($p in $props)\n" +
+              "      this.$p = ${p.read(\"source\")};\n" +
+              "#end\n" +
+              "#end\n" +
+              "#foreach ($f in $presenceFields)\n" +
+              "      this.$f = source.$f;\n" +
+              "#end\n" +
+              "    }\n" +
+              "#if ($wide)\n" +
+              "#foreach ($c in $propChunks)\n" +
               "\n" +
+              "    private void copyFrom$${foreach.index}(${subclass}${actualTypes} source) {\n" +
+              "#foreach ($p in $c)\n" +
+              "      this.$p = ${p.read(\"source\")};\n" +
+              "#end\n" +
               "    }\n" +
+              "#end\n" +
+              "#end\n" +
               "\n" +
-              "#set ($index = 0)\n" +
               "#foreach ($p in $props)\n" +
               "\n" +
               "    @Override\n" +
               "    public ${builderTypeName}${builderActualTypes} $builderSetterNames[$p.name]($p.type $p) {\n" +
-              "      #if ($p.kind == \"ARRAY\")\n" +
+              "      #if ($p.kind == \"ARRAY\" && !$p.sharedArray)\n" +
               "        #if ($p.nullable)\n" +
               "\n" +
               "      this.$p = ($p == null) ? null : ${p}.clone();\n" +
@@ -316,38 +959,59 @@ class AutoParcelTemplateVars extends TemplateVars {
               "\n" +
               "      #end\n" +
               "\n" +
-              "      #if (!$p.nullable)\n" +
-              "\n" +
-              "      set$.set($index);\n" +
-              "      #set ($index = $index + 1)\n" +
-              "\n" +
-              "      #end\n" +
+              "#if ($p.optional)\n" +
+              "      $p.presenceField |= $p.presenceBit;\n" +
+              "#elseif (!$p.nullable)\n" +
+              "      $builderSetBit[$p.name];\n" +
+              "#end\n" +
               "      return this;\n" +
               "    }\n" +
               "\n" +
               "    #end\n" +
               "\n" +
-              "    @Override\n" +
-              "    public ${origClass}${actualTypes} ${buildMethodName}() {\n" +
-              "      if (set$.cardinality() < $index) {\n" +
-              "        String[] propertyNames = {\n" +
+              "#foreach ($m in $builderResetMethods)\n" +
               "\n" +
-              "         #foreach ($p in $props) #if (!$p.nullable) \"$p\", #end #end\n" +
+              "    @Override\n" +
+              "    public ${builderTypeName}${builderActualTypes} ${m}() {\n" +
+              "#foreach ($f in $builderBitFields)\n" +
+              "      $f = 0;\n" +
+              "#end\n" +
+              "#foreach ($f in $presenceFields)\n" +
+              "      $f = 0;\n" +
+              "#end\n" +
+              "#foreach ($p in $props)\n" +
+              "      this.$p = $p.defaultValue;\n" +
+              "#end\n" +
+              "      return this;\n" +
+              "    }\n" +
+              "#end\n" +
               "\n" +
-              "        };\n" +
-              "        StringBuilder missing = new StringBuilder();\n" +
-              "        for (int i = 0; i < $index; i++) {\n" +
-              "          if (!set$.get(i)) {\n" +
-              "            missing.append(' ').append(propertyNames[i]);\n" +
-              "          }\n" +
-              "        }\n" +
-              "        throw new IllegalStateException(\"Missing required properties:\" + missing);\n" +
+              "    @Override\n" +
+              "    public ${origClass}${actualTypes} ${buildMethodName}() {\n" +
+              "#if ($builderMissingCondition != \"\")\n" +
+              "      if ($builderMissingCondition) {\n" +
+              "        throw ${autoParcelBuilders}.missingProperties(REQUIRED_PROPERTIES$,\n" +
+              "    #foreach ($f in $builderBitFields)\n" +
+              "            $f #if ($foreach.hasNext) , #end\n" +
+              "    #end );\n" +
               "      }\n" +
-              "      ${origClass}${actualTypes} result = new ${subclass}${actualTypes}(\n" +
+              "#end\n" +
+              "#if ($constructFromBuilder)\n" +
+              "    #foreach ($c in $nonNullChunks)\n" +
+              "      checkNotNull$${foreach.index}();\n" +
+              "    #end\n" +
+              "      ${resultClass}${actualTypes} result = new ${subclass}${actualTypes}(this);\n" +
+              "#else\n" +
+              "      ${resultClass}${actualTypes} result = new ${subclass}${actualTypes}(\n" +
               "    #foreach ($p in $props)\n" +
               "\n" +
-              "          this.$p #if ($foreach.hasNext) , #end\n" +
+              "          this.$p #if ($foreach.hasNext || !$presenceFields.empty) , #end\n" +
+              "    #end\n" +
+              "    #foreach ($f in $presenceFields)\n" +
+              "\n" +
+              "          this.$f #if ($foreach.hasNext) , #end\n" +
               "    #end );\n" +
+              "#end\n" +
               "\n" +
               "    #foreach ($v in $validators)\n" +
               "\n" +
@@ -355,8 +1019,34 @@ class AutoParcelTemplateVars extends TemplateVars {
               "\n" +
               "    #end\n" +
               "\n" +
-              "      return result;\n" +
+              "      return #if ($intern) intern(result) #else result #end;\n" +
+              "    }\n" +
+              "#if ($constructFromBuilder)\n" +
+              "#foreach ($c in $nonNullChunks)\n" +
+              "\n" +
+              "    private void checkNotNull$${foreach.index}() {\n" +
+              "#foreach ($p in $c)\n" +
+              "      if (this.$p == null) {\n" +
+              "        throw new NullPointerException(\"Null $p.name\");\n" +
+              "      }\n" +
+              "#end\n" +
+              "    }\n" +
+              "#end\n" +
+              "#if ($parcelable)\n" +
+              "#foreach ($c in $propChunks)\n" +
+              "\n" +
+              "    void readFromParcel$${foreach.index}($inParams ##\n" +
+              "#foreach ($w in $parcelNullWords)\n" +
+              ", $parcelNullWordType $w ##\n" +
+              "#end\n" +
+              ") {\n" +
+              "#foreach ($p in $c)\n" +
+              "$parcelReaders[$p.name]\n" +
+              "#end\n" +
               "    }\n" +
+              "#end\n" +
+              "#end\n" +
+              "#end\n" +
               "  }\n" +
               "#end\n" +
               "}\n";
@@ -364,25 +1054,181 @@ class AutoParcelTemplateVars extends TemplateVars {
   /** The properties defined by the parent class's abstract methods. */
   List<AutoParcelProcessor.Property> props;
 
+  /** The methods marked {@code @AutoParcel.Memoized}, which the generated class overrides. */
+  List<AutoParcelProcessor.MemoizedMethod> memoizedMethods = Collections.emptyList();
+
+  /**
+   * The abstract {@code withFoo(value)} methods, each of which returns a copy with one property
+   * changed.
+   */
+  List<AutoParcelProcessor.WitherMethod> withers = Collections.emptyList();
+
+  /** The abstract {@code fooAt(int)} and {@code fooLength()} methods of array properties. */
+  List<AutoParcelProcessor.ArrayAccessor> arrayAccessors = Collections.emptyList();
+
+  /**
+   * The same properties as {@link #props}, in the order in which equals(Object) compares the fields
+   * of two instances of the generated class: cheapest first.
+   */
+  List<AutoParcelProcessor.Property> equalsOrder = Collections.emptyList();
+
   /** Whether to generate an equals(Object) method. */
   Boolean equals;
   /** Whether to generate a hashCode() method. */
   Boolean hashCode;
   /** Whether to generate a toString() method. */
   Boolean toString;
+  /**
+   * Whether the generated hashCode() caches its result, as requested by
+   * {@link auto.parcel.AutoParcel#cacheHashCode()}. Only true if {@link #hashCode} is.
+   */
+  Boolean cacheHashCode = false;
+
+  /**
+   * Whether the generated class routes the values it creates through a cache of canonical
+   * instances, as requested by {@link auto.parcel.AutoParcel#intern()}.
+   */
+  Boolean intern = false;
+
+  /** The spelling of {@code auto.parcel.AutoParcelInterner}, if {@link #intern} is true. */
+  String autoParcelInterner = "";
+
+  /**
+   * Whether the generated {@code Parcel} code writes each distinct string once and then refers to
+   * it by index, as requested by {@link auto.parcel.AutoParcel#stringTable()}.
+   */
+  Boolean stringTable = false;
+
+  /**
+   * Whether the generated {@code Parcel} code passes an {@code AutoParcelTables} between the
+   * values it writes or reads, because of {@link #stringTable} or
+   * {@link auto.parcel.AutoParcel#graph()}.
+   */
+  Boolean parcelTables = false;
+
+  /** The spelling of {@code auto.parcel.AutoParcelTables}, if {@link #parcelTables} is true. */
+  String autoParcelTables = "";
+
+  /**
+   * Whether the generated {@code Parcel} code writes strings as UTF-8 byte arrays, as requested by
+   * {@link auto.parcel.AutoParcel#utf8Strings()}.
+   */
+  Boolean utf8Strings = false;
+
+  /** The spelling of {@code auto.parcel.AutoParcelStrings}, if {@link #utf8Strings} is true. */
+  String autoParcelStrings = "";
+
+  /**
+   * Whether {@code writeToParcel} keeps a copy of what it writes, as requested by
+   * {@link auto.parcel.AutoParcel#parcelCacheThreshold()}.
+   */
+  Boolean cacheParcel = false;
+
+  /** The least number of bytes that {@code writeToParcel} keeps a copy of. */
+  Integer parcelCacheThreshold = -1;
+
+  /**
+   * The fields in which {@link auto.parcel.AutoParcel#packed()} stores boolean and small enum
+   * properties, if any.
+   */
+  List<String> packedFields = Collections.emptyList();
+
+  /** The type of each of the {@link #packedFields}: {@code int} or {@code long}. */
+  String packedFieldType = "int";
+
+  /** Constructor statements that assign each of the {@link #packedFields} from the parameters. */
+  List<String> packedInitializers = Collections.emptyList();
+
+  /** Declarations of the arrays of enum constants used to decode packed enum properties. */
+  List<String> packedValuesFields = Collections.emptyList();
+
+  /**
+   * The fields that hold the presence bits of optional primitive properties, if any. The
+   * generated constructor takes one parameter for each of them after the properties.
+   */
+  List<String> presenceFields = Collections.emptyList();
+
+  /** The type of each of the {@link #presenceFields}: {@code int} or {@code long}. */
+  String presenceFieldType = "int";
+
+  /**
+   * Whether the class has so many properties that its {@code equals}, {@code hashCode} and
+   * {@code writeToParcel} methods are split into one method for each of the {@link #propChunks}.
+   */
+  Boolean wide = false;
+
+  /**
+   * Whether the class is {@link #wide} and has a builder, so that the generated constructor and
+   * {@code Parcel} reading take a builder rather than a parameter for each property.
+   */
+  Boolean constructFromBuilder = false;
+
+  /** The {@link #props} of a {@link #wide} class, split into chunks. */
+  List<List<AutoParcelProcessor.Property>> propChunks = Collections.emptyList();
+
+  /** The {@link #equalsOrder} of a {@link #wide} class, split into chunks. */
+  List<List<AutoParcelProcessor.Property>> equalsChunks = Collections.emptyList();
+
+  /** The non-null reference properties of a {@link #wide} class, split into chunks. */
+  List<List<AutoParcelProcessor.Property>> nonNullChunks = Collections.emptyList();
 
   /** Whether to generate a Parcelable creator. */
   Boolean parcelable;
 
+  /**
+   * A map from property names to the statements that write each property in
+   * {@code writeToParcel}. Empty unless {@link #parcelable} is true.
+   */
+  Map<String, String> parcelWriters = Collections.emptyMap();
+
+  /**
+   * A map from property names to the statements that read each property back in the
+   * {@code Parcel} constructor. Empty unless {@link #parcelable} is true.
+   */
+  Map<String, String> parcelReaders = Collections.emptyMap();
+
+  /**
+   * The local variables that hold the words of the {@code Parcel} header, in which each bit records
+   * whether a {@code @Nullable} property is non-null and so is written after the header.
+   */
+  List<String> parcelNullWords = Collections.emptyList();
+
+  /** The type of each of the {@link #parcelNullWords}: {@code int} or {@code long}. */
+  String parcelNullWordType = "int";
+
+  /** The expressions that compute the value of each of the {@link #parcelNullWords}. */
+  List<String> parcelNullWordValues = Collections.emptyList();
+
+  /**
+   * Whether some of the {@link #props} are {@linkplain AutoParcelProcessor.Property#isLazyParcel()
+   * decoded lazily} from a {@code Parcel}.
+   */
+  Boolean lazyParcel = false;
+
+  /**
+   * A map from the names of lazily decoded properties to the statements that write each one to a
+   * {@code Parcel} of its own, whose bytes are then written in {@code writeToParcel}.
+   */
+  Map<String, String> lazyParcelWriters = Collections.emptyMap();
+
+  /**
+   * A map from the names of lazily decoded properties to the statements that read each one back
+   * from a {@code Parcel} of its own, the first time its getter is called.
+   */
+  Map<String, String> lazyParcelReaders = Collections.emptyMap();
+
+  /**
+   * Declarations of the private static fields that the code in {@link #parcelWriters} and
+   * {@link #parcelReaders} refers to, such as cached {@code values()} arrays of enums.
+   */
+  List<String> parcelFields = Collections.emptyList();
+
   /** The fully-qualified names of the classes to be imported in the generated class. */
   SortedSet<String> imports;
 
   /** The spelling of the java.util.Arrays class: Arrays or java.util.Arrays. */
   String arrays;
 
-  /** The spelling of the java.util.BitSet class: BitSet or java.util.BitSet. */
-  String bitSet;
-
   /**
    * The full spelling of the {@code @GwtCompatible} annotation to add to this class, or an empty
    * string if there is none. A non-empty value might look something like
@@ -459,6 +1305,52 @@ class AutoParcelTemplateVars extends TemplateVars {
    */
   Map<String, String> builderSetterNames = Collections.emptyMap();
 
+  /**
+   * The names of the fields of the builder that record which required properties have been set,
+   * one bit per property: {@code set$}, or {@code set$0}, {@code set$1} and so on if there are
+   * more than 64 required properties.
+   */
+  List<String> builderBitFields = Collections.emptyList();
+
+  /** The type of each of the {@link #builderBitFields}: {@code int} or {@code long}. */
+  String builderBitType = "int";
+
+  /**
+   * A map from the name of each required property to the expression, such as
+   * {@code set$ |= 0x4}, that records in the builder that it has been set.
+   */
+  Map<String, String> builderSetBit = Collections.emptyMap();
+
+  /**
+   * The names of the builder's {@code reset()} or {@code clear()} methods, if any, which return it
+   * to the state of a new builder.
+   */
+  List<String> builderResetMethods = Collections.emptyList();
+
+  /**
+   * The names of the required properties, in the order of their bits in the
+   * {@link #builderBitFields}.
+   */
+  List<String> builderRequiredNames = Collections.emptyList();
+
+  /**
+   * The spelling of {@code auto.parcel.AutoParcelBuilders}, whose {@code missingProperties} method
+   * builds the exception for a builder with required properties that have not been set.
+   */
+  String autoParcelBuilders;
+
+  /**
+   * Assignments, such as {@code set$ = 0x7}, that record in the builder that every required
+   * property has been set.
+   */
+  List<String> builderSetAllBits = Collections.emptyList();
+
+  /**
+   * A condition, such as {@code set$ != 0x7}, that is true if any required property has not been
+   * set, or empty if there are no required properties.
+   */
+  String builderMissingCondition = "";
+
   /**
    * The names of any {@code toBuilder()} methods, that is methods that return the builder type.
    */
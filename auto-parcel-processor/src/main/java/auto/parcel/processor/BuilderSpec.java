@@ -19,6 +19,7 @@ import auto.parcel.AutoParcel;
 import com.google.auto.common.MoreElements;
 import com.google.auto.common.MoreTypes;
 import com.google.common.base.Equivalence;
+import com.google.common.base.Joiner;
 import com.google.common.base.Optional;
 import com.google.common.collect.FluentIterable;
 import com.google.common.collect.ImmutableList;
@@ -79,6 +80,12 @@ class BuilderSpec {
   private static final Set<ElementKind> CLASS_OR_INTERFACE =
       Sets.immutableEnumSet(ElementKind.CLASS, ElementKind.INTERFACE);
 
+  /**
+   * Names of the optional builder methods that return the builder to its initial state, so that
+   * code building many objects, such as a generated {@code AutoAdapter_} class, can reuse it.
+   */
+  static final ImmutableSet<String> RESET_METHOD_NAMES = ImmutableSet.of("reset", "clear");
+
   /**
    * Determines if the {@code @AutoParcel} class for this instance has a correct nested
    * {@code @AutoParcel.Builder} class or interface and return a representation of it in an
@@ -142,16 +149,19 @@ class BuilderSpec {
     private final TypeElement builderTypeElement;
     private final ExecutableElement buildMethod;
     private final ImmutableList<ExecutableElement> setters;
+    private final ImmutableList<ExecutableElement> resetMethods;
     private final Optional<ExecutableElement> validateMethod;
 
     Builder(
         TypeElement builderTypeElement,
         ExecutableElement build,
         List<ExecutableElement> setters,
+        List<ExecutableElement> resetMethods,
         Optional<ExecutableElement> validateMethod) {
       this.builderTypeElement = builderTypeElement;
       this.buildMethod = build;
       this.setters = ImmutableList.copyOf(setters);
+      this.resetMethods = ImmutableList.copyOf(resetMethods);
       this.validateMethod = validateMethod;
     }
 
@@ -319,9 +329,63 @@ class BuilderSpec {
         setterNameBuilder.put(entry.getKey(), entry.getValue().getSimpleName().toString());
       }
       vars.builderSetterNames = setterNameBuilder.build();
+      vars.builderResetMethods =
+          FluentIterable.from(resetMethods).transform(SimpleNameFunction.INSTANCE).toList();
+      defineBitVars(vars);
+    }
+
+    /**
+     * Defines the variables for the fields that record which required properties have been set.
+     * These are primitive fields rather than a {@code BitSet}, so that a builder allocates nothing
+     * beyond itself and {@code build()} checks them against constants.
+     */
+    private void defineBitVars(AutoParcelTemplateVars vars) {
+      List<String> required = new ArrayList<String>();
+      for (AutoParcelProcessor.Property prop : vars.props) {
+        if (!prop.isNullable() && !prop.isOptional()) {
+          required.add(prop.getName());
+        }
+      }
+      int size = required.size();
+      boolean useInt = size <= 32;
+      int words = (size + 63) / 64;
+      ImmutableList.Builder<String> fields = ImmutableList.builder();
+      for (int word = 0; word < words; word++) {
+        fields.add(words == 1 ? "set$" : "set$" + word);
+      }
+      vars.builderBitFields = fields.build();
+      vars.builderBitType = useInt ? "int" : "long";
+      ImmutableMap.Builder<String, String> setBit = ImmutableMap.builder();
+      for (int i = 0; i < size; i++) {
+        String field = vars.builderBitFields.get(i / 64);
+        String mask = useInt ? hexInt(1 << i) : hexLong(1L << (i % 64));
+        setBit.put(required.get(i), field + " |= " + mask);
+      }
+      vars.builderSetBit = setBit.build();
+      vars.builderRequiredNames = ImmutableList.copyOf(required);
+      List<String> missing = new ArrayList<String>();
+      List<String> setAll = new ArrayList<String>();
+      for (int word = 0; word * 64 < size; word++) {
+        int bits = Math.min(64, size - word * 64);
+        String all = useInt
+            ? hexInt((int) ((1L << bits) - 1))
+            : hexLong(bits == 64 ? -1L : (1L << bits) - 1);
+        missing.add(vars.builderBitFields.get(word) + " != " + all);
+        setAll.add(vars.builderBitFields.get(word) + " = " + all);
+      }
+      vars.builderMissingCondition = Joiner.on(" || ").join(missing);
+      vars.builderSetAllBits = ImmutableList.copyOf(setAll);
     }
   }
 
+  private static String hexInt(int value) {
+    return "0x" + Integer.toHexString(value);
+  }
+
+  private static String hexLong(long value) {
+    return "0x" + Long.toHexString(value) + "L";
+  }
+
   /**
    * Returns a representation of the given {@code @AutoParcel.Builder} class or interface. If the
    * class or interface has abstract methods that could not be part of any builder, emits error
@@ -367,10 +431,12 @@ class BuilderSpec {
 
     List<ExecutableElement> buildMethods = new ArrayList<ExecutableElement>();
     List<ExecutableElement> setterMethods = new ArrayList<ExecutableElement>();
+    List<ExecutableElement> resetMethods = new ArrayList<ExecutableElement>();
     // For each abstract method (in builderTypeElement or inherited), check that it is either
-    // a setter method or a build method. A setter method has one argument and returns
-    // builderTypeElement. A build method has no arguments and returns the @AutoParcel class.
-    // Record each method in one of the two lists.
+    // a setter method, a build method or a reset method. A setter method has one argument and
+    // returns builderTypeElement. A build method has no arguments and returns the @AutoParcel
+    // class. A reset method is called reset or clear, has no arguments and returns
+    // builderTypeElement. Record each method in one of the three lists.
     for (ExecutableElement method : abstractMethods(builderTypeElement)) {
       boolean thisOk = false;
       int nParameters = method.getParameters().size();
@@ -382,6 +448,11 @@ class BuilderSpec {
           && TYPE_EQUIVALENCE.equivalent(method.getReturnType(), builderTypeElement.asType())) {
         setterMethods.add(method);
         thisOk = true;
+      } else if (nParameters == 0
+          && RESET_METHOD_NAMES.contains(method.getSimpleName().toString())
+          && TYPE_EQUIVALENCE.equivalent(method.getReturnType(), builderTypeElement.asType())) {
+        resetMethods.add(method);
+        thisOk = true;
       }
       if (!thisOk) {
         errorReporter.reportError(
@@ -415,6 +486,7 @@ class BuilderSpec {
           builderTypeElement,
           Iterables.getOnlyElement(buildMethods),
           setterMethods,
+          resetMethods,
           validateMethod));
     } else {
       return Optional.absent();
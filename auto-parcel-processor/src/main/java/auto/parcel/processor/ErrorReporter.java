@@ -34,6 +34,16 @@ class ErrorReporter {
     this.messager = processingEnv.getMessager();
   }
 
+  /**
+   * Issue an informational note, which does not fail the build even with {@code -Werror}.
+   *
+   * @param msg the text of the note
+   * @param e the element to which it pertains
+   */
+  void reportNote(String msg, Element e) {
+    messager.printMessage(Diagnostic.Kind.NOTE, msg, e);
+  }
+
   /**
    * Issue a compilation warning.
    *
@@ -0,0 +1,173 @@
+package auto.parcel.processor;
+
+import com.google.common.collect.ImmutableList;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+
+/**
+ * Packs the {@code boolean} properties and the properties of small enum types of an
+ * {@code @AutoParcel(packed = true)} class into shared {@code int} or {@code long} fields. Each
+ * such property takes one bit, or as many bits as the codes of its enum need, where an enum
+ * value is coded as its ordinal, or as its ordinal plus one if the property is nullable so that
+ * zero can stand for null.
+ */
+class FieldPacking {
+  /**
+   * Enums with more codes than this are stored in a field of their own, so an enum is packed if it
+   * has at most 256 constants, or 255 for a nullable property, which also needs a code for null.
+   */
+  private static final int MAX_ENUM_CODES = 256;
+
+  private FieldPacking() {}
+
+  /** A property chosen for packing, with the number of bits its codes need. */
+  private static class Packed {
+    final AutoParcelProcessor.Property prop;
+    final int bits;
+    int word;
+    int shift;
+
+    Packed(AutoParcelProcessor.Property prop, int bits) {
+      this.prop = prop;
+      this.bits = bits;
+    }
+  }
+
+  /**
+   * Chooses the properties to pack, marks them as packed, and defines the variables for the
+   * fields that hold them. The initializers of those fields read each property from the
+   * constructor parameter of the same name, prefixed by {@code source}, which is empty or is like
+   * {@code "builder."} when the constructor copies a builder. The fields holding the
+   * {@code values()} of packed enums are recorded in {@code enumValuesFields}, by the qualified
+   * name of the enum, so that the {@code Parcel} code can share them.
+   */
+  static void defineVars(AutoParcelTemplateVars vars, List<AutoParcelProcessor.Property> props,
+      String source, Map<String, String> enumValuesFields) {
+    List<Packed> packed = new ArrayList<Packed>();
+    int totalBits = 0;
+    for (AutoParcelProcessor.Property prop : props) {
+      int bits = bitsFor(prop);
+      if (bits > 0) {
+        packed.add(new Packed(prop, bits));
+        totalBits += bits;
+      }
+    }
+    if (packed.isEmpty()) {
+      return;
+    }
+    boolean useInt = totalBits <= 32;
+    int wordBits = useInt ? 32 : 64;
+    int words = 1;
+    int used = 0;
+    for (Packed p : packed) {
+      if (used + p.bits > wordBits) {
+        words++;
+        used = 0;
+      }
+      p.word = words - 1;
+      p.shift = used;
+      used += p.bits;
+    }
+    ImmutableList.Builder<String> fields = ImmutableList.builder();
+    for (int word = 0; word < words; word++) {
+      fields.add(words == 1 ? "bits$" : "bits$" + word);
+    }
+    vars.packedFields = fields.build();
+    vars.packedFieldType = useInt ? "int" : "long";
+
+    List<List<String>> encodings = new ArrayList<List<String>>();
+    for (int word = 0; word < words; word++) {
+      encodings.add(new ArrayList<String>());
+    }
+    ImmutableList.Builder<String> valuesFields = ImmutableList.builder();
+    for (Packed p : packed) {
+      String field = vars.packedFields.get(p.word);
+      String mask = hex((1L << p.bits) - 1, useInt);
+      String code = p.shift == 0 ? field : "(" + field + " >>> " + p.shift + ")";
+      String decoded = useInt
+          ? code + " & " + mask
+          : "(int) (" + code + " & " + mask + ")";
+      String shift = p.shift == 0 ? "" : " << " + p.shift;
+      String cast = useInt ? "" : "(long) ";
+      String value = source + p.prop;
+      if (p.prop.getKind() == TypeKind.BOOLEAN) {
+        String bit = hex(1L << p.shift, useInt);
+        p.prop.setPacked(ImmutableList.of(
+            "return (" + field + " & " + bit + ") != 0;"));
+        encodings.get(p.word).add(
+            "(" + value + " ? " + bit + " : " + (useInt ? "0" : "0L") + ")");
+      } else {
+        TypeElement enumType = (TypeElement) ((DeclaredType) p.prop.getTypeMirror()).asElement();
+        String values = enumValuesFields.get(enumType.getQualifiedName().toString());
+        if (values == null) {
+          values = ParcelSerialization.newEnumValuesField(enumType, enumValuesFields);
+          valuesFields.add("private static final " + p.prop.getType() + "[] " + values + " = "
+              + p.prop.getType() + ".values();");
+        }
+        if (p.prop.isNullable()) {
+          p.prop.setPacked(ImmutableList.of(
+              "int code = " + decoded + ";",
+              "return code == 0 ? null : " + values + "[code - 1];"));
+          encodings.get(p.word).add("(" + cast + "(" + value + " == null ? 0 : "
+              + value + ".ordinal() + 1)" + shift + ")");
+        } else {
+          p.prop.setPacked(ImmutableList.of("return " + values + "[" + decoded + "];"));
+          encodings.get(p.word).add("(" + cast + value + ".ordinal()" + shift + ")");
+        }
+      }
+    }
+    vars.packedValuesFields = valuesFields.build();
+    ImmutableList.Builder<String> initializers = ImmutableList.builder();
+    for (int word = 0; word < words; word++) {
+      StringBuilder init = new StringBuilder("this.").append(vars.packedFields.get(word))
+          .append(" = ");
+      List<String> wordEncodings = encodings.get(word);
+      for (int i = 0; i < wordEncodings.size(); i++) {
+        if (i > 0) {
+          init.append("\n        | ");
+        }
+        init.append(wordEncodings.get(i));
+      }
+      initializers.add(init.append(";").toString());
+    }
+    vars.packedInitializers = initializers.build();
+  }
+
+  /** Returns the number of bits a property needs if it can be packed, otherwise 0. */
+  private static int bitsFor(AutoParcelProcessor.Property prop) {
+    TypeMirror type = prop.getTypeMirror();
+    if (prop.isOptional() || prop.isLazyParcel()) {
+      return 0;
+    }
+    if (type.getKind() == TypeKind.BOOLEAN) {
+      return 1;
+    }
+    if (!prop.isEnumType()) {
+      return 0;
+    }
+    TypeElement enumType = (TypeElement) ((DeclaredType) type).asElement();
+    int codes = prop.isNullable() ? 1 : 0;
+    for (Element element : enumType.getEnclosedElements()) {
+      if (element.getKind() == ElementKind.ENUM_CONSTANT) {
+        codes++;
+      }
+    }
+    if (codes > MAX_ENUM_CODES) {
+      return 0;
+    }
+    return Math.max(1, 32 - Integer.numberOfLeadingZeros(codes - 1));
+  }
+
+  private static String hex(long value, boolean useInt) {
+    return useInt ? "0x" + Integer.toHexString((int) value) : "0x" + Long.toHexString(value) + "L";
+  }
+}
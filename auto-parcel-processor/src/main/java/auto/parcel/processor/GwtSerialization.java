@@ -94,6 +94,9 @@ class GwtSerialization {
       for (AutoParcelProcessor.Property prop : autoVars.props) {
         vars.props.add(new Property(prop));
       }
+      vars.presenceFields = autoVars.presenceFields;
+      vars.presenceType = autoVars.presenceFieldType.equals("int") ? "Int" : "Long";
+      vars.presenceWords = PresenceBits.wordsFromPresenceMethods(autoVars, "instance");
       vars.classHashString = computeClassHash(autoVars.props);
       String text = vars.toText();
       writeSourceFile(className, text, type);
@@ -176,6 +179,18 @@ class GwtSerialization {
     /** The simple name of the generated GWT serializer class. */
     String serializerClass;
 
+    /** The fields that hold the presence bits of optional properties, if any. */
+    List<String> presenceFields;
+
+    /** The suffix of the serializer methods for the presence fields: Int or Long. */
+    String presenceType;
+
+    /**
+     * Expressions for the value of each of the {@link #presenceFields}, computed from the
+     * {@code hasFoo()} methods of the serialized {@code instance}.
+     */
+    List<String> presenceWords;
+
     /** A string that should change if any salient details of the serialized class change. */
     String classHashString;
 
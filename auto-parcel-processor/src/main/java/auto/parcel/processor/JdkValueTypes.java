@@ -0,0 +1,116 @@
+package auto.parcel.processor;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.net.URI;
+import java.util.Date;
+import java.util.Locale;
+import java.util.UUID;
+
+/**
+ * Compact encodings for common JDK value types, shared by the serializers that the processors
+ * generate. Without them a {@code BigDecimal} or {@code UUID} property would be written to a
+ * {@code Parcel} with {@code writeValue}, which falls back to Java serialization, and would have
+ * no usable JSON form at all.
+ *
+ * <p>Formats use {@code %1$s} for the value being written, which may be referenced more than once,
+ * so it must be an expression without side effects.
+ */
+final class JdkValueTypes {
+  private JdkValueTypes() {}
+
+  /** How values of one JDK type are written to and read from a {@code Parcel} and JSON. */
+  static final class Encoding {
+    private final ImmutableList<String> parcelWriteFormats;
+    private final String parcelReadExpression;
+    private final String jsonWriteFormat;
+    private final String jsonReadExpression;
+
+    private Encoding(
+        ImmutableList<String> parcelWriteFormats,
+        String parcelReadExpression,
+        String jsonWriteFormat,
+        String jsonReadExpression) {
+      this.parcelWriteFormats = parcelWriteFormats;
+      this.parcelReadExpression = parcelReadExpression;
+      this.jsonWriteFormat = jsonWriteFormat;
+      this.jsonReadExpression = jsonReadExpression;
+    }
+
+    /** Statements, without the final semicolon, that write a non-null value to {@code dest}. */
+    ImmutableList<String> parcelWriteFormats() {
+      return parcelWriteFormats;
+    }
+
+    /** An expression that reads a value written by {@link #parcelWriteFormats} from {@code in}. */
+    String parcelReadExpression() {
+      return parcelReadExpression;
+    }
+
+    /**
+     * The argument to pass to {@code JsonWriter.value} for a non-null value, or null if the type
+     * has no lossless JSON form.
+     */
+    String jsonWriteFormat() {
+      return jsonWriteFormat;
+    }
+
+    /** An expression that reads a value written with {@link #jsonWriteFormat} from {@code in}. */
+    String jsonReadExpression() {
+      return jsonReadExpression;
+    }
+  }
+
+  private static final ImmutableMap<String, Encoding> ENCODINGS =
+      ImmutableMap.<String, Encoding>builder()
+          .put(BigDecimal.class.getName(), new Encoding(
+              ImmutableList.of(
+                  "dest.writeByteArray(%1$s.unscaledValue().toByteArray())",
+                  "dest.writeInt(%1$s.scale())"),
+              "new java.math.BigDecimal("
+                  + "new java.math.BigInteger(in.createByteArray()), in.readInt())",
+              "%1$s",
+              "new java.math.BigDecimal(in.nextString())"))
+          .put(BigInteger.class.getName(), new Encoding(
+              ImmutableList.of("dest.writeByteArray(%1$s.toByteArray())"),
+              "new java.math.BigInteger(in.createByteArray())",
+              "%1$s",
+              "new java.math.BigInteger(in.nextString())"))
+          .put(Date.class.getName(), new Encoding(
+              ImmutableList.of("dest.writeLong(%1$s.getTime())"),
+              "new java.util.Date(in.readLong())",
+              "%1$s.getTime()",
+              "new java.util.Date(in.nextLong())"))
+          .put(UUID.class.getName(), new Encoding(
+              ImmutableList.of(
+                  "dest.writeLong(%1$s.getMostSignificantBits())",
+                  "dest.writeLong(%1$s.getLeastSignificantBits())"),
+              "new java.util.UUID(in.readLong(), in.readLong())",
+              "%1$s.toString()",
+              "java.util.UUID.fromString(in.nextString())"))
+          // Locale.toLanguageTag is not available on older Android versions, so a Locale is written
+          // as the three components that its oldest constructor accepts. For the same reason it has
+          // no JSON form, and @AutoAdapter reports an error for a Locale property.
+          .put(Locale.class.getName(), new Encoding(
+              ImmutableList.of(
+                  "dest.writeString(%1$s.getLanguage())",
+                  "dest.writeString(%1$s.getCountry())",
+                  "dest.writeString(%1$s.getVariant())"),
+              "new java.util.Locale(in.readString(), in.readString(), in.readString())",
+              null,
+              null))
+          .put(URI.class.getName(), new Encoding(
+              ImmutableList.of("dest.writeString(%1$s.toString())"),
+              "java.net.URI.create(in.readString())",
+              "%1$s.toString()",
+              "java.net.URI.create(in.nextString())"))
+          .build();
+
+  /** Returns the encoding for the type with the given qualified name, or null if there is none. */
+  static Encoding forType(String qualifiedName) {
+    return ENCODINGS.get(qualifiedName);
+  }
+}
@@ -0,0 +1,1151 @@
+package auto.parcel.processor;
+
+import auto.parcel.AutoParcel;
+import auto.parcel.PropertyCodec;
+import com.google.auto.common.MoreElements;
+import com.google.auto.common.MoreTypes;
+import com.google.common.base.CaseFormat;
+import com.google.common.base.Joiner;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.annotation.processing.ProcessingEnvironment;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.type.ArrayType;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.ElementFilter;
+
+/**
+ * Generates the {@code writeToParcel} and {@code Parcel} constructor code for a Parcelable
+ * {@code @AutoParcel} class. Each property is written with the most specific {@code Parcel} method
+ * for its type, such as {@code writeInt} or {@code writeDoubleArray}, so that primitives are not
+ * boxed and no type tag is written per value. Types that have no specific encoding fall back to
+ * {@code writeValue} and {@code readValue}.
+ *
+ * <p>A property whose type is itself a Parcelable {@code @AutoParcel} class in the same package is
+ * written by calling its {@code writeToParcel} directly and read back through the {@code CREATOR}
+ * of its generated subclass, rather than through {@code writeParcelable}, which would write the
+ * class name and look up the {@code CREATOR} reflectively for every value. The generated subclass
+ * of a class in another package is not accessible, so such properties still use
+ * {@code writeValue}.
+ *
+ * <p>{@code List}, {@code Set} and {@code Map} properties are written as a size followed by each
+ * element, key and value with the codec for its type argument, and read back into an
+ * {@code ArrayList}, {@code LinkedHashSet} or {@code LinkedHashMap} allocated for exactly that
+ * size, so the copy iterates in the same order as the original, even a sorted one. A property
+ * declared as a bare {@code Collection}, or as another implementation, is still written with
+ * {@code writeValue}, because no single implementation would be equal to every original.
+ *
+ * <p>Enum values are written as their ordinal and read back by indexing into the result of
+ * {@code values()}, which is cached in a static field of the generated class, instead of going
+ * through Java serialization. An {@code EnumSet} of an enum with at most 64 constants is written as
+ * a single {@code long} bitmask.
+ *
+ * <p>The JDK value types in {@link JdkValueTypes}, such as {@code BigDecimal} and {@code UUID}, are
+ * written in their compact encodings. A note is reported for every property that is still written
+ * with {@code writeValue} and whose type, or the type of one of its elements, is Serializable but
+ * not Parcelable, since {@code writeValue} then uses Java serialization.
+ *
+ * <p>A property, collection element, or map key or value whose type has a codec named by
+ * {@link auto.parcel.PropertyCodec @PropertyCodec} is written and read by calling that codec's
+ * static methods, ahead of any of the encodings above.
+ *
+ * <p>Non-null properties are written without a null marker, since the constructor of the generated
+ * class has already rejected null values for them. Whether each {@code @Nullable} property is
+ * null is recorded by one bit of a header word, or of several for more than 64 such properties,
+ * which is written before all of the properties, and a null property is then not written at all.
+ * Likewise an optional primitive property is written only if it is present, as recorded by the
+ * presence words of the generated class, which are written before the header.
+ *
+ * <p>With {@link AutoParcel#stringTable()} or {@link AutoParcel#graph()}, the public
+ * {@code writeToParcel} creates an {@link auto.parcel.AutoParcelTables} and passes it on to the
+ * package-private {@code writeToParcel} overload of every nested value whose class sets either
+ * attribute too, and likewise when reading. With {@code stringTable}, a string repeated anywhere
+ * in the graph is written once. A nested value whose class sets {@code graph} is written once and
+ * then referred to by an id.
+ *
+ * <p>With {@link AutoParcel#utf8Strings()}, strings are written as byte arrays that
+ * {@link auto.parcel.AutoParcelStrings} encodes and decodes, including the first occurrence of a
+ * string in the string table. A nested value writes its strings the way its own class says to.
+ *
+ * <p>A property with {@link AutoParcel.LazyParcel} is written to a {@code Parcel} of its own, whose
+ * bytes are written as a byte array. The {@code Parcel} constructor only keeps those bytes, and the
+ * getter decodes them from another {@code Parcel} of its own. Since that happens after the rest of
+ * the {@code Parcel} has been read, such a class cannot have tables to share with it.
+ */
+class ParcelSerialization {
+  private static final String INDENT = "    ";
+
+  private final ProcessingEnvironment processingEnv;
+  private final ErrorReporter errorReporter;
+  private final TypeElement type;
+  private final TypeSimplifier typeSimplifier;
+  private final PropertyCodecs propertyCodecs;
+  private final Set<String> serializableFallbacks = Sets.newLinkedHashSet();
+  private final Map<String, String> enumValuesFields;
+  private final ImmutableList.Builder<String> fields = ImmutableList.builder();
+  private boolean stringTable;
+  private boolean parcelTables;
+  private String autoParcelStrings;
+  private int localCount;
+
+  /**
+   * @param type the {@code @AutoParcel} class whose generated subclass will contain the code.
+   * @param enumValuesFields the names of the static fields holding the {@code values()} of enums,
+   *     by the qualified name of the enum, which {@link FieldPacking} may already have declared
+   *     and to which this adds any others that the code needs.
+   */
+  ParcelSerialization(
+      ProcessingEnvironment processingEnv,
+      ErrorReporter errorReporter,
+      TypeElement type,
+      TypeSimplifier typeSimplifier,
+      Map<String, String> enumValuesFields) {
+    this.processingEnv = processingEnv;
+    this.errorReporter = errorReporter;
+    this.type = type;
+    this.typeSimplifier = typeSimplifier;
+    this.enumValuesFields = enumValuesFields;
+    this.propertyCodecs = new PropertyCodecs(processingEnv, errorReporter, type);
+  }
+
+  /**
+   * Defines the {@code parcelWriters} and {@code parcelReaders} template variables, which map each
+   * property name to the statements that write it in {@code writeToParcel} and read it back in the
+   * {@code Parcel} constructor, and the {@code parcelFields} variable listing the static fields
+   * that code uses.
+   */
+  void defineVars(AutoParcelTemplateVars vars, List<AutoParcelProcessor.Property> props) {
+    stringTable = vars.stringTable;
+    parcelTables = vars.parcelTables;
+    autoParcelStrings = vars.utf8Strings ? vars.autoParcelStrings : null;
+    List<AutoParcelProcessor.Property> nullable = new ArrayList<AutoParcelProcessor.Property>();
+    for (AutoParcelProcessor.Property prop : props) {
+      if (prop.isNullable() && !prop.isLazyParcel()) {
+        nullable.add(prop);
+      }
+    }
+    boolean useInt = nullable.size() <= 32;
+    int words = (nullable.size() + 63) / 64;
+    ImmutableList.Builder<String> wordNames = ImmutableList.builder();
+    for (int word = 0; word < words; word++) {
+      wordNames.add(words == 1 ? "nonNull$" : "nonNull$" + word);
+    }
+    vars.parcelNullWords = wordNames.build();
+    vars.parcelNullWordType = useInt ? "int" : "long";
+    List<List<String>> wordBits = new ArrayList<List<String>>();
+    for (int word = 0; word < words; word++) {
+      wordBits.add(new ArrayList<String>());
+    }
+    Map<AutoParcelProcessor.Property, Codec> codecs = Maps.newLinkedHashMap();
+    Map<AutoParcelProcessor.Property, Codec> lazyCodecs = Maps.newLinkedHashMap();
+    for (AutoParcelProcessor.Property prop : props) {
+      serializableFallbacks.clear();
+      Codec codec = codecForProperty(prop);
+      if (!serializableFallbacks.isEmpty()) {
+        errorReporter.reportNote(String.format(
+            "Property %s of %s is written to the Parcel with Java serialization for %s",
+            prop.getName(), type.getSimpleName(), Joiner.on(", ").join(serializableFallbacks)),
+            prop.getMethod());
+      }
+      if (prop.isLazyParcel()) {
+        if (prop.isNullable() && !codec.handlesNull()) {
+          codec = new NullableCodec(codec);
+        }
+        lazyCodecs.put(prop, codec);
+        codecs.put(prop, new LazyCodec(prop.toString()));
+        continue;
+      }
+      if (prop.isNullable()) {
+        int i = nullable.indexOf(prop);
+        String word = vars.parcelNullWords.get(i / 64);
+        String bit = useInt
+            ? "0x" + Integer.toHexString(1 << i)
+            : "0x" + Long.toHexString(1L << (i % 64)) + "L";
+        String nonNull = valueOf(prop) + " != null";
+        wordBits.get(i / 64).add("(" + nonNull + " ? " + bit + " : " + (useInt ? "0" : "0L") + ")");
+        codec = new ConditionalCodec(codec, nonNull, "(" + word + " & " + bit + ") != 0", "null");
+      }
+      if (prop.isOptional()) {
+        String present = prop.present(prop.getPresenceField());
+        codec = new ConditionalCodec(codec, present, present, prop.getDefaultValue());
+      }
+      codecs.put(prop, codec);
+    }
+    ImmutableList.Builder<String> wordValues = ImmutableList.builder();
+    for (List<String> bits : wordBits) {
+      wordValues.add(Joiner.on(" | ").join(bits));
+    }
+    vars.parcelNullWordValues = wordValues.build();
+    ImmutableMap.Builder<String, String> writers = ImmutableMap.builder();
+    localCount = 0;
+    for (Map.Entry<AutoParcelProcessor.Property, Codec> entry : codecs.entrySet()) {
+      Code write = new Code(INDENT);
+      AutoParcelProcessor.Property prop = entry.getKey();
+      entry.getValue().write(write, valueOf(prop));
+      writers.put(entry.getKey().getName(), write.toString());
+    }
+    ImmutableMap.Builder<String, String> readers = ImmutableMap.builder();
+    localCount = 0;
+    for (Map.Entry<AutoParcelProcessor.Property, Codec> entry : codecs.entrySet()) {
+      Code read = new Code(INDENT);
+      AutoParcelProcessor.Property prop = entry.getKey();
+      String target = prop.isLazyParcel() ? "this.parcel$" + prop : "this." + prop;
+      entry.getValue().read(read, target);
+      checkNotNull(read, prop, entry.getValue(), target);
+      readers.put(prop.getName(), read.toString());
+    }
+    vars.parcelWriters = writers.build();
+    vars.parcelReaders = readers.build();
+    ImmutableMap.Builder<String, String> lazyWriters = ImmutableMap.builder();
+    ImmutableMap.Builder<String, String> lazyReaders = ImmutableMap.builder();
+    for (Map.Entry<AutoParcelProcessor.Property, Codec> entry : lazyCodecs.entrySet()) {
+      // The statements go in a try block of the marshall$foo or unmarshall$foo method, which
+      // decodes into its local variable value$.
+      localCount = 0;
+      Code write = new Code(INDENT + "  ");
+      entry.getValue().write(write, entry.getKey().toString());
+      lazyWriters.put(entry.getKey().getName(), write.toString());
+      localCount = 0;
+      Code read = new Code(INDENT + "    ");
+      entry.getValue().read(read, "value$");
+      checkNotNull(read, entry.getKey(), entry.getValue(), "value$");
+      lazyReaders.put(entry.getKey().getName(), read.toString());
+    }
+    vars.lazyParcelWriters = lazyWriters.build();
+    vars.lazyParcelReaders = lazyReaders.build();
+    vars.parcelFields = fields.build();
+  }
+
+  /**
+   * Appends a check that a non-null property has not been read as null, which only a malformed
+   * {@code Parcel} could cause, since the constructor that the Parcel code bypasses would reject
+   * it.
+   */
+  private static void checkNotNull(
+      Code code, AutoParcelProcessor.Property prop, Codec codec, String target) {
+    if (!prop.isNullable() && codec.mayReadNull()) {
+      code.begin("if (%s == null)", target);
+      code.add("throw new NullPointerException(\"Null %s\");", prop.getName());
+      code.end();
+    }
+  }
+
+  /** Returns an expression for the value of {@code prop} in {@code writeToParcel}. */
+  private static String valueOf(AutoParcelProcessor.Property prop) {
+    return prop.isPacked() ? prop.getGetter() + "()" : prop.toString();
+  }
+
+  private Codec codecForProperty(AutoParcelProcessor.Property prop) {
+    PropertyCodecs.Codec propertyCodec = propertyCodecs.forProperty(prop.getMethod());
+    if (propertyCodec != null) {
+      if (propertyCodec.supportsParcel()) {
+        return customCodec(propertyCodec);
+      }
+      errorReporter.reportError(propertyCodec.codecClass().getQualifiedName()
+          + " has no static writeToParcel and createFromParcel methods, so it cannot be used"
+          + " for a property of a Parcelable class", prop.getMethod());
+    }
+    return codecFor(prop.getTypeMirror());
+  }
+
+  private Codec codecFor(TypeMirror type) {
+    PropertyCodecs.Codec propertyCodec = propertyCodecs.forType(type);
+    if (propertyCodec != null && propertyCodec.supportsParcel()) {
+      return customCodec(propertyCodec);
+    }
+    TypeKind kind = type.getKind();
+    if (kind.isPrimitive()) {
+      return primitiveCodec(kind);
+    } else if (kind == TypeKind.ARRAY) {
+      Codec arrayCodec = primitiveArrayCodec(((ArrayType) type).getComponentType().getKind());
+      if (arrayCodec != null) {
+        return arrayCodec;
+      }
+    } else if (kind == TypeKind.DECLARED) {
+      Codec declaredCodec = declaredCodec(type);
+      if (declaredCodec != null) {
+        return declaredCodec;
+      }
+    }
+    if (isSerializableButNotParcelable(type)) {
+      serializableFallbacks.add(type.toString());
+    }
+    return new ValueCodec(typeSimplifier.simplify(type));
+  }
+
+  private boolean isSerializableButNotParcelable(TypeMirror type) {
+    TypeMirror erased = processingEnv.getTypeUtils().erasure(type);
+    return isAssignable(erased, Serializable.class.getName())
+        && !isAssignable(erased, "android.os.Parcelable");
+  }
+
+  private boolean isAssignable(TypeMirror type, String qualifiedName) {
+    TypeElement element = processingEnv.getElementUtils().getTypeElement(qualifiedName);
+    return element != null
+        && processingEnv.getTypeUtils().isAssignable(type, element.asType());
+  }
+
+  /** Returns a codec that calls the static methods of a {@code @PropertyCodec} class. */
+  private static Codec customCodec(PropertyCodecs.Codec propertyCodec) {
+    String codecClass = propertyCodec.codecClass().getQualifiedName().toString();
+    return new CustomCodec(
+        codecClass + ".writeToParcel(%s, dest)", codecClass + ".createFromParcel(in)");
+  }
+
+  /** Returns the codec for an element of a collection, which may be null. */
+  private Codec elementCodecFor(TypeMirror type) {
+    Codec codec = codecFor(type);
+    return codec.handlesNull() ? codec : new NullableCodec(codec);
+  }
+
+  private static Codec primitiveCodec(TypeKind kind) {
+    switch (kind) {
+      case BOOLEAN:
+        return new SimpleCodec("dest.writeInt(%s ? 1 : 0)", "in.readInt() != 0");
+      case BYTE:
+        return new SimpleCodec("dest.writeByte(%s)", "in.readByte()");
+      case SHORT:
+        return new SimpleCodec("dest.writeInt(%s)", "(short) in.readInt()");
+      case CHAR:
+        return new SimpleCodec("dest.writeInt(%s)", "(char) in.readInt()");
+      case INT:
+        return new SimpleCodec("dest.writeInt(%s)", "in.readInt()");
+      case LONG:
+        return new SimpleCodec("dest.writeLong(%s)", "in.readLong()");
+      case FLOAT:
+        return new SimpleCodec("dest.writeFloat(%s)", "in.readFloat()");
+      case DOUBLE:
+        return new SimpleCodec("dest.writeDouble(%s)", "in.readDouble()");
+      default:
+        throw new IllegalArgumentException("Not a primitive kind: " + kind);
+    }
+  }
+
+  private static Codec primitiveArrayCodec(TypeKind componentKind) {
+    switch (componentKind) {
+      case BOOLEAN:
+        return new NullSafeCodec("dest.writeBooleanArray(%s)", "in.createBooleanArray()");
+      case BYTE:
+        return new NullSafeCodec("dest.writeByteArray(%s)", "in.createByteArray()");
+      case CHAR:
+        return new NullSafeCodec("dest.writeCharArray(%s)", "in.createCharArray()");
+      case INT:
+        return new NullSafeCodec("dest.writeIntArray(%s)", "in.createIntArray()");
+      case LONG:
+        return new NullSafeCodec("dest.writeLongArray(%s)", "in.createLongArray()");
+      case FLOAT:
+        return new NullSafeCodec("dest.writeFloatArray(%s)", "in.createFloatArray()");
+      case DOUBLE:
+        return new NullSafeCodec("dest.writeDoubleArray(%s)", "in.createDoubleArray()");
+      default:
+        // Parcel has no short[] methods, so short[] still goes through writeValue.
+        return null;
+    }
+  }
+
+  /**
+   * Codecs for the boxed primitive types, keyed by qualified name. A boxed value is written exactly
+   * like the corresponding primitive; only nullable properties pay for a null marker.
+   */
+  private static final ImmutableMap<String, TypeKind> BOXED_TYPES =
+      ImmutableMap.<String, TypeKind>builder()
+          .put(Boolean.class.getName(), TypeKind.BOOLEAN)
+          .put(Byte.class.getName(), TypeKind.BYTE)
+          .put(Short.class.getName(), TypeKind.SHORT)
+          .put(Character.class.getName(), TypeKind.CHAR)
+          .put(Integer.class.getName(), TypeKind.INT)
+          .put(Long.class.getName(), TypeKind.LONG)
+          .put(Float.class.getName(), TypeKind.FLOAT)
+          .put(Double.class.getName(), TypeKind.DOUBLE)
+          .build();
+
+  private Codec declaredCodec(TypeMirror type) {
+    String name = qualifiedName(type);
+    if (name.equals(String.class.getName())) {
+      Codec codec = autoParcelStrings == null
+          ? new NullSafeCodec("dest.writeString(%s)", "in.readString()")
+          : new NullSafeCodec("dest.writeByteArray(" + autoParcelStrings + ".encodeUtf8(%s))",
+              autoParcelStrings + ".decodeUtf8(in.createByteArray())");
+      return stringTable ? new StringTableCodec(codec) : codec;
+    }
+    TypeKind unboxed = BOXED_TYPES.get(name);
+    if (unboxed != null) {
+      return primitiveCodec(unboxed);
+    }
+    JdkValueTypes.Encoding encoding = JdkValueTypes.forType(name);
+    if (encoding != null) {
+      return new JdkValueCodec(encoding);
+    }
+    Codec collectionCodec = collectionCodec(MoreTypes.asDeclared(type), name);
+    if (collectionCodec != null) {
+      return collectionCodec;
+    }
+    if (name.equals("java.util.EnumSet")) {
+      return enumSetCodec(MoreTypes.asDeclared(type));
+    }
+    TypeElement element = MoreElements.asType(MoreTypes.asElement(type));
+    if (element.getKind() == ElementKind.ENUM) {
+      return new SimpleCodec(
+          "dest.writeInt(%s.ordinal())", enumValuesField(element) + "[in.readInt()]");
+    }
+    if (isDirectlyParcelableAutoParcel(element)) {
+      String subclass = TypeSimplifier.simpleNameOf(
+          AutoParcelProcessor.generatedSubclassName(element));
+      AutoParcel autoParcel = element.getAnnotation(AutoParcel.class);
+      if (parcelTables && (autoParcel.stringTable() || autoParcel.graph())) {
+        Codec codec = new NestedTablesCodec(subclass);
+        return autoParcel.graph() ? new GraphCodec(typeSimplifier.simplify(type), codec) : codec;
+      }
+      return new SimpleCodec(
+          "%s.writeToParcel(dest, flags)", subclass + ".CREATOR.createFromParcel(in)");
+    }
+    return null;
+  }
+
+  private static final ImmutableMap<String, String> COLLECTION_IMPLEMENTATIONS =
+      ImmutableMap.<String, String>builder()
+          .put("java.util.List", "java.util.ArrayList")
+          .put("java.util.ArrayList", "java.util.ArrayList")
+          .put("java.util.Set", "java.util.LinkedHashSet")
+          .put("java.util.HashSet", "java.util.HashSet")
+          .put("java.util.LinkedHashSet", "java.util.LinkedHashSet")
+          .put("java.util.Map", "java.util.LinkedHashMap")
+          .put("java.util.HashMap", "java.util.HashMap")
+          .put("java.util.LinkedHashMap", "java.util.LinkedHashMap")
+          .build();
+
+  /**
+   * Returns a codec that writes an {@code EnumSet} as a bitmask of its ordinals, or null if the
+   * enum has more than 64 constants.
+   */
+  private Codec enumSetCodec(DeclaredType type) {
+    TypeMirror enumType = type.getTypeArguments().get(0);
+    if (enumType.getKind() != TypeKind.DECLARED) {
+      return null;
+    }
+    TypeElement enumElement = MoreElements.asType(MoreTypes.asElement(enumType));
+    int constants = 0;
+    for (Element enclosed : enumElement.getEnclosedElements()) {
+      if (enclosed.getKind() == ElementKind.ENUM_CONSTANT) {
+        constants++;
+      }
+    }
+    if (constants > 64) {
+      return null;
+    }
+    return new EnumSetCodec(typeSimplifier.simplify(type), typeSimplifier.simplify(enumType),
+        enumValuesField(enumElement));
+  }
+
+  /**
+   * Returns the name of a static field of the generated class that holds the {@code values()} of
+   * the given enum, adding its declaration to {@link #fields} the first time.
+   */
+  private String enumValuesField(TypeElement enumElement) {
+    String field = enumValuesFields.get(enumElement.getQualifiedName().toString());
+    if (field == null) {
+      field = newEnumValuesField(enumElement, enumValuesFields);
+      String enumType = typeSimplifier.simplify(enumElement.asType());
+      fields.add(String.format(
+          "private static final %s[] %s = %s.values();", enumType, field, enumType));
+    }
+    return field;
+  }
+
+  /**
+   * Chooses a name like {@code COLOR_VALUES} for the field that will hold the {@code values()} of
+   * the given enum, distinct from those in {@code enumValuesFields}, and records it there.
+   */
+  static String newEnumValuesField(
+      TypeElement enumElement, Map<String, String> enumValuesFields) {
+    String base = CaseFormat.UPPER_CAMEL.to(
+        CaseFormat.UPPER_UNDERSCORE, enumElement.getSimpleName().toString()) + "_VALUES";
+    String field = base;
+    for (int i = 1; enumValuesFields.containsValue(field); i++) {
+      field = base + i;
+    }
+    enumValuesFields.put(enumElement.getQualifiedName().toString(), field);
+    return field;
+  }
+
+  /**
+   * The initial capacity of a hash set or map that will hold {@code %s} entries
+   * without being resized, given the default load factor of 0.75.
+   */
+  private static final String HASH_CAPACITY = "%s * 4 / 3 + 1";
+
+  /**
+   * Returns a codec for a {@code List}, {@code Set} or {@code Map} type, or null if {@code type}
+   * is not one of those or its type arguments are wildcards.
+   */
+  private Codec collectionCodec(DeclaredType type, String name) {
+    String implementation = COLLECTION_IMPLEMENTATIONS.get(name);
+    if (implementation == null) {
+      return null;
+    }
+    List<? extends TypeMirror> typeArguments = type.getTypeArguments();
+    if (typeArguments.isEmpty()) {
+      return null;
+    }
+    for (TypeMirror typeArgument : typeArguments) {
+      TypeKind kind = typeArgument.getKind();
+      if (kind != TypeKind.DECLARED && kind != TypeKind.ARRAY && kind != TypeKind.TYPEVAR) {
+        return null;
+      }
+    }
+    String declaredType = typeSimplifier.simplify(type);
+    String capacity = implementation.equals("java.util.ArrayList") ? "%s" : HASH_CAPACITY;
+    if (typeArguments.size() == 1) {
+      TypeMirror elementType = typeArguments.get(0);
+      return new CollectionCodec(declaredType, implementation, capacity,
+          typeSimplifier.simplify(elementType), elementCodecFor(elementType));
+    } else {
+      TypeMirror keyType = typeArguments.get(0);
+      TypeMirror valueType = typeArguments.get(1);
+      return new MapCodec(declaredType, implementation, capacity,
+          typeSimplifier.simplify(keyType), elementCodecFor(keyType),
+          typeSimplifier.simplify(valueType), elementCodecFor(valueType));
+    }
+  }
+
+  /**
+   * True if {@code element} is a Parcelable {@code @AutoParcel} class whose generated subclass we
+   * can reference from the generated subclass of {@link #type}. Generic classes are excluded
+   * because their {@code CREATOR} is raw.
+   */
+  private boolean isDirectlyParcelableAutoParcel(TypeElement element) {
+    if (element.getAnnotation(AutoParcel.class) == null
+        || !element.getTypeParameters().isEmpty()
+        || !TypeSimplifier.packageNameOf(element).equals(TypeSimplifier.packageNameOf(type))) {
+      return false;
+    }
+    TypeElement parcelable =
+        processingEnv.getElementUtils().getTypeElement("android.os.Parcelable");
+    return parcelable != null
+        && processingEnv.getTypeUtils().isAssignable(element.asType(), parcelable.asType());
+  }
+
+  /**
+   * True if a value of {@code type} may put binders or file descriptors in the {@code Parcel},
+   * which {@code Parcel.marshall()} rejects, so that it cannot be encoded into the bytes of a
+   * {@link AutoParcel.LazyParcel} property. That is the case for anything written with
+   * {@code writeValue} that is not merely {@code Serializable}, such as a {@code Parcelable} that
+   * is not an {@code @AutoParcel} class, an {@code IBinder} or an {@code Object}, and for
+   * collections, maps and {@code @AutoParcel} classes that contain one. The code of a
+   * {@code @PropertyCodec} is assumed to write neither.
+   */
+  boolean mayWriteBinders(TypeMirror type) {
+    return mayWriteBinders(type, Sets.<String>newHashSet());
+  }
+
+  private boolean mayWriteBinders(TypeMirror type, Set<String> visited) {
+    PropertyCodecs.Codec propertyCodec = propertyCodecs.forType(type);
+    if (propertyCodec != null && propertyCodec.supportsParcel()) {
+      return false;
+    }
+    TypeKind kind = type.getKind();
+    if (kind.isPrimitive()) {
+      return false;
+    } else if (kind == TypeKind.ARRAY) {
+      return mayWriteBinders(((ArrayType) type).getComponentType(), visited);
+    } else if (kind != TypeKind.DECLARED) {
+      return true;
+    }
+    String name = qualifiedName(type);
+    TypeElement element = MoreElements.asType(MoreTypes.asElement(type));
+    if (name.equals(String.class.getName())
+        || BOXED_TYPES.containsKey(name)
+        || JdkValueTypes.forType(name) != null
+        || name.equals("java.util.EnumSet")
+        || element.getKind() == ElementKind.ENUM) {
+      return false;
+    }
+    if (COLLECTION_IMPLEMENTATIONS.containsKey(name)) {
+      for (TypeMirror typeArgument : MoreTypes.asDeclared(type).getTypeArguments()) {
+        if (mayWriteBinders(typeArgument, visited)) {
+          return true;
+        }
+      }
+      return false;
+    }
+    if (isDirectlyParcelableAutoParcel(element)) {
+      if (!visited.add(name)) {
+        return false;
+      }
+      for (ExecutableElement method : ElementFilter.methodsIn(
+          processingEnv.getElementUtils().getAllMembers(element))) {
+        if (method.getModifiers().contains(Modifier.ABSTRACT)
+            && method.getParameters().isEmpty()
+            && method.getReturnType().getKind() != TypeKind.VOID
+            && !MoreElements.isAnnotationPresent(method, PropertyCodec.class)
+            && mayWriteBinders(method.getReturnType(), visited)) {
+          return true;
+        }
+      }
+      return false;
+    }
+    return !isSerializableButNotParcelable(type);
+  }
+
+  private static String qualifiedName(TypeMirror type) {
+    return MoreElements.asType(MoreTypes.asElement(type)).getQualifiedName().toString();
+  }
+
+  /**
+   * Accumulates generated statements, one per line, at a given indentation.
+   */
+  private class Code {
+    private final StringBuilder sb = new StringBuilder();
+    private String indent;
+
+    Code(String indent) {
+      this.indent = indent;
+    }
+
+    /**
+     * Returns a new local variable name. The names are unique within the generated method, since
+     * the code for all properties ends up in the same one.
+     */
+    String newLocal(String prefix) {
+      return prefix + "$" + localCount++;
+    }
+
+    Code add(String format, Object... args) {
+      sb.append(indent).append(String.format(format, args)).append('\n');
+      return this;
+    }
+
+    Code begin(String format, Object... args) {
+      add(format + " {", args);
+      indent += "  ";
+      return this;
+    }
+
+    Code next(String format, Object... args) {
+      indent = indent.substring(2);
+      return begin("} " + format, args);
+    }
+
+    Code end() {
+      indent = indent.substring(2);
+      return add("}");
+    }
+
+    @Override public String toString() {
+      // The template supplies the final newline.
+      return sb.length() == 0 ? "" : sb.substring(0, sb.length() - 1);
+    }
+  }
+
+  /**
+   * How values of one type are written to {@code dest} and read back from {@code in}.
+   */
+  private abstract static class Codec {
+    /**
+     * True if this codec can write and read back {@code null} by itself, so a nullable property
+     * needs no separate null marker.
+     */
+    boolean handlesNull() {
+      return false;
+    }
+
+    /**
+     * True if reading may produce null, such as from a malformed {@code Parcel}, even though
+     * null was not written.
+     */
+    boolean mayReadNull() {
+      return handlesNull();
+    }
+
+    abstract void write(Code code, String value);
+
+    /**
+     * An expression that reads one value, or null if reading needs statements, in which case
+     * {@link #read} must be overridden.
+     */
+    abstract String readExpression();
+
+    /** Appends statements that read one value and assign it to {@code target}. */
+    void read(Code code, String target) {
+      code.add("%s = %s;", target, readExpression());
+    }
+
+    /**
+     * Returns an expression that reads one value. If reading needs statements, they are appended
+     * first and the expression is a new local variable of the given type that holds the value.
+     */
+    String readToExpression(Code code, String type) {
+      String expression = readExpression();
+      return expression == null ? readToLocal(code, type) : expression;
+    }
+
+    /** Appends statements that read one value into a new local variable, and returns its name. */
+    String readToLocal(Code code, String type) {
+      String local = code.newLocal("value");
+      String expression = readExpression();
+      if (expression == null) {
+        code.add("%s %s;", type, local);
+        read(code, local);
+      } else {
+        code.add("%s %s = %s;", type, local, expression);
+      }
+      return local;
+    }
+  }
+
+  /** A codec that is a single {@code Parcel} call in each direction. */
+  private static class SimpleCodec extends Codec {
+    private final String writeFormat;
+    private final String readExpression;
+
+    SimpleCodec(String writeFormat, String readExpression) {
+      this.writeFormat = writeFormat;
+      this.readExpression = readExpression;
+    }
+
+    @Override void write(Code code, String value) {
+      code.add(writeFormat + ";", value);
+    }
+
+    @Override String readExpression() {
+      return readExpression;
+    }
+  }
+
+  /** A {@link SimpleCodec} whose {@code Parcel} methods already accept and return null. */
+  private static class NullSafeCodec extends SimpleCodec {
+    NullSafeCodec(String writeFormat, String readExpression) {
+      super(writeFormat, readExpression);
+    }
+
+    @Override boolean handlesNull() {
+      return true;
+    }
+  }
+
+  /** A {@link SimpleCodec} that calls a {@code @PropertyCodec}, which may return null. */
+  private static class CustomCodec extends SimpleCodec {
+    CustomCodec(String writeFormat, String readExpression) {
+      super(writeFormat, readExpression);
+    }
+
+    @Override boolean mayReadNull() {
+      return true;
+    }
+  }
+
+  /** The fallback codec, which writes a type tag followed by the value. */
+  private static class ValueCodec extends NullSafeCodec {
+    ValueCodec(String castType) {
+      super("dest.writeValue(%s)", "(" + castType + ") in.readValue(CL)");
+    }
+  }
+
+  /**
+   * Writes a string as its index in the {@code tables$}, followed by the string itself, with the
+   * given codec, if this is its first occurrence, which the index -1 indicates.
+   */
+  private static class StringTableCodec extends Codec {
+    private final Codec delegate;
+
+    StringTableCodec(Codec delegate) {
+      this.delegate = delegate;
+    }
+
+    @Override boolean mayReadNull() {
+      return delegate.mayReadNull();
+    }
+
+    @Override void write(Code code, String value) {
+      String index = code.newLocal("index");
+      code.add("int %s = tables$.indexOfString(%s);", index, value);
+      code.add("dest.writeInt(%s);", index);
+      code.begin("if (%s < 0)", index);
+      delegate.write(code, value);
+      code.end();
+    }
+
+    @Override String readExpression() {
+      return null;
+    }
+
+    @Override void read(Code code, String target) {
+      String index = code.newLocal("index");
+      code.add("int %s = in.readInt();", index);
+      code.add("%s = %s < 0 ? tables$.addString(%s) : tables$.getString(%s);",
+          target, index, delegate.readExpression(), index);
+    }
+  }
+
+  /**
+   * Writes a nested {@code @AutoParcel} value with the overload of {@code writeToParcel} that
+   * shares the {@code tables$}, which only the generated subclass has, after the tag 1. Any other
+   * implementation of the class is written with its own {@code writeToParcel} after the tag 0, and
+   * read back with the {@code CREATOR} of the generated subclass, as it would be without tables.
+   */
+  private static class NestedTablesCodec extends Codec {
+    private final String subclass;
+
+    NestedTablesCodec(String subclass) {
+      this.subclass = subclass;
+    }
+
+    @Override void write(Code code, String value) {
+      code.begin("if (%s instanceof %s)", value, subclass);
+      code.add("dest.writeInt(1);");
+      code.add("((%s) %s).writeToParcel(dest, flags, tables$);", subclass, value);
+      code.next("else");
+      code.add("dest.writeInt(0);");
+      code.add("%s.writeToParcel(dest, flags);", value);
+      code.end();
+    }
+
+    @Override String readExpression() {
+      return String.format("(in.readInt() != 0 ? %1$s.createFromParcel(in, tables$)"
+          + " : %1$s.CREATOR.createFromParcel(in))", subclass);
+    }
+  }
+
+  /**
+   * Writes a nested value as its id in the {@code tables$}, followed by the value itself if this is
+   * its first occurrence, which the id -1 indicates.
+   */
+  private static class GraphCodec extends Codec {
+    private final String valueType;
+    private final Codec delegate;
+
+    GraphCodec(String valueType, Codec delegate) {
+      this.valueType = valueType;
+      this.delegate = delegate;
+    }
+
+    @Override void write(Code code, String value) {
+      String id = code.newLocal("id");
+      code.add("int %s = tables$.beginValue(%s);", id, value);
+      code.add("dest.writeInt(%s);", id);
+      code.begin("if (%s < 0)", id);
+      delegate.write(code, value);
+      code.add("tables$.endValue(%s);", value);
+      code.end();
+    }
+
+    @Override String readExpression() {
+      return null;
+    }
+
+    @Override void read(Code code, String target) {
+      String id = code.newLocal("id");
+      code.add("int %s = in.readInt();", id);
+      code.add("%s = %s < 0 ? tables$.addValue(%s) : (%s) tables$.getValue(%s);",
+          target, id, delegate.readExpression(), valueType, id);
+    }
+  }
+
+  /**
+   * Writes a lazily decoded property as the bytes of a {@code Parcel} of its own, which the
+   * generated {@code marshall$foo} method fills, and reads those bytes back without decoding them.
+   */
+  private static class LazyCodec extends Codec {
+    private final String identifier;
+
+    LazyCodec(String identifier) {
+      this.identifier = identifier;
+    }
+
+    @Override boolean mayReadNull() {
+      return true;
+    }
+
+    @Override void write(Code code, String value) {
+      code.add("dest.writeByteArray(marshall$%s(flags));", identifier);
+    }
+
+    @Override String readExpression() {
+      return "in.createByteArray()";
+    }
+
+    @Override void read(Code code, String target) {
+      code.add("this.parcel$%s = %s;", identifier, readExpression());
+    }
+  }
+
+  /** A codec for one of the {@link JdkValueTypes}. */
+  private static class JdkValueCodec extends Codec {
+    private final JdkValueTypes.Encoding encoding;
+
+    JdkValueCodec(JdkValueTypes.Encoding encoding) {
+      this.encoding = encoding;
+    }
+
+    @Override void write(Code code, String value) {
+      for (String format : encoding.parcelWriteFormats()) {
+        code.add(format + ";", value);
+      }
+    }
+
+    @Override String readExpression() {
+      return encoding.parcelReadExpression();
+    }
+  }
+
+  /** Wraps a codec that cannot represent null with a leading null marker. */
+  private static class NullableCodec extends Codec {
+    private final Codec delegate;
+
+    NullableCodec(Codec delegate) {
+      this.delegate = delegate;
+    }
+
+    @Override boolean handlesNull() {
+      return true;
+    }
+
+    @Override void write(Code code, String value) {
+      code.begin("if (%s == null)", value);
+      code.add("dest.writeInt(0);");
+      code.next("else");
+      code.add("dest.writeInt(1);");
+      delegate.write(code, value);
+      code.end();
+    }
+
+    @Override String readExpression() {
+      String expression = delegate.readExpression();
+      return expression == null ? null : "in.readInt() == 0 ? null : " + expression;
+    }
+
+    @Override void read(Code code, String target) {
+      if (delegate.readExpression() != null) {
+        super.read(code, target);
+      } else {
+        code.begin("if (in.readInt() == 0)");
+        code.add("%s = null;", target);
+        code.next("else");
+        delegate.read(code, target);
+        code.end();
+      }
+    }
+  }
+
+  /**
+   * Writes a property only if {@code writeCondition} holds, which is recorded in a word written
+   * before the properties, such as the presence bits of optional primitive properties or the header
+   * bits of nullable ones. That word has already been read when the property is read back, and
+   * {@code readCondition} tests it. A property that was not written is given {@code absentValue}.
+   */
+  private static class ConditionalCodec extends Codec {
+    private final Codec delegate;
+    private final String writeCondition;
+    private final String readCondition;
+    private final String absentValue;
+
+    ConditionalCodec(
+        Codec delegate, String writeCondition, String readCondition, String absentValue) {
+      this.delegate = delegate;
+      this.writeCondition = writeCondition;
+      this.readCondition = readCondition;
+      this.absentValue = absentValue;
+    }
+
+    @Override boolean handlesNull() {
+      return absentValue.equals("null");
+    }
+
+    @Override void write(Code code, String value) {
+      code.begin("if (%s)", writeCondition);
+      delegate.write(code, value);
+      code.end();
+    }
+
+    @Override String readExpression() {
+      String expression = delegate.readExpression();
+      return expression == null ? null : readCondition + " ? " + expression + " : " + absentValue;
+    }
+
+    @Override void read(Code code, String target) {
+      if (delegate.readExpression() != null) {
+        super.read(code, target);
+      } else {
+        code.begin("if (%s)", readCondition);
+        delegate.read(code, target);
+        code.next("else");
+        code.add("%s = %s;", target, absentValue);
+        code.end();
+      }
+    }
+  }
+
+  /**
+   * Writes a {@code Collection} as its size followed by its elements, and reads it back into a
+   * new collection created with the expected size.
+   */
+  private static class CollectionCodec extends Codec {
+    private final String declaredType;
+    private final String implementation;
+    private final String capacityFormat;
+    private final String elementType;
+    private final Codec elementCodec;
+
+    /**
+     * @param capacityFormat the initial capacity of the new collection, as a format where
+     *     {@code %s} is its size.
+     */
+    CollectionCodec(
+        String declaredType,
+        String implementation,
+        String capacityFormat,
+        String elementType,
+        Codec elementCodec) {
+      this.declaredType = declaredType;
+      this.implementation = implementation;
+      this.capacityFormat = capacityFormat;
+      this.elementType = elementType;
+      this.elementCodec = elementCodec;
+    }
+
+    @Override void write(Code code, String value) {
+      String element = code.newLocal("element");
+      code.add("dest.writeInt(%s.size());", value);
+      code.begin("for (%s %s : %s)", elementType, element, value);
+      elementCodec.write(code, element);
+      code.end();
+    }
+
+    @Override String readExpression() {
+      return null;
+    }
+
+    @Override void read(Code code, String target) {
+      String size = code.newLocal("size");
+      String collection = code.newLocal("collection");
+      String i = code.newLocal("i");
+      code.add("int %s = in.readInt();", size);
+      code.add("%s %s = new %s<%s>(%s);", declaredType, collection, implementation, elementType,
+          String.format(capacityFormat, size));
+      code.begin("for (int %s = 0; %s < %s; %s++)", i, i, size, i);
+      code.add("%s.add(%s);", collection, elementCodec.readToExpression(code, elementType));
+      code.end();
+      code.add("%s = %s;", target, collection);
+    }
+  }
+
+  /**
+   * Writes an {@code EnumSet} as a {@code long} whose bit {@code n} is set if the constant with
+   * ordinal {@code n} is present.
+   */
+  private static class EnumSetCodec extends Codec {
+    private final String declaredType;
+    private final String enumType;
+    private final String valuesField;
+
+    EnumSetCodec(String declaredType, String enumType, String valuesField) {
+      this.declaredType = declaredType;
+      this.enumType = enumType;
+      this.valuesField = valuesField;
+    }
+
+    @Override void write(Code code, String value) {
+      String mask = code.newLocal("mask");
+      String element = code.newLocal("element");
+      code.add("long %s = 0;", mask);
+      code.begin("for (%s %s : %s)", enumType, element, value);
+      code.add("%s |= 1L << %s.ordinal();", mask, element);
+      code.end();
+      code.add("dest.writeLong(%s);", mask);
+    }
+
+    @Override String readExpression() {
+      return null;
+    }
+
+    @Override void read(Code code, String target) {
+      String mask = code.newLocal("mask");
+      String set = code.newLocal("set");
+      code.add("long %s = in.readLong();", mask);
+      code.add("%s %s = java.util.EnumSet.noneOf(%s.class);", declaredType, set, enumType);
+      code.begin("while (%s != 0)", mask);
+      code.add("%s.add(%s[Long.numberOfTrailingZeros(%s)]);", set, valuesField, mask);
+      code.add("%s &= %s - 1;", mask, mask);
+      code.end();
+      code.add("%s = %s;", target, set);
+    }
+  }
+
+  /**
+   * Writes a {@code Map} as its size followed by alternating keys and values, and reads it back
+   * into a new map created with the expected size.
+   */
+  private static class MapCodec extends Codec {
+    private final String declaredType;
+    private final String implementation;
+    private final String capacityFormat;
+    private final String keyType;
+    private final Codec keyCodec;
+    private final String valueType;
+    private final Codec valueCodec;
+
+    MapCodec(
+        String declaredType,
+        String implementation,
+        String capacityFormat,
+        String keyType,
+        Codec keyCodec,
+        String valueType,
+        Codec valueCodec) {
+      this.declaredType = declaredType;
+      this.implementation = implementation;
+      this.capacityFormat = capacityFormat;
+      this.keyType = keyType;
+      this.keyCodec = keyCodec;
+      this.valueType = valueType;
+      this.valueCodec = valueCodec;
+    }
+
+    @Override void write(Code code, String value) {
+      String entry = code.newLocal("entry");
+      code.add("dest.writeInt(%s.size());", value);
+      code.begin("for (java.util.Map.Entry<%s, %s> %s : %s.entrySet())",
+          keyType, valueType, entry, value);
+      keyCodec.write(code, entry + ".getKey()");
+      valueCodec.write(code, entry + ".getValue()");
+      code.end();
+    }
+
+    @Override String readExpression() {
+      return null;
+    }
+
+    @Override void read(Code code, String target) {
+      String size = code.newLocal("size");
+      String map = code.newLocal("map");
+      String i = code.newLocal("i");
+      code.add("int %s = in.readInt();", size);
+      code.add("%s %s = new %s<%s, %s>(%s);", declaredType, map, implementation, keyType,
+          valueType, String.format(capacityFormat, size));
+      code.begin("for (int %s = 0; %s < %s; %s++)", i, i, size, i);
+      // The key must be read before any statements that read the value.
+      String key = valueCodec.readExpression() == null
+          ? keyCodec.readToLocal(code, keyType)
+          : keyCodec.readToExpression(code, keyType);
+      String value = valueCodec.readToExpression(code, valueType);
+      code.add("%s.put(%s, %s);", map, key, value);
+      code.end();
+      code.add("%s = %s;", target, map);
+    }
+  }
+}
@@ -0,0 +1,67 @@
+package auto.parcel.processor;
+
+import com.google.common.base.Joiner;
+import com.google.common.collect.ImmutableList;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Gives each optional primitive property of an {@code @AutoParcel} class a bit in a shared
+ * {@code int} or {@code long} field, which is set if the property is present. The value of an
+ * absent property is stored as the default value of its type, so that two equal objects also have
+ * equal fields.
+ */
+class PresenceBits {
+  private PresenceBits() {}
+
+  /**
+   * Assigns a presence bit to each optional property and defines the variables for the fields
+   * that hold them.
+   */
+  static void defineVars(AutoParcelTemplateVars vars, List<AutoParcelProcessor.Property> props) {
+    List<AutoParcelProcessor.Property> optional = new ArrayList<AutoParcelProcessor.Property>();
+    for (AutoParcelProcessor.Property prop : props) {
+      if (prop.isOptional()) {
+        optional.add(prop);
+      }
+    }
+    if (optional.isEmpty()) {
+      return;
+    }
+    boolean useInt = optional.size() <= 32;
+    int words = (optional.size() + 63) / 64;
+    ImmutableList.Builder<String> fields = ImmutableList.builder();
+    for (int word = 0; word < words; word++) {
+      fields.add(words == 1 ? "present$" : "present$" + word);
+    }
+    vars.presenceFields = fields.build();
+    vars.presenceFieldType = useInt ? "int" : "long";
+    for (int i = 0; i < optional.size(); i++) {
+      String bit = useInt
+          ? "0x" + Integer.toHexString(1 << i)
+          : "0x" + Long.toHexString(1L << (i % 64)) + "L";
+      optional.get(i).setPresence(vars.presenceFields.get(i / 64), bit);
+    }
+  }
+
+  /**
+   * Returns an expression for each of the {@code presenceFields} of {@code vars} that computes
+   * its value by calling the {@code hasFoo()} methods of {@code object}.
+   */
+  static List<String> wordsFromPresenceMethods(AutoParcelTemplateVars vars, String object) {
+    String zero = vars.presenceFieldType.equals("int") ? "0" : "0L";
+    List<String> words = new ArrayList<String>();
+    for (String field : vars.presenceFields) {
+      List<String> bits = new ArrayList<String>();
+      for (AutoParcelProcessor.Property prop : vars.props) {
+        if (prop.isOptional() && prop.getPresenceField().equals(field)) {
+          bits.add("(" + object + "." + prop.getPresenceMethod() + "() ? " + prop.getPresenceBit()
+              + " : " + zero + ")");
+        }
+      }
+      words.add(Joiner.on(" | ").join(bits));
+    }
+    return words;
+  }
+}
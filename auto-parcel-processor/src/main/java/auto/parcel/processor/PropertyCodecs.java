@@ -0,0 +1,233 @@
+package auto.parcel.processor;
+
+import auto.parcel.PropertyCodec;
+import com.google.auto.common.MoreElements;
+import com.google.auto.common.MoreTypes;
+import com.google.common.collect.ImmutableList;
+
+import java.util.List;
+import java.util.Map;
+
+import javax.annotation.processing.ProcessingEnvironment;
+import javax.lang.model.element.AnnotationMirror;
+import javax.lang.model.element.AnnotationValue;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.ElementFilter;
+import javax.lang.model.util.Types;
+
+/**
+ * Resolves the user-supplied codecs named by {@link PropertyCodec} annotations on an
+ * {@code @AutoParcel} class and its property getters.
+ */
+class PropertyCodecs {
+  private static final String PARCEL = "android.os.Parcel";
+  private static final String JSON_WRITER = "com.google.gson.stream.JsonWriter";
+  private static final String JSON_READER = "com.google.gson.stream.JsonReader";
+
+  /** A codec class and the static methods it provides for one value type. */
+  static class Codec {
+    private final TypeElement codecClass;
+    private final TypeMirror valueType;
+    private final boolean parcel;
+    private final boolean json;
+
+    Codec(TypeElement codecClass, TypeMirror valueType, boolean parcel, boolean json) {
+      this.codecClass = codecClass;
+      this.valueType = valueType;
+      this.parcel = parcel;
+      this.json = json;
+    }
+
+    TypeElement codecClass() {
+      return codecClass;
+    }
+
+    /** True if the codec has {@code writeToParcel} and {@code createFromParcel} methods. */
+    boolean supportsParcel() {
+      return parcel;
+    }
+
+    /** True if the codec has {@code write} and {@code read} methods for Gson. */
+    boolean supportsJson() {
+      return json;
+    }
+  }
+
+  private final ProcessingEnvironment processingEnv;
+  private final ErrorReporter errorReporter;
+  private final ImmutableList<Codec> classCodecs;
+
+  /**
+   * @param errorReporter reports errors in the {@code @PropertyCodec} annotations, or is null if
+   *     another processor reports them.
+   * @param type the {@code @AutoParcel} class, whose own {@code @PropertyCodec} annotation, if any,
+   *     names the codecs that apply to all of its properties.
+   */
+  PropertyCodecs(
+      ProcessingEnvironment processingEnv, ErrorReporter errorReporter, TypeElement type) {
+    this.processingEnv = processingEnv;
+    this.errorReporter = errorReporter;
+    this.classCodecs = codecsNamedOn(type);
+  }
+
+  /**
+   * Returns the codec for a property, which is the one named on its getter if any, and otherwise
+   * one named on the class for the getter's return type. Returns null if there is neither.
+   */
+  Codec forProperty(ExecutableElement getter) {
+    TypeMirror type = getter.getReturnType();
+    ImmutableList<Codec> getterCodecs = codecsNamedOn(getter);
+    for (Codec codec : getterCodecs) {
+      if (types().isSameType(codec.valueType, type)) {
+        return codec;
+      }
+    }
+    if (!getterCodecs.isEmpty()) {
+      reportError("No @PropertyCodec class for " + getter.getSimpleName()
+          + " handles its type " + type, getter);
+    }
+    return forType(type);
+  }
+
+  /** Returns the codec named on the class for the given type, or null if there is none. */
+  Codec forType(TypeMirror type) {
+    for (Codec codec : classCodecs) {
+      if (types().isSameType(codec.valueType, type)) {
+        return codec;
+      }
+    }
+    return null;
+  }
+
+  private ImmutableList<Codec> codecsNamedOn(Element element) {
+    ImmutableList.Builder<Codec> codecs = ImmutableList.builder();
+    AnnotationMirror annotation = propertyCodecAnnotation(element);
+    if (annotation == null) {
+      return codecs.build();
+    }
+    for (Map.Entry<? extends ExecutableElement, ? extends AnnotationValue> entry :
+        annotation.getElementValues().entrySet()) {
+      if (!entry.getKey().getSimpleName().contentEquals("value")) {
+        continue;
+      }
+      @SuppressWarnings("unchecked")
+      List<? extends AnnotationValue> classes =
+          (List<? extends AnnotationValue>) entry.getValue().getValue();
+      for (AnnotationValue value : classes) {
+        TypeMirror codecType = (TypeMirror) value.getValue();
+        Codec codec = codecFor(MoreElements.asType(MoreTypes.asElement(codecType)));
+        if (codec == null) {
+          reportError(codecType + " must declare static writeToParcel(T, Parcel)"
+              + " and createFromParcel(Parcel) methods, or static write(JsonWriter, T) and"
+              + " read(JsonReader) methods", element);
+        } else {
+          codecs.add(codec);
+        }
+      }
+    }
+    return codecs.build();
+  }
+
+  private void reportError(String msg, Element e) {
+    if (errorReporter != null) {
+      errorReporter.reportError(msg, e);
+    }
+  }
+
+  private static AnnotationMirror propertyCodecAnnotation(Element element) {
+    for (AnnotationMirror annotation : element.getAnnotationMirrors()) {
+      TypeElement annotationType = MoreElements.asType(annotation.getAnnotationType().asElement());
+      if (annotationType.getQualifiedName().contentEquals(PropertyCodec.class.getName())) {
+        return annotation;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Returns the codec provided by {@code codecClass}, or null if it does not declare a matching
+   * pair of static methods. The value type is the return type of its read method.
+   */
+  private Codec codecFor(TypeElement codecClass) {
+    List<ExecutableElement> methods = ElementFilter.methodsIn(codecClass.getEnclosedElements());
+    TypeMirror parcel = typeNamed(PARCEL);
+    TypeMirror jsonReader = typeNamed(JSON_READER);
+    TypeMirror jsonWriter = typeNamed(JSON_WRITER);
+    TypeMirror parcelType = parcel == null ? null : readType(methods, "createFromParcel", parcel);
+    TypeMirror jsonType =
+        jsonReader == null || jsonWriter == null ? null : readType(methods, "read", jsonReader);
+    boolean supportsParcel =
+        parcelType != null && hasWriter(methods, "writeToParcel", parcelType, parcel);
+    boolean supportsJson =
+        jsonType != null && hasWriter(methods, "write", jsonWriter, jsonType);
+    if (supportsParcel && supportsJson && !types().isSameType(parcelType, jsonType)) {
+      supportsJson = false;
+    }
+    if (!supportsParcel && !supportsJson) {
+      return null;
+    }
+    return new Codec(
+        codecClass, supportsParcel ? parcelType : jsonType, supportsParcel, supportsJson);
+  }
+
+  /** Returns the type with the given qualified name, or null if it is not on the classpath. */
+  private TypeMirror typeNamed(String qualifiedName) {
+    TypeElement element = processingEnv.getElementUtils().getTypeElement(qualifiedName);
+    return element == null ? null : element.asType();
+  }
+
+  /** Returns the return type of a static {@code name(parameterType)} method, if there is one. */
+  private TypeMirror readType(
+      List<ExecutableElement> methods, String name, TypeMirror parameterType) {
+    for (ExecutableElement method : methods) {
+      if (isCallableStatic(method, name)
+          && method.getReturnType().getKind() != TypeKind.VOID
+          && hasParameters(method, parameterType)) {
+        return method.getReturnType();
+      }
+    }
+    return null;
+  }
+
+  /** True if there is a static void {@code name} method with the given parameter types. */
+  private boolean hasWriter(
+      List<ExecutableElement> methods, String name, TypeMirror... parameterTypes) {
+    for (ExecutableElement method : methods) {
+      if (isCallableStatic(method, name)
+          && method.getReturnType().getKind() == TypeKind.VOID
+          && hasParameters(method, parameterTypes)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static boolean isCallableStatic(ExecutableElement method, String name) {
+    return method.getSimpleName().contentEquals(name)
+        && method.getModifiers().contains(Modifier.STATIC)
+        && !method.getModifiers().contains(Modifier.PRIVATE);
+  }
+
+  private boolean hasParameters(ExecutableElement method, TypeMirror... parameterTypes) {
+    List<? extends VariableElement> parameters = method.getParameters();
+    if (parameters.size() != parameterTypes.length) {
+      return false;
+    }
+    for (int i = 0; i < parameterTypes.length; i++) {
+      if (!types().isSameType(parameters.get(i).asType(), parameterTypes[i])) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private Types types() {
+    return processingEnv.getTypeUtils();
+  }
+}
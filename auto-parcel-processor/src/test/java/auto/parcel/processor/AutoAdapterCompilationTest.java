@@ -0,0 +1,526 @@
+/*
+ * Copyright (C) 2014 The Guava Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package auto.parcel.processor;
+
+import static com.google.common.truth.Truth.assertAbout;
+import static com.google.testing.compile.JavaSourceSubjectFactory.javaSource;
+
+import com.google.testing.compile.JavaFileObjects;
+
+import junit.framework.TestCase;
+
+import javax.tools.JavaFileObject;
+
+/**
+ * Tests of the Gson {@code TypeAdapter} that {@link AutoAdapterProcessor} generates for an
+ * {@code @AutoParcel} class with {@code @AutoAdapter}.
+ */
+public class AutoAdapterCompilationTest extends TestCase {
+  public void testNullableJdkValueTypes() throws Exception {
+    JavaFileObject javaFileObject = JavaFileObjects.forSourceLines(
+        "foo.bar.Baz",
+        "package foo.bar;",
+        "",
+        "import auto.parcel.AutoAdapter;",
+        "import auto.parcel.AutoParcel;",
+        "import java.util.Date;",
+        "import java.util.UUID;",
+        "import javax.annotation.Nullable;",
+        "",
+        "@AutoParcel",
+        "@AutoAdapter",
+        "public abstract class Baz {",
+        "  @Nullable public abstract Date when();",
+        "  public abstract UUID id();",
+        "",
+        "  public static Builder builder() {",
+        "    return new AutoParcel_Baz.Builder();",
+        "  }",
+        "",
+        "  @AutoParcel.Builder",
+        "  public interface Builder {",
+        "    Builder when(Date when);",
+        "    Builder id(UUID id);",
+        "    Baz build();",
+        "  }",
+        "}");
+    JavaFileObject expectedOutput = JavaFileObjects.forSourceLines(
+        "foo.bar.AutoAdapter_Baz",
+        "package foo.bar;",
+        "",
+        "import com.google.gson.TypeAdapter;",
+        "import com.google.gson.stream.JsonReader;",
+        "import com.google.gson.stream.JsonToken;",
+        "import com.google.gson.stream.JsonWriter;",
+        "import java.io.IOException;",
+        "import java.lang.Override;",
+        "",
+        "/**",
+        " * AutoGenerated by AutoAdapter",
+        " */",
+        "public final class AutoAdapter_Baz extends TypeAdapter<Baz> {",
+        "  @Override",
+        "  public void write(JsonWriter out, Baz value) throws IOException {",
+        "    out.beginObject();",
+        "    out.name(\"when\");",
+        "    if (value.when() == null) {",
+        "      out.nullValue();",
+        "    } else {",
+        "      out.value(value.when().getTime());",
+        "    }",
+        "    out.name(\"id\");",
+        "    if (value.id() == null) {",
+        "      out.nullValue();",
+        "    } else {",
+        "      out.value(value.id().toString());",
+        "    }",
+        "    out.endObject();",
+        "  }",
+        "",
+        "  @Override",
+        "  public Baz read(JsonReader in) throws IOException {",
+        "    Baz.Builder builder = Baz.builder();",
+        "    in.beginObject();",
+        "    while (in.hasNext()) {",
+        "      switch (in.nextName()) {",
+        "        case \"when\":",
+        "          if (in.peek() == JsonToken.NULL) {",
+        "            in.nextNull();",
+        "          } else {",
+        "            builder.when(new java.util.Date(in.nextLong()));",
+        "          }",
+        "          break;",
+        "        case \"id\":",
+        "          if (in.peek() == JsonToken.NULL) {",
+        "            in.nextNull();",
+        "          } else {",
+        "            builder.id(java.util.UUID.fromString(in.nextString()));",
+        "          }",
+        "          break;",
+        "      }",
+        "    }",
+        "    in.endObject();",
+        "    return builder.build();",
+        "  }",
+        "}");
+    assertAbout(javaSource())
+        .that(javaFileObject)
+        .processedWith(new AutoParcelProcessor(), new AutoAdapterProcessor())
+        .compilesWithoutError()
+        .and()
+        .generatesSources(expectedOutput);
+  }
+
+  public void testBuilderReusedPerThread() throws Exception {
+    JavaFileObject javaFileObject = JavaFileObjects.forSourceLines(
+        "foo.bar.Baz",
+        "package foo.bar;",
+        "",
+        "import auto.parcel.AutoAdapter;",
+        "import auto.parcel.AutoParcel;",
+        "",
+        "@AutoParcel",
+        "@AutoAdapter",
+        "public abstract class Baz {",
+        "  public abstract String name();",
+        "  public abstract int count();",
+        "",
+        "  public static Builder builder() {",
+        "    return new AutoParcel_Baz.Builder();",
+        "  }",
+        "",
+        "  @AutoParcel.Builder",
+        "  public interface Builder {",
+        "    Builder name(String name);",
+        "    Builder count(int count);",
+        "    Builder reset();",
+        "    Baz build();",
+        "  }",
+        "}");
+    JavaFileObject expectedOutput = JavaFileObjects.forSourceLines(
+        "foo.bar.AutoAdapter_Baz",
+        "package foo.bar;",
+        "",
+        "import com.google.gson.TypeAdapter;",
+        "import com.google.gson.stream.JsonReader;",
+        "import com.google.gson.stream.JsonWriter;",
+        "import java.io.IOException;",
+        "import java.lang.Override;",
+        "import java.lang.ThreadLocal;",
+        "",
+        "/**",
+        " * AutoGenerated by AutoAdapter",
+        " */",
+        "public final class AutoAdapter_Baz extends TypeAdapter<Baz> {",
+        "  private final ThreadLocal<Baz.Builder> builders = new ThreadLocal<Baz.Builder>();",
+        "",
+        "  @Override",
+        "  public void write(JsonWriter out, Baz value) throws IOException {",
+        "    out.beginObject();",
+        "    out.name(\"name\").value(value.name());",
+        "    out.name(\"count\").value(value.count());",
+        "    out.endObject();",
+        "  }",
+        "",
+        "  @Override",
+        "  public Baz read(JsonReader in) throws IOException {",
+        "    Baz.Builder builder = builders.get();",
+        "    if (builder == null) {",
+        "      builder = Baz.builder();",
+        "    } else {",
+        "      builders.set(null);",
+        "    }",
+        "    try {",
+        "      in.beginObject();",
+        "      while (in.hasNext()) {",
+        "        switch (in.nextName()) {",
+        "          case \"name\":",
+        "            builder.name(in.nextString());",
+        "            break;",
+        "          case \"count\":",
+        "            builder.count(in.nextInt());",
+        "            break;",
+        "        }",
+        "      }",
+        "      in.endObject();",
+        "      return builder.build();",
+        "    } finally {",
+        "      builder.reset();",
+        "      builders.set(builder);",
+        "    }",
+        "  }",
+        "}");
+    assertAbout(javaSource())
+        .that(javaFileObject)
+        .processedWith(new AutoParcelProcessor(), new AutoAdapterProcessor())
+        .compilesWithoutError()
+        .and()
+        .generatesSources(expectedOutput);
+  }
+
+  public void testAbsentOptionalPropertyLeftOut() throws Exception {
+    JavaFileObject javaFileObject = JavaFileObjects.forSourceLines(
+        "foo.bar.Baz",
+        "package foo.bar;",
+        "",
+        "import auto.parcel.AutoAdapter;",
+        "import auto.parcel.AutoParcel;",
+        "",
+        "@AutoParcel",
+        "@AutoAdapter",
+        "public abstract class Baz {",
+        "  public abstract String name();",
+        "  public abstract int count();",
+        "  public abstract boolean hasCount();",
+        "",
+        "  public static Builder builder() {",
+        "    return new AutoParcel_Baz.Builder();",
+        "  }",
+        "",
+        "  @AutoParcel.Builder",
+        "  public interface Builder {",
+        "    Builder name(String name);",
+        "    Builder count(int count);",
+        "    Baz build();",
+        "  }",
+        "}");
+    JavaFileObject expectedOutput = JavaFileObjects.forSourceLines(
+        "foo.bar.AutoAdapter_Baz",
+        "package foo.bar;",
+        "",
+        "import com.google.gson.TypeAdapter;",
+        "import com.google.gson.stream.JsonReader;",
+        "import com.google.gson.stream.JsonWriter;",
+        "import java.io.IOException;",
+        "import java.lang.Override;",
+        "",
+        "/**",
+        " * AutoGenerated by AutoAdapter",
+        " */",
+        "public final class AutoAdapter_Baz extends TypeAdapter<Baz> {",
+        "  @Override",
+        "  public void write(JsonWriter out, Baz value) throws IOException {",
+        "    out.beginObject();",
+        "    out.name(\"name\").value(value.name());",
+        "    if (value.hasCount()) {",
+        "      out.name(\"count\").value(value.count());",
+        "    }",
+        "    out.endObject();",
+        "  }",
+        "",
+        "  @Override",
+        "  public Baz read(JsonReader in) throws IOException {",
+        "    Baz.Builder builder = Baz.builder();",
+        "    in.beginObject();",
+        "    while (in.hasNext()) {",
+        "      switch (in.nextName()) {",
+        "        case \"name\":",
+        "          builder.name(in.nextString());",
+        "          break;",
+        "        case \"count\":",
+        "          builder.count(in.nextInt());",
+        "          break;",
+        "      }",
+        "    }",
+        "    in.endObject();",
+        "    return builder.build();",
+        "  }",
+        "}");
+    assertAbout(javaSource())
+        .that(javaFileObject)
+        .processedWith(new AutoParcelProcessor(), new AutoAdapterProcessor())
+        .compilesWithoutError()
+        .and()
+        .generatesSources(expectedOutput);
+  }
+
+  public void testPropertyCodec() throws Exception {
+    JavaFileObject javaFileObject = JavaFileObjects.forSourceLines(
+        "foo.bar.Baz",
+        "package foo.bar;",
+        "",
+        "import auto.parcel.AutoAdapter;",
+        "import auto.parcel.AutoParcel;",
+        "import auto.parcel.PropertyCodec;",
+        "import com.google.gson.stream.JsonReader;",
+        "import com.google.gson.stream.JsonWriter;",
+        "import java.io.IOException;",
+        "import javax.annotation.Nullable;",
+        "",
+        "@AutoParcel",
+        "@AutoAdapter",
+        "public abstract class Baz {",
+        "  @PropertyCodec(CentsCodec.class)",
+        "  public abstract Cents price();",
+        "  @PropertyCodec(CentsCodec.class)",
+        "  @Nullable public abstract Cents discount();",
+        "",
+        "  public static Builder builder() {",
+        "    return new AutoParcel_Baz.Builder();",
+        "  }",
+        "",
+        "  @AutoParcel.Builder",
+        "  public interface Builder {",
+        "    Builder price(Cents price);",
+        "    Builder discount(Cents discount);",
+        "    Baz build();",
+        "  }",
+        "",
+        "  public static final class Cents {",
+        "    final long value;",
+        "",
+        "    Cents(long value) {",
+        "      this.value = value;",
+        "    }",
+        "  }",
+        "",
+        "  static final class CentsCodec {",
+        "    static void write(JsonWriter out, Cents cents) throws IOException {",
+        "      out.value(cents.value);",
+        "    }",
+        "",
+        "    static Cents read(JsonReader in) throws IOException {",
+        "      return new Cents(in.nextLong());",
+        "    }",
+        "  }",
+        "}");
+    JavaFileObject expectedOutput = JavaFileObjects.forSourceLines(
+        "foo.bar.AutoAdapter_Baz",
+        "package foo.bar;",
+        "",
+        "import com.google.gson.TypeAdapter;",
+        "import com.google.gson.stream.JsonReader;",
+        "import com.google.gson.stream.JsonToken;",
+        "import com.google.gson.stream.JsonWriter;",
+        "import java.io.IOException;",
+        "import java.lang.Override;",
+        "",
+        "/**",
+        " * AutoGenerated by AutoAdapter",
+        " */",
+        "public final class AutoAdapter_Baz extends TypeAdapter<Baz> {",
+        "  @Override",
+        "  public void write(JsonWriter out, Baz value) throws IOException {",
+        "    out.beginObject();",
+        "    out.name(\"price\");",
+        "    if (value.price() == null) {",
+        "      out.nullValue();",
+        "    } else {",
+        "      Baz.CentsCodec.write(out, value.price());",
+        "    }",
+        "    out.name(\"discount\");",
+        "    if (value.discount() == null) {",
+        "      out.nullValue();",
+        "    } else {",
+        "      Baz.CentsCodec.write(out, value.discount());",
+        "    }",
+        "    out.endObject();",
+        "  }",
+        "",
+        "  @Override",
+        "  public Baz read(JsonReader in) throws IOException {",
+        "    Baz.Builder builder = Baz.builder();",
+        "    in.beginObject();",
+        "    while (in.hasNext()) {",
+        "      switch (in.nextName()) {",
+        "        case \"price\":",
+        "          if (in.peek() == JsonToken.NULL) {",
+        "            in.nextNull();",
+        "          } else {",
+        "            builder.price(Baz.CentsCodec.read(in));",
+        "          }",
+        "          break;",
+        "        case \"discount\":",
+        "          if (in.peek() == JsonToken.NULL) {",
+        "            in.nextNull();",
+        "          } else {",
+        "            builder.discount(Baz.CentsCodec.read(in));",
+        "          }",
+        "          break;",
+        "      }",
+        "    }",
+        "    in.endObject();",
+        "    return builder.build();",
+        "  }",
+        "}");
+    assertAbout(javaSource())
+        .that(javaFileObject)
+        .processedWith(new AutoParcelProcessor(), new AutoAdapterProcessor())
+        .compilesWithoutError()
+        .and()
+        .generatesSources(expectedOutput);
+  }
+
+  public void testLocaleWithoutJsonForm() throws Exception {
+    JavaFileObject javaFileObject = JavaFileObjects.forSourceLines(
+        "foo.bar.Baz",
+        "package foo.bar;",
+        "",
+        "import auto.parcel.AutoAdapter;",
+        "import auto.parcel.AutoParcel;",
+        "import java.util.Locale;",
+        "",
+        "@AutoParcel",
+        "@AutoAdapter",
+        "public abstract class Baz {",
+        "  public abstract Locale locale();",
+        "",
+        "  public static Builder builder() {",
+        "    return new AutoParcel_Baz.Builder();",
+        "  }",
+        "",
+        "  @AutoParcel.Builder",
+        "  public interface Builder {",
+        "    Builder locale(Locale locale);",
+        "    Baz build();",
+        "  }",
+        "}");
+    assertAbout(javaSource())
+        .that(javaFileObject)
+        .processedWith(new AutoParcelProcessor(), new AutoAdapterProcessor())
+        .failsToCompile()
+        .withErrorContaining("locale of Baz has no JSON form, so it needs a @PropertyCodec with"
+            + " static write and read methods");
+  }
+
+  public void testPropertyCodecWithoutJsonMethods() throws Exception {
+    JavaFileObject javaFileObject = JavaFileObjects.forSourceLines(
+        "foo.bar.Baz",
+        "package foo.bar;",
+        "",
+        "import android.os.Parcel;",
+        "import auto.parcel.AutoAdapter;",
+        "import auto.parcel.AutoParcel;",
+        "import auto.parcel.PropertyCodec;",
+        "",
+        "@AutoParcel",
+        "@AutoAdapter",
+        "public abstract class Baz {",
+        "  @PropertyCodec(NameCodec.class)",
+        "  public abstract String name();",
+        "",
+        "  public static Builder builder() {",
+        "    return new AutoParcel_Baz.Builder();",
+        "  }",
+        "",
+        "  @AutoParcel.Builder",
+        "  public interface Builder {",
+        "    Builder name(String name);",
+        "    Baz build();",
+        "  }",
+        "",
+        "  static final class NameCodec {",
+        "    static void writeToParcel(String value, Parcel dest) {",
+        "      dest.writeString(value);",
+        "    }",
+        "",
+        "    static String createFromParcel(Parcel in) {",
+        "      return in.readString();",
+        "    }",
+        "  }",
+        "}");
+    assertAbout(javaSource())
+        .that(javaFileObject)
+        .processedWith(new AutoParcelProcessor(), new AutoAdapterProcessor())
+        .failsToCompile()
+        .withErrorContaining("foo.bar.Baz.NameCodec has no static write and read methods, so it"
+            + " cannot be used for name");
+  }
+
+  public void testInvalidPropertyCodec() throws Exception {
+    JavaFileObject javaFileObject = JavaFileObjects.forSourceLines(
+        "foo.bar.Baz",
+        "package foo.bar;",
+        "",
+        "import auto.parcel.AutoAdapter;",
+        "import auto.parcel.AutoParcel;",
+        "import auto.parcel.PropertyCodec;",
+        "",
+        "@AutoParcel",
+        "@AutoAdapter",
+        "public abstract class Baz {",
+        "  @PropertyCodec(NameCodec.class)",
+        "  public abstract String name();",
+        "",
+        "  public static Builder builder() {",
+        "    throw new UnsupportedOperationException();",
+        "  }",
+        "",
+        "  @AutoParcel.Builder",
+        "  public interface Builder {",
+        "    Builder name(String name);",
+        "    Baz build();",
+        "  }",
+        "",
+        "  static final class NameCodec {",
+        "  }",
+        "}");
+    assertAbout(javaSource())
+        .that(javaFileObject)
+        .processedWith(new AutoParcelProcessor(), new AutoAdapterProcessor())
+        .failsToCompile()
+        .withErrorContaining("foo.bar.Baz.NameCodec must declare static writeToParcel(T, Parcel)"
+            + " and createFromParcel(Parcel) methods, or static write(JsonWriter, T) and"
+            + " read(JsonReader) methods")
+        .in(javaFileObject).onLine(11);
+    // AutoParcelProcessor reports the errors in the annotations of an @AutoParcel class, so
+    // AutoAdapterProcessor does not report them a second time.
+    assertAbout(javaSource())
+        .that(javaFileObject)
+        .processedWith(new AutoAdapterProcessor())
+        .compilesWithoutError();
+  }
+}
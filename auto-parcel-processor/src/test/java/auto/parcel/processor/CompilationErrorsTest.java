@@ -162,6 +162,31 @@ public class CompilationErrorsTest extends TestCase {
     assertCompilationResultIs(expectedDiagnostics, ImmutableList.of(testSourceCode));
   }
 
+  public void testOptionalPropertyNote() throws Exception {
+    String testSourceCode =
+        "package foo.bar;\n" +
+        "import auto.parcel.AutoParcel;\n" +
+        "@AutoParcel\n" +
+        "public abstract class Baz {\n" +
+        "  public abstract int count();\n" +
+        "  public abstract boolean hasCount();\n" +
+        "  public static Baz create(int count) {\n" +
+        "    return new AutoParcel_Baz(count, 1);\n" +
+        "  }\n" +
+        "}\n";
+    assertCompilationSucceedsWithoutWarning(ImmutableList.of(testSourceCode));
+    List<String> notes = Lists.newArrayList();
+    for (Diagnostic<?> diagnostic : diagnosticCollector.getDiagnostics()) {
+      if (diagnostic.getKind() == Diagnostic.Kind.NOTE
+          && diagnostic.getMessage(null).startsWith("Property ")) {
+        notes.add(diagnostic.getMessage(null));
+      }
+    }
+    assertEquals(ImmutableList.of("Property count of Baz is optional because Baz declares"
+        + " hasCount(), so the generated code treats it as absent whenever hasCount() is false"),
+        notes);
+  }
+
   // We compile the test classes by writing the source out to our temporary directory and invoking
   // the compiler on them. An earlier version of this test used an in-memory JavaFileManager, but
   // that is probably overkill, and in any case led to a problem that I gave up trying to fix,
@@ -94,6 +94,10 @@ public class CompilationTest extends TestCase {
         "    if (o == this) {",
         "      return true;",
         "    }",
+        "    if (o instanceof AutoParcel_Baz) {",
+        "      AutoParcel_Baz that = (AutoParcel_Baz) o;",
+        "      return (this.buh == that.buh);",
+        "    }",
         "    if (o instanceof Baz) {",
         "      Baz that = (Baz) o;",
         "      return (this.buh == that.buh());",
@@ -182,10 +186,14 @@ public class CompilationTest extends TestCase {
         "    if (o == this) {",
         "      return true;",
         "    }",
+        "    if (o instanceof AutoParcel_Baz) {",
+        "      AutoParcel_Baz that = (AutoParcel_Baz) o;",
+        "      return (this.arrays == that.arrays || this.arrays.equals(that.arrays))",
+        "           && (Arrays.equals(this.ints, that.ints));",
+        "    }",
         "    if (o instanceof Baz) {",
         "      Baz that = (Baz) o;",
-        "      return (Arrays.equals(this.ints, (that instanceof AutoParcel_Baz) "
-                      + "? ((AutoParcel_Baz) that).ints : that.ints()))",
+        "      return (Arrays.equals(this.ints, that.ints()))",
         "          && (this.arrays.equals(that.arrays()));",
         "    }",
         "    return false;",
@@ -531,8 +539,8 @@ public class CompilationTest extends TestCase {
         "foo.bar.AutoParcel_Baz",
         "package foo.bar;",
         "",
+        "import auto.parcel.AutoParcelBuilders;",
         "import java.util.Arrays;",
-        "import java.util.BitSet;",
         "import java.util.List;",
         "",
         "final class AutoParcel_Baz<T extends Number> extends Baz<T> {",
@@ -585,15 +593,18 @@ public class CompilationTest extends TestCase {
         "    if (o == this) {",
         "      return true;",
         "    }",
+        "    if (o instanceof AutoParcel_Baz) {",
+        "      AutoParcel_Baz<?> that = (AutoParcel_Baz<?>) o;",
+        "      return (this.anInt == that.anInt)",
+        "           && (Arrays.equals(this.aByteArray, that.aByteArray))",
+        "           && (Arrays.equals(this.aNullableIntArray, that.aNullableIntArray))",
+        "           && (this.aList == that.aList || this.aList.equals(that.aList));",
+        "    }",
         "    if (o instanceof Baz) {",
         "      Baz<?> that = (Baz<?>) o;",
         "      return (this.anInt == that.anInt())",
-        "          && (Arrays.equals(this.aByteArray, "
-                    + "(that instanceof AutoParcel_Baz) "
-                        + "? ((AutoParcel_Baz) that).aByteArray : that.aByteArray()))",
-        "          && (Arrays.equals(this.aNullableIntArray, "
-                    + "(that instanceof AutoParcel_Baz) "
-                        + "? ((AutoParcel_Baz) that).aNullableIntArray : that.aNullableIntArray()))",
+        "           && (Arrays.equals(this.aByteArray, that.aByteArray()))",
+        "           && (Arrays.equals(this.aNullableIntArray, that.aNullableIntArray()))",
         "          && (this.aList.equals(that.aList()));",
         "    }",
         "    return false;",
@@ -617,7 +628,13 @@ public class CompilationTest extends TestCase {
         "  }",
         "",
         "  static final class Builder<T extends Number> implements Baz.Builder<T> {",
-        "    private final BitSet set$ = new BitSet();",
+        "    private static final String[] REQUIRED_PROPERTIES$ = {",
+        "      \"anInt\",",
+        "      \"aByteArray\",",
+        "      \"aList\",",
+        "    };",
+        "",
+        "    private int set$;",
         "",
         "    private int anInt;",
         "    private byte[] aByteArray;",
@@ -627,24 +644,25 @@ public class CompilationTest extends TestCase {
         "    Builder() {",
         "    }",
         "",
-        "    Builder(Baz<T> source) {",
-        "      anInt(source.anInt());",
-        "      aByteArray(source.aByteArray());",
-        "      aNullableIntArray(source.aNullableIntArray());",
-        "      aList(source.aList());",
+        "    Builder(AutoParcel_Baz<T> source) {",
+        "      set$ = 0x7;",
+        "      this.anInt = source.anInt;",
+        "      this.aByteArray = source.aByteArray;",
+        "      this.aNullableIntArray = source.aNullableIntArray;",
+        "      this.aList = source.aList;",
         "    }",
         "",
         "    @Override",
         "    public Baz.Builder<T> anInt(int anInt) {",
         "      this.anInt = anInt;",
-        "      set$.set(0);",
+        "      set$ |= 0x1;",
         "      return this;",
         "    }",
         "",
         "    @Override",
         "    public Baz.Builder<T> aByteArray(byte[] aByteArray) {",
         "      this.aByteArray = aByteArray.clone();",
-        "      set$.set(1);",
+        "      set$ |= 0x2;",
         "      return this;",
         "    }",
         "",
@@ -658,23 +676,14 @@ public class CompilationTest extends TestCase {
         "    @Override",
         "    public Baz.Builder<T> aList(List<T> aList) {",
         "      this.aList = aList;",
-        "      set$.set(2);",
+        "      set$ |= 0x4;",
         "      return this;",
         "    }",
         "",
         "    @Override",
         "    public Baz<T> build() {",
-        "      if (set$.cardinality() < 3) {",
-        "        String[] propertyNames = {",
-        "          \"anInt\", \"aByteArray\", \"aList\",",
-        "        };",
-        "        StringBuilder missing = new StringBuilder();",
-        "        for (int i = 0; i < 3; i++) {",
-        "          if (!set$.get(i)) {",
-        "            missing.append(' ').append(propertyNames[i]);",
-        "          }",
-        "        }",
-        "        throw new IllegalStateException(\"Missing required properties:\" + missing);",
+        "      if (set$ != 0x7) {",
+        "        throw AutoParcelBuilders.missingProperties(REQUIRED_PROPERTIES$, set$);",
         "      }",
         "      Baz<T> result = new AutoParcel_Baz<T>(",
         "          this.anInt, this.aByteArray, this.aNullableIntArray, this.aList);",
@@ -691,6 +700,3873 @@ public class CompilationTest extends TestCase {
         .generatesSources(expectedOutput);
   }
 
+  public void testBuilderReset() throws Exception {
+    JavaFileObject javaFileObject = JavaFileObjects.forSourceLines(
+        "foo.bar.Baz",
+        "package foo.bar;",
+        "",
+        "import auto.parcel.AutoParcel;",
+        "",
+        "import javax.annotation.Nullable;",
+        "",
+        "@AutoParcel",
+        "public abstract class Baz {",
+        "  public abstract int anInt();",
+        "  public abstract boolean aBoolean();",
+        "  @Nullable public abstract String aString();",
+        "",
+        "  @AutoParcel.Builder",
+        "  public interface Builder {",
+        "    Builder anInt(int x);",
+        "    Builder aBoolean(boolean x);",
+        "    Builder aString(@Nullable String x);",
+        "    Builder reset();",
+        "    Baz build();",
+        "  }",
+        "",
+        "  public static Builder builder() {",
+        "    return new AutoParcel_Baz.Builder();",
+        "  }",
+        "}");
+    JavaFileObject expectedOutput = JavaFileObjects.forSourceLines(
+        "foo.bar.AutoParcel_Baz",
+        "package foo.bar;",
+        "",
+        "import auto.parcel.AutoParcelBuilders;",
+        "",
+        "final class AutoParcel_Baz extends Baz {",
+        "",
+        "  private final int anInt;",
+        "  private final boolean aBoolean;",
+        "  private final String aString;",
+        "",
+        "  private AutoParcel_Baz(",
+        "      int anInt,",
+        "      boolean aBoolean,",
+        "      String aString) {",
+        "    this.anInt = anInt;",
+        "    this.aBoolean = aBoolean;",
+        "    this.aString = aString;",
+        "  }",
+        "",
+        "  @Override",
+        "  public int anInt() {",
+        "    return anInt;",
+        "  }",
+        "",
+        "  @Override",
+        "  public boolean aBoolean() {",
+        "    return aBoolean;",
+        "  }",
+        "",
+        "  @javax.annotation.Nullable",
+        "  @Override",
+        "  public String aString() {",
+        "    return aString;",
+        "  }",
+        "",
+        "  @Override",
+        "  public String toString() {",
+        "    return \"Baz{\"",
+        "        + \"anInt=\" + anInt + \", \"",
+        "        + \"aBoolean=\" + aBoolean + \", \"",
+        "        + \"aString=\" + aString",
+        "        + \"}\";",
+        "  }",
+        "",
+        "  @Override",
+        "  public boolean equals(Object o) {",
+        "    if (o == this) {",
+        "      return true;",
+        "    }",
+        "    if (o instanceof AutoParcel_Baz) {",
+        "      AutoParcel_Baz that = (AutoParcel_Baz) o;",
+        "      return (this.anInt == that.anInt)",
+        "           && (this.aBoolean == that.aBoolean)",
+        "           && (this.aString == that.aString || (this.aString != null &&"
+            + " this.aString.equals(that.aString)));",
+        "    }",
+        "    if (o instanceof Baz) {",
+        "      Baz that = (Baz) o;",
+        "      return (this.anInt == that.anInt())",
+        "           && (this.aBoolean == that.aBoolean())",
+        "           && ((this.aString == null) ? (that.aString() == null) :"
+            + " this.aString.equals(that.aString()));",
+        "    }",
+        "    return false;",
+        "  }",
+        "",
+        "  @Override",
+        "  public int hashCode() {",
+        "    int h = 1;",
+        "    h *= 1000003;",
+        "    h ^= anInt;",
+        "    h *= 1000003;",
+        "    h ^= aBoolean ? 1231 : 1237;",
+        "    h *= 1000003;",
+        "    h ^= (aString == null) ? 0 : aString.hashCode();",
+        "    return h;",
+        "  }",
+        "",
+        "  static final class Builder implements Baz.Builder {",
+        "    private static final String[] REQUIRED_PROPERTIES$ = {",
+        "      \"anInt\",",
+        "      \"aBoolean\",",
+        "    };",
+        "",
+        "    private int set$;",
+        "",
+        "    private int anInt;",
+        "    private boolean aBoolean;",
+        "    private String aString;",
+        "",
+        "    Builder() {",
+        "    }",
+        "",
+        "    Builder(AutoParcel_Baz source) {",
+        "      set$ = 0x3;",
+        "      this.anInt = source.anInt;",
+        "      this.aBoolean = source.aBoolean;",
+        "      this.aString = source.aString;",
+        "    }",
+        "",
+        "    @Override",
+        "    public Baz.Builder anInt(int anInt) {",
+        "      this.anInt = anInt;",
+        "      set$ |= 0x1;",
+        "      return this;",
+        "    }",
+        "",
+        "    @Override",
+        "    public Baz.Builder aBoolean(boolean aBoolean) {",
+        "      this.aBoolean = aBoolean;",
+        "      set$ |= 0x2;",
+        "      return this;",
+        "    }",
+        "",
+        "    @Override",
+        "    public Baz.Builder aString(String aString) {",
+        "      this.aString = aString;",
+        "      return this;",
+        "    }",
+        "",
+        "    @Override",
+        "    public Baz.Builder reset() {",
+        "      set$ = 0;",
+        "      this.anInt = 0;",
+        "      this.aBoolean = false;",
+        "      this.aString = null;",
+        "      return this;",
+        "    }",
+        "",
+        "    @Override",
+        "    public Baz build() {",
+        "      if (set$ != 0x3) {",
+        "        throw AutoParcelBuilders.missingProperties(REQUIRED_PROPERTIES$, set$);",
+        "      }",
+        "      Baz result = new AutoParcel_Baz(this.anInt, this.aBoolean, this.aString);",
+        "      return result;",
+        "    }",
+        "  }",
+        "}");
+    assertAbout(javaSource())
+        .that(javaFileObject)
+        .processedWith(new AutoParcelProcessor())
+        .compilesWithoutError()
+        .and()
+        .generatesSources(expectedOutput);
+  }
+
+  public void testWithers() throws Exception {
+    JavaFileObject javaFileObject = JavaFileObjects.forSourceLines(
+        "foo.bar.Baz",
+        "package foo.bar;",
+        "",
+        "import auto.parcel.AutoParcel;",
+        "",
+        "import java.util.List;",
+        "import javax.annotation.Nullable;",
+        "",
+        "@AutoParcel",
+        "public abstract class Baz<T> {",
+        "  public abstract int anInt();",
+        "  public abstract double aDouble();",
+        "  @Nullable public abstract int[] anArray();",
+        "  public abstract List<T> aList();",
+        "",
+        "  public abstract Baz<T> withAnInt(int anInt);",
+        "  public abstract Baz<T> withADouble(double aDouble);",
+        "  public abstract Baz<T> withAnArray(int[] anArray);",
+        "  abstract Baz<T> withAList(List<T> aList);",
+        "",
+        "  public static <T> Baz<T> create(int anInt, double aDouble, int[] anArray, List<T>"
+            + " aList) {",
+        "    return new AutoParcel_Baz<T>(anInt, aDouble, anArray, aList);",
+        "  }",
+        "}");
+    JavaFileObject expectedOutput = JavaFileObjects.forSourceLines(
+        "foo.bar.AutoParcel_Baz",
+        "package foo.bar;",
+        "",
+        "import java.util.Arrays;",
+        "import java.util.List;",
+        "",
+        "final class AutoParcel_Baz<T> extends Baz<T> {",
+        "",
+        "  private final int anInt;",
+        "  private final double aDouble;",
+        "  private final int[] anArray;",
+        "  private final List<T> aList;",
+        "",
+        "  AutoParcel_Baz(",
+        "      int anInt,",
+        "      double aDouble,",
+        "      int[] anArray,",
+        "      List<T> aList) {",
+        "    this.anInt = anInt;",
+        "    this.aDouble = aDouble;",
+        "    this.anArray = anArray;",
+        "    if (aList == null) {",
+        "      throw new NullPointerException(\"Null aList\");",
+        "    }",
+        "    this.aList = aList;",
+        "  }",
+        "",
+        "  @Override",
+        "  public int anInt() {",
+        "    return anInt;",
+        "  }",
+        "",
+        "  @Override",
+        "  public double aDouble() {",
+        "    return aDouble;",
+        "  }",
+        "",
+        "  @javax.annotation.Nullable",
+        "  @Override",
+        "  public int[] anArray() {",
+        "    return anArray == null ? null : anArray.clone();",
+        "  }",
+        "",
+        "  @Override",
+        "  public List<T> aList() {",
+        "    return aList;",
+        "  }",
+        "",
+        "  @Override",
+        "  public Baz<T> withAnInt(int anInt) {",
+        "    if (anInt == this.anInt) {",
+        "      return this;",
+        "    }",
+        "    Baz<T> result$ = new AutoParcel_Baz<T>(",
+        "        anInt, this.aDouble, this.anArray, this.aList);",
+        "    return result$;",
+        "  }",
+        "",
+        "  @Override",
+        "  public Baz<T> withADouble(double aDouble) {",
+        "    if (Double.doubleToLongBits(aDouble) == Double.doubleToLongBits(this.aDouble)) {",
+        "      return this;",
+        "    }",
+        "    Baz<T> result$ = new AutoParcel_Baz<T>(",
+        "        this.anInt, aDouble, this.anArray, this.aList);",
+        "    return result$;",
+        "  }",
+        "",
+        "  @Override",
+        "  public Baz<T> withAnArray(int[] anArray) {",
+        "    Baz<T> result$ = new AutoParcel_Baz<T>(",
+        "        this.anInt, this.aDouble, (anArray == null) ? null : anArray.clone(),"
+            + " this.aList);",
+        "    return result$;",
+        "  }",
+        "",
+        "  @Override",
+        "  Baz<T> withAList(List<T> aList) {",
+        "    if (aList == this.aList) {",
+        "      return this;",
+        "    }",
+        "    Baz<T> result$ = new AutoParcel_Baz<T>(",
+        "        this.anInt, this.aDouble, this.anArray, aList);",
+        "    return result$;",
+        "  }",
+        "",
+        "  @Override",
+        "  public String toString() {",
+        "    return \"Baz{\"",
+        "        + \"anInt=\" + anInt + \", \"",
+        "        + \"aDouble=\" + aDouble + \", \"",
+        "        + \"anArray=\" + Arrays.toString(anArray) + \", \"",
+        "        + \"aList=\" + aList",
+        "        + \"}\";",
+        "  }",
+        "",
+        "  @Override",
+        "  public boolean equals(Object o) {",
+        "    if (o == this) {",
+        "      return true;",
+        "    }",
+        "    if (o instanceof AutoParcel_Baz) {",
+        "      AutoParcel_Baz<?> that = (AutoParcel_Baz<?>) o;",
+        "      return (this.anInt == that.anInt)",
+        "           && (Double.doubleToLongBits(this.aDouble) =="
+            + " Double.doubleToLongBits(that.aDouble))",
+        "           && (Arrays.equals(this.anArray, that.anArray))",
+        "           && (this.aList == that.aList || this.aList.equals(that.aList));",
+        "    }",
+        "    if (o instanceof Baz) {",
+        "      Baz<?> that = (Baz<?>) o;",
+        "      return (this.anInt == that.anInt())",
+        "           && (Double.doubleToLongBits(this.aDouble) =="
+            + " Double.doubleToLongBits(that.aDouble()))",
+        "           && (Arrays.equals(this.anArray, that.anArray()))",
+        "           && (this.aList.equals(that.aList()));",
+        "    }",
+        "    return false;",
+        "  }",
+        "",
+        "  @Override",
+        "  public int hashCode() {",
+        "    int h = 1;",
+        "    h *= 1000003;",
+        "    h ^= anInt;",
+        "    h *= 1000003;",
+        "    h ^= (Double.doubleToLongBits(aDouble) >>> 32) ^ Double.doubleToLongBits(aDouble);",
+        "    h *= 1000003;",
+        "    h ^= Arrays.hashCode(anArray);",
+        "    h *= 1000003;",
+        "    h ^= aList.hashCode();",
+        "    return h;",
+        "  }",
+        "",
+        "}");
+    assertAbout(javaSource())
+        .that(javaFileObject)
+        .processedWith(new AutoParcelProcessor())
+        .compilesWithoutError()
+        .and()
+        .generatesSources(expectedOutput);
+  }
+
+  public void testWithersOfPropertiesNamedLikeLocals() throws Exception {
+    JavaFileObject javaFileObject = JavaFileObjects.forSourceLines(
+        "foo.bar.Baz",
+        "package foo.bar;",
+        "",
+        "import auto.parcel.AutoParcel;",
+        "",
+        "@AutoParcel",
+        "public abstract class Baz {",
+        "  public abstract int result();",
+        "  public abstract String builder();",
+        "",
+        "  public abstract Baz withResult(int result);",
+        "  public abstract Baz withBuilder(String builder);",
+        "}");
+    assertAbout(javaSource())
+        .that(javaFileObject)
+        .processedWith(new AutoParcelProcessor())
+        .compilesWithoutError();
+  }
+
+  public void testWithersOfWideClassWithPropertyNamedBuilder() throws Exception {
+    ImmutableList.Builder<String> lines = ImmutableList.builder();
+    lines.add(
+        "package foo.bar;",
+        "",
+        "import auto.parcel.AutoParcel;",
+        "",
+        "@AutoParcel",
+        "public abstract class Baz {",
+        "  public abstract long builder();",
+        "  public abstract Baz withBuilder(long builder);");
+    for (int i = 0; i < 70; i++) {
+      lines.add("  public abstract long long" + i + "();");
+    }
+    lines.add(
+        "  @AutoParcel.Builder",
+        "  public interface Builder {",
+        "    Builder builder(long x);");
+    for (int i = 0; i < 70; i++) {
+      lines.add("    Builder long" + i + "(long x);");
+    }
+    lines.add("    Baz build();", "  }", "}");
+    assertAbout(javaSource())
+        .that(JavaFileObjects.forSourceLines("foo.bar.Baz", lines.build()))
+        .processedWith(new AutoParcelProcessor())
+        .compilesWithoutError();
+  }
+
+  public void testWitherWithoutProperty() throws Exception {
+    JavaFileObject javaFileObject = JavaFileObjects.forSourceLines(
+        "foo.bar.Baz",
+        "package foo.bar;",
+        "",
+        "import auto.parcel.AutoParcel;",
+        "",
+        "@AutoParcel",
+        "public abstract class Baz {",
+        "  public abstract int anInt();",
+        "",
+        "  public abstract Baz withALong(long aLong);",
+        "}");
+    assertAbout(javaSource())
+        .that(javaFileObject)
+        .processedWith(new AutoParcelProcessor())
+        .failsToCompile()
+        .withErrorContaining("Method does not correspond to a property of foo.bar.Baz")
+        .in(javaFileObject).onLine(9);
+  }
+
+  public void testSharedArrays() throws Exception {
+    JavaFileObject javaFileObject = JavaFileObjects.forSourceLines(
+        "foo.bar.Baz",
+        "package foo.bar;",
+        "",
+        "import auto.parcel.AutoParcel;",
+        "import javax.annotation.Nullable;",
+        "",
+        "@AutoParcel",
+        "public abstract class Baz {",
+        "  @AutoParcel.SharedArrays",
+        "  public abstract double[] coordinates();",
+        "  @Nullable public abstract int[] tags();",
+        "",
+        "  public abstract double coordinatesAt(int index);",
+        "  public abstract int coordinatesLength();",
+        "  abstract int tagsAt(int index);",
+        "",
+        "  public abstract Baz withCoordinates(double[] coordinates);",
+        "  public abstract Builder toBuilder();",
+        "",
+        "  public static Builder builder() {",
+        "    return new AutoParcel_Baz.Builder();",
+        "  }",
+        "",
+        "  @AutoParcel.Builder",
+        "  public interface Builder {",
+        "    Builder coordinates(double[] x);",
+        "    Builder tags(int[] x);",
+        "    Baz build();",
+        "  }",
+        "}");
+    JavaFileObject expectedOutput = JavaFileObjects.forSourceLines(
+        "foo.bar.AutoParcel_Baz",
+        "package foo.bar;",
+        "",
+        "import auto.parcel.AutoParcelBuilders;",
+        "import java.util.Arrays;",
+        "",
+        "final class AutoParcel_Baz extends Baz {",
+        "",
+        "  private final double[] coordinates;",
+        "  private final int[] tags;",
+        "",
+        "  private AutoParcel_Baz(",
+        "      double[] coordinates,",
+        "      int[] tags) {",
+        "    if (coordinates == null) {",
+        "      throw new NullPointerException(\"Null coordinates\");",
+        "    }",
+        "    this.coordinates = coordinates;",
+        "    this.tags = tags;",
+        "  }",
+        "",
+        "  @auto.parcel.AutoParcel.SharedArrays",
+        "  @Override",
+        "  public double[] coordinates() {",
+        "    return coordinates;",
+        "  }",
+        "",
+        "  @javax.annotation.Nullable",
+        "  @Override",
+        "  public int[] tags() {",
+        "    return tags == null ? null : tags.clone();",
+        "  }",
+        "",
+        "  @Override",
+        "  public double coordinatesAt(int index) {",
+        "    return coordinates[index];",
+        "  }",
+        "",
+        "  @Override",
+        "  public int coordinatesLength() {",
+        "    return coordinates.length;",
+        "  }",
+        "",
+        "  @Override",
+        "  int tagsAt(int index) {",
+        "    return tags[index];",
+        "  }",
+        "",
+        "  @Override",
+        "  public Baz withCoordinates(double[] coordinates) {",
+        "    if (coordinates == this.coordinates) {",
+        "      return this;",
+        "    }",
+        "    Baz result$ = new AutoParcel_Baz(",
+        "        coordinates, this.tags);",
+        "    return result$;",
+        "  }",
+        "",
+        "  @Override",
+        "  public String toString() {",
+        "    return \"Baz{\"",
+        "        + \"coordinates=\" + Arrays.toString(coordinates) + \", \"",
+        "        + \"tags=\" + Arrays.toString(tags)",
+        "        + \"}\";",
+        "  }",
+        "",
+        "  @Override",
+        "  public boolean equals(Object o) {",
+        "    if (o == this) {",
+        "      return true;",
+        "    }",
+        "    if (o instanceof AutoParcel_Baz) {",
+        "      AutoParcel_Baz that = (AutoParcel_Baz) o;",
+        "      return (Arrays.equals(this.coordinates, that.coordinates))",
+        "           && (Arrays.equals(this.tags, that.tags));",
+        "    }",
+        "    if (o instanceof Baz) {",
+        "      Baz that = (Baz) o;",
+        "      return (Arrays.equals(this.coordinates, that.coordinates()))",
+        "           && (Arrays.equals(this.tags, that.tags()));",
+        "    }",
+        "    return false;",
+        "  }",
+        "",
+        "  @Override",
+        "  public int hashCode() {",
+        "    int h = 1;",
+        "    h *= 1000003;",
+        "    h ^= Arrays.hashCode(coordinates);",
+        "    h *= 1000003;",
+        "    h ^= Arrays.hashCode(tags);",
+        "    return h;",
+        "  }",
+        "",
+        "  @Override",
+        "  public Baz.Builder toBuilder() {",
+        "    return new Builder(this);",
+        "  }",
+        "",
+        "  static final class Builder implements Baz.Builder {",
+        "    private static final String[] REQUIRED_PROPERTIES$ = {",
+        "      \"coordinates\",",
+        "    };",
+        "    private int set$;",
+        "    private double[] coordinates;",
+        "    private int[] tags;",
+        "    Builder() {",
+        "    }",
+        "    Builder(AutoParcel_Baz source) {",
+        "      set$ = 0x1;",
+        "      this.coordinates = source.coordinates;",
+        "      this.tags = source.tags;",
+        "    }",
+        "    @Override",
+        "    public Baz.Builder coordinates(double[] coordinates) {",
+        "      this.coordinates = coordinates;",
+        "      set$ |= 0x1;",
+        "      return this;",
+        "    }",
+        "    @Override",
+        "    public Baz.Builder tags(int[] tags) {",
+        "      this.tags = (tags == null) ? null : tags.clone();",
+        "      return this;",
+        "    }",
+        "    @Override",
+        "    public Baz build() {",
+        "      if (set$ != 0x1) {",
+        "        throw AutoParcelBuilders.missingProperties(REQUIRED_PROPERTIES$,",
+        "                set$);",
+        "      }",
+        "      Baz result = new AutoParcel_Baz(",
+        "          this.coordinates,",
+        "          this.tags);",
+        "      return result;",
+        "    }",
+        "  }",
+        "}");
+    assertAbout(javaSource())
+        .that(javaFileObject)
+        .processedWith(new AutoParcelProcessor())
+        .compilesWithoutError()
+        .and()
+        .generatesSources(expectedOutput);
+  }
+
+  public void testSharedArraysOnNonArrayProperty() throws Exception {
+    JavaFileObject javaFileObject = JavaFileObjects.forSourceLines(
+        "foo.bar.Baz",
+        "package foo.bar;",
+        "",
+        "import auto.parcel.AutoParcel;",
+        "",
+        "@AutoParcel",
+        "public abstract class Baz {",
+        "  @AutoParcel.SharedArrays",
+        "  public abstract int anInt();",
+        "}");
+    assertAbout(javaSource())
+        .that(javaFileObject)
+        .processedWith(new AutoParcelProcessor())
+        .failsToCompile()
+        .withErrorContaining("@AutoParcel.SharedArrays can only apply to an array property")
+        .in(javaFileObject).onLine(8);
+  }
+
+  public void testCacheHashCode() throws Exception {
+    JavaFileObject javaFileObject = JavaFileObjects.forSourceLines(
+        "foo.bar.Baz",
+        "package foo.bar;",
+        "",
+        "import auto.parcel.AutoParcel;",
+        "",
+        "import java.util.List;",
+        "",
+        "@AutoParcel(cacheHashCode = true)",
+        "public abstract class Baz<T> {",
+        "  public abstract int anInt();",
+        "  public abstract List<T> aList();",
+        "}");
+    JavaFileObject expectedOutput = JavaFileObjects.forSourceLines(
+        "foo.bar.AutoParcel_Baz",
+        "package foo.bar;",
+        "",
+        "import java.util.List;",
+        "",
+        "final class AutoParcel_Baz<T> extends Baz<T> {",
+        "",
+        "  private final int anInt;",
+        "  private final List<T> aList;",
+        "",
+        "  private transient int hashCode$;",
+        "",
+        "  AutoParcel_Baz(",
+        "      int anInt,",
+        "      List<T> aList) {",
+        "    this.anInt = anInt;",
+        "    if (aList == null) {",
+        "      throw new NullPointerException(\"Null aList\");",
+        "    }",
+        "    this.aList = aList;",
+        "  }",
+        "",
+        "  @Override",
+        "  public int anInt() {",
+        "    return anInt;",
+        "  }",
+        "",
+        "  @Override",
+        "  public List<T> aList() {",
+        "    return aList;",
+        "  }",
+        "",
+        "  @Override",
+        "  public String toString() {",
+        "    return \"Baz{\"",
+        "        + \"anInt=\" + anInt + \", \"",
+        "        + \"aList=\" + aList",
+        "        + \"}\";",
+        "  }",
+        "",
+        "  @Override",
+        "  public boolean equals(Object o) {",
+        "    if (o == this) {",
+        "      return true;",
+        "    }",
+        "    if (o instanceof AutoParcel_Baz) {",
+        "      AutoParcel_Baz<?> that = (AutoParcel_Baz<?>) o;",
+        "      if (hashCode$ != 0 && that.hashCode$ != 0 && hashCode$ != that.hashCode$) {",
+        "        return false;",
+        "      }",
+        "      return (this.anInt == that.anInt)",
+        "           && (this.aList == that.aList || this.aList.equals(that.aList));",
+        "    }",
+        "    if (o instanceof Baz) {",
+        "      Baz<?> that = (Baz<?>) o;",
+        "      return (this.anInt == that.anInt())",
+        "           && (this.aList.equals(that.aList()));",
+        "    }",
+        "    return false;",
+        "  }",
+        "",
+        "  @Override",
+        "  public int hashCode() {",
+        "    int h = hashCode$;",
+        "    if (h != 0) {",
+        "      return h;",
+        "    }",
+        "    h = 1;",
+        "    h *= 1000003;",
+        "    h ^= anInt;",
+        "    h *= 1000003;",
+        "    h ^= aList.hashCode();",
+        "    hashCode$ = h;",
+        "    return h;",
+        "  }",
+        "",
+        "}");
+    assertAbout(javaSource())
+        .that(javaFileObject)
+        .processedWith(new AutoParcelProcessor())
+        .compilesWithoutError()
+        .and()
+        .generatesSources(expectedOutput);
+  }
+
+  public void testIntern() throws Exception {
+    JavaFileObject javaFileObject = JavaFileObjects.forSourceLines(
+        "foo.bar.Baz",
+        "package foo.bar;",
+        "",
+        "import auto.parcel.AutoParcel;",
+        "",
+        "import java.util.List;",
+        "",
+        "@AutoParcel(intern = true)",
+        "public abstract class Baz<T> {",
+        "  public abstract int anInt();",
+        "  public abstract List<T> aList();",
+        "",
+        "  public abstract Baz<T> withAnInt(int anInt);",
+        "",
+        "  @AutoParcel.Builder",
+        "  public interface Builder<T> {",
+        "    Builder<T> anInt(int x);",
+        "    Builder<T> aList(List<T> x);",
+        "    Baz<T> build();",
+        "  }",
+        "",
+        "  public static <T> Builder<T> builder() {",
+        "    return new AutoParcel_Baz.Builder<T>();",
+        "  }",
+        "}");
+    JavaFileObject expectedOutput = JavaFileObjects.forSourceLines(
+        "foo.bar.AutoParcel_Baz",
+        "package foo.bar;",
+        "",
+        "import auto.parcel.AutoParcelBuilders;",
+        "import auto.parcel.AutoParcelInterner;",
+        "import java.util.List;",
+        "",
+        "final class AutoParcel_Baz<T> extends Baz<T> {",
+        "",
+        "  private final int anInt;",
+        "  private final List<T> aList;",
+        "",
+        "  private static final AutoParcelInterner<AutoParcel_Baz<?>> INTERNER =",
+        "      new AutoParcelInterner<AutoParcel_Baz<?>>();",
+        "",
+        "  private AutoParcel_Baz(",
+        "      int anInt,",
+        "      List<T> aList) {",
+        "    this.anInt = anInt;",
+        "    if (aList == null) {",
+        "      throw new NullPointerException(\"Null aList\");",
+        "    }",
+        "    this.aList = aList;",
+        "  }",
+        "",
+        "  @SuppressWarnings(\"unchecked\")",
+        "  static <T> AutoParcel_Baz<T> intern(AutoParcel_Baz<T> value) {",
+        "    return (AutoParcel_Baz<T>) INTERNER.intern(value);",
+        "  }",
+        "",
+        "  @Override",
+        "  public int anInt() {",
+        "    return anInt;",
+        "  }",
+        "",
+        "  @Override",
+        "  public List<T> aList() {",
+        "    return aList;",
+        "  }",
+        "",
+        "  @Override",
+        "  public Baz<T> withAnInt(int anInt) {",
+        "    if (anInt == this.anInt) {",
+        "      return this;",
+        "    }",
+        "    AutoParcel_Baz<T> result$ = new AutoParcel_Baz<T>(",
+        "        anInt, this.aList);",
+        "    return intern(result$);",
+        "  }",
+        "",
+        "  @Override",
+        "  public String toString() {",
+        "    return \"Baz{\"",
+        "        + \"anInt=\" + anInt + \", \"",
+        "        + \"aList=\" + aList",
+        "        + \"}\";",
+        "  }",
+        "",
+        "  @Override",
+        "  public boolean equals(Object o) {",
+        "    if (o == this) {",
+        "      return true;",
+        "    }",
+        "    if (o instanceof AutoParcel_Baz) {",
+        "      AutoParcel_Baz<?> that = (AutoParcel_Baz<?>) o;",
+        "      return (this.anInt == that.anInt)",
+        "           && (this.aList == that.aList || this.aList.equals(that.aList));",
+        "    }",
+        "    if (o instanceof Baz) {",
+        "      Baz<?> that = (Baz<?>) o;",
+        "      return (this.anInt == that.anInt())",
+        "           && (this.aList.equals(that.aList()));",
+        "    }",
+        "    return false;",
+        "  }",
+        "",
+        "  @Override",
+        "  public int hashCode() {",
+        "    int h = 1;",
+        "    h *= 1000003;",
+        "    h ^= anInt;",
+        "    h *= 1000003;",
+        "    h ^= aList.hashCode();",
+        "    return h;",
+        "  }",
+        "",
+        "  static final class Builder<T> implements Baz.Builder<T> {",
+        "    private static final String[] REQUIRED_PROPERTIES$ = {",
+        "      \"anInt\",",
+        "      \"aList\",",
+        "    };",
+        "    private int set$;",
+        "    private int anInt;",
+        "    private List<T> aList;",
+        "    Builder() {",
+        "    }",
+        "    Builder(AutoParcel_Baz<T> source) {",
+        "      set$ = 0x3;",
+        "      this.anInt = source.anInt;",
+        "      this.aList = source.aList;",
+        "    }",
+        "    @Override",
+        "    public Baz.Builder<T> anInt(int anInt) {",
+        "      this.anInt = anInt;",
+        "      set$ |= 0x1;",
+        "      return this;",
+        "    }",
+        "    @Override",
+        "    public Baz.Builder<T> aList(List<T> aList) {",
+        "      this.aList = aList;",
+        "      set$ |= 0x2;",
+        "      return this;",
+        "    }",
+        "    @Override",
+        "    public Baz<T> build() {",
+        "      if (set$ != 0x3) {",
+        "        throw AutoParcelBuilders.missingProperties(REQUIRED_PROPERTIES$,",
+        "                set$);",
+        "      }",
+        "      AutoParcel_Baz<T> result = new AutoParcel_Baz<T>(",
+        "          this.anInt,",
+        "          this.aList);",
+        "      return intern(result);",
+        "    }",
+        "  }",
+        "}");
+    assertAbout(javaSource())
+        .that(javaFileObject)
+        .processedWith(new AutoParcelProcessor())
+        .compilesWithoutError()
+        .and()
+        .generatesSources(expectedOutput);
+  }
+
+  public void testInternWithoutTypeParameters() throws Exception {
+    JavaFileObject javaFileObject = JavaFileObjects.forSourceLines(
+        "foo.bar.Baz",
+        "package foo.bar;",
+        "",
+        "import auto.parcel.AutoParcel;",
+        "",
+        "@AutoParcel(intern = true)",
+        "public abstract class Baz {",
+        "  public abstract int anInt();",
+        "",
+        "  public static Baz create(int anInt) {",
+        "    return AutoParcel_Baz.intern(new AutoParcel_Baz(anInt));",
+        "  }",
+        "}");
+    JavaFileObject expectedOutput = JavaFileObjects.forSourceLines(
+        "foo.bar.gen",
+        "package foo.bar;",
+        "",
+        "import auto.parcel.AutoParcelInterner;",
+        "",
+        "final class AutoParcel_Baz extends Baz {",
+        "",
+        "  private final int anInt;",
+        "",
+        "  private static final AutoParcelInterner<AutoParcel_Baz> INTERNER =",
+        "      new AutoParcelInterner<AutoParcel_Baz>();",
+        "",
+        "  AutoParcel_Baz(",
+        "      int anInt) {",
+        "    this.anInt = anInt;",
+        "  }",
+        "",
+        "  static AutoParcel_Baz intern(AutoParcel_Baz value) {",
+        "    return INTERNER.intern(value);",
+        "  }",
+        "",
+        "  @Override",
+        "  public int anInt() {",
+        "    return anInt;",
+        "  }",
+        "",
+        "  @Override",
+        "  public String toString() {",
+        "    return \"Baz{\"",
+        "        + \"anInt=\" + anInt",
+        "        + \"}\";",
+        "  }",
+        "",
+        "  @Override",
+        "  public boolean equals(Object o) {",
+        "    if (o == this) {",
+        "      return true;",
+        "    }",
+        "    if (o instanceof AutoParcel_Baz) {",
+        "      AutoParcel_Baz that = (AutoParcel_Baz) o;",
+        "      return (this.anInt == that.anInt);",
+        "    }",
+        "    if (o instanceof Baz) {",
+        "      Baz that = (Baz) o;",
+        "      return (this.anInt == that.anInt());",
+        "    }",
+        "    return false;",
+        "  }",
+        "",
+        "  @Override",
+        "  public int hashCode() {",
+        "    int h = 1;",
+        "    h *= 1000003;",
+        "    h ^= anInt;",
+        "    return h;",
+        "  }",
+        "",
+        "}");
+    assertAbout(javaSource())
+        .that(javaFileObject)
+        .processedWith(new AutoParcelProcessor())
+        .compilesWithoutError()
+        .and()
+        .generatesSources(expectedOutput);
+  }
+
+  public void testPacked() throws Exception {
+    JavaFileObject javaFileObject = JavaFileObjects.forSourceLines(
+        "foo.bar.Baz",
+        "package foo.bar;",
+        "",
+        "import auto.parcel.AutoParcel;",
+        "",
+        "import javax.annotation.Nullable;",
+        "",
+        "@AutoParcel(packed = true)",
+        "public abstract class Baz {",
+        "  public enum Size { SMALL, MEDIUM, LARGE }",
+        "",
+        "  public abstract boolean visible();",
+        "  public abstract String name();",
+        "  public abstract Size size();",
+        "  @Nullable public abstract Size maxSize();",
+        "  public abstract boolean enabled();",
+        "",
+        "  public abstract Baz withEnabled(boolean enabled);",
+        "",
+        "  public static Baz create(",
+        "      boolean visible, String name, Size size, Size maxSize, boolean enabled) {",
+        "    return new AutoParcel_Baz(visible, name, size, maxSize, enabled);",
+        "  }",
+        "}");
+    JavaFileObject expectedOutput = JavaFileObjects.forSourceLines(
+        "foo.bar.gen",
+        "package foo.bar;",
+        "",
+        "final class AutoParcel_Baz extends Baz {",
+        "",
+        "  private final String name;",
+        "  private final int bits$;",
+        "  private static final Baz.Size[] SIZE_VALUES = Baz.Size.values();",
+        "",
+        "  AutoParcel_Baz(",
+        "      boolean visible,",
+        "      String name,",
+        "      Baz.Size size,",
+        "      Baz.Size maxSize,",
+        "      boolean enabled) {",
+        "    if (name == null) {",
+        "      throw new NullPointerException(\"Null name\");",
+        "    }",
+        "    this.name = name;",
+        "    if (size == null) {",
+        "      throw new NullPointerException(\"Null size\");",
+        "    }",
+        "    this.bits$ = (visible ? 0x1 : 0)",
+        "        | (size.ordinal() << 1)",
+        "        | ((maxSize == null ? 0 : maxSize.ordinal() + 1) << 3)",
+        "        | (enabled ? 0x20 : 0);",
+        "  }",
+        "",
+        "  @Override",
+        "  public boolean visible() {",
+        "    return (bits$ & 0x1) != 0;",
+        "  }",
+        "",
+        "  @Override",
+        "  public String name() {",
+        "    return name;",
+        "  }",
+        "",
+        "  @Override",
+        "  public Baz.Size size() {",
+        "    return SIZE_VALUES[(bits$ >>> 1) & 0x3];",
+        "  }",
+        "",
+        "  @javax.annotation.Nullable",
+        "  @Override",
+        "  public Baz.Size maxSize() {",
+        "    int code = (bits$ >>> 3) & 0x3;",
+        "    return code == 0 ? null : SIZE_VALUES[code - 1];",
+        "  }",
+        "",
+        "  @Override",
+        "  public boolean enabled() {",
+        "    return (bits$ & 0x20) != 0;",
+        "  }",
+        "",
+        "  @Override",
+        "  public Baz withEnabled(boolean enabled) {",
+        "    if (enabled == this.enabled()) {",
+        "      return this;",
+        "    }",
+        "    Baz result$ = new AutoParcel_Baz(",
+        "        this.visible(), this.name, this.size(), this.maxSize(), enabled);",
+        "    return result$;",
+        "  }",
+        "",
+        "  @Override",
+        "  public String toString() {",
+        "    return \"Baz{\"",
+        "        + \"visible=\" + visible() + \", \"",
+        "        + \"name=\" + name + \", \"",
+        "        + \"size=\" + size() + \", \"",
+        "        + \"maxSize=\" + maxSize() + \", \"",
+        "        + \"enabled=\" + enabled()",
+        "        + \"}\";",
+        "  }",
+        "",
+        "  @Override",
+        "  public boolean equals(Object o) {",
+        "    if (o == this) {",
+        "      return true;",
+        "    }",
+        "    if (o instanceof AutoParcel_Baz) {",
+        "      AutoParcel_Baz that = (AutoParcel_Baz) o;",
+        "      return (this.bits$ == that.bits$)",
+        "           && (this.name == that.name || this.name.equals(that.name));",
+        "    }",
+        "    if (o instanceof Baz) {",
+        "      Baz that = (Baz) o;",
+        "      return (this.visible() == that.visible())",
+        "           && (this.name.equals(that.name()))",
+        "           && (this.size() == that.size())",
+        "           && (this.maxSize() == that.maxSize())",
+        "           && (this.enabled() == that.enabled());",
+        "    }",
+        "    return false;",
+        "  }",
+        "",
+        "  @Override",
+        "  public int hashCode() {",
+        "    int h = 1;",
+        "    h *= 1000003;",
+        "    h ^= name.hashCode();",
+        "    h *= 1000003;",
+        "    h ^= bits$;",
+        "    return h;",
+        "  }",
+        "",
+        "}");
+    assertAbout(javaSource())
+        .that(javaFileObject)
+        .processedWith(new AutoParcelProcessor())
+        .compilesWithoutError()
+        .and()
+        .generatesSources(expectedOutput);
+  }
+
+  public void testPackedEnumSharesValuesWithParcelCode() throws Exception {
+    JavaFileObject javaFileObject = JavaFileObjects.forSourceLines(
+        "foo.bar.Baz",
+        "package foo.bar;",
+        "",
+        "import android.os.Parcelable;",
+        "import auto.parcel.AutoParcel;",
+        "",
+        "import java.util.List;",
+        "",
+        "@AutoParcel(packed = true)",
+        "public abstract class Baz implements Parcelable {",
+        "  public enum Size { SMALL, MEDIUM, LARGE }",
+        "",
+        "  public abstract Size size();",
+        "  public abstract List<Size> sizes();",
+        "",
+        "  public static Baz create(Size size, List<Size> sizes) {",
+        "    return new AutoParcel_Baz(size, sizes);",
+        "  }",
+        "}");
+    JavaFileObject expectedOutput = JavaFileObjects.forSourceLines(
+        "foo.bar.AutoParcel_Baz",
+        "package foo.bar;",
+        "",
+        "import java.util.List;",
+        "",
+        "final class AutoParcel_Baz extends Baz {",
+        "",
+        "  private final List<Baz.Size> sizes;",
+        "  private final int bits$;",
+        "  private static final Baz.Size[] SIZE_VALUES = Baz.Size.values();",
+        "",
+        "  AutoParcel_Baz(",
+        "      Baz.Size size,",
+        "      List<Baz.Size> sizes) {",
+        "    if (size == null) {",
+        "      throw new NullPointerException(\"Null size\");",
+        "    }",
+        "    if (sizes == null) {",
+        "      throw new NullPointerException(\"Null sizes\");",
+        "    }",
+        "    this.sizes = sizes;",
+        "    this.bits$ = (size.ordinal());",
+        "  }",
+        "",
+        "  @Override",
+        "  public Baz.Size size() {",
+        "    return SIZE_VALUES[bits$ & 0x3];",
+        "  }",
+        "",
+        "  @Override",
+        "  public List<Baz.Size> sizes() {",
+        "    return sizes;",
+        "  }",
+        "",
+        "  @Override",
+        "  public String toString() {",
+        "    return \"Baz{\"",
+        "        + \"size=\" + size() + \", \"",
+        "        + \"sizes=\" + sizes",
+        "        + \"}\";",
+        "  }",
+        "",
+        "  @Override",
+        "  public boolean equals(Object o) {",
+        "    if (o == this) {",
+        "      return true;",
+        "    }",
+        "    if (o instanceof AutoParcel_Baz) {",
+        "      AutoParcel_Baz that = (AutoParcel_Baz) o;",
+        "      return (this.bits$ == that.bits$)",
+        "           && (this.sizes == that.sizes || this.sizes.equals(that.sizes));",
+        "    }",
+        "    if (o instanceof Baz) {",
+        "      Baz that = (Baz) o;",
+        "      return (this.size() == that.size())",
+        "           && (this.sizes.equals(that.sizes()));",
+        "    }",
+        "    return false;",
+        "  }",
+        "",
+        "  @Override",
+        "  public int hashCode() {",
+        "    int h = 1;",
+        "    h *= 1000003;",
+        "    h ^= sizes.hashCode();",
+        "    h *= 1000003;",
+        "    h ^= bits$;",
+        "    return h;",
+        "  }",
+        "",
+        "  public static final android.os.Parcelable.Creator<AutoParcel_Baz> CREATOR = new"
+            + " android.os.Parcelable.Creator<AutoParcel_Baz>() {",
+        "    @Override",
+        "    public AutoParcel_Baz createFromParcel(android.os.Parcel in) {",
+        "      return new AutoParcel_Baz(in);",
+        "    }",
+        "    @Override",
+        "    public AutoParcel_Baz[] newArray(int size) {",
+        "      return new AutoParcel_Baz[size];",
+        "    }",
+        "  };",
+        "",
+        "  private final static java.lang.ClassLoader CL = AutoParcel_Baz.class.getClassLoader();",
+        "",
+        "  private AutoParcel_Baz(android.os.Parcel in) {",
+        "    this.bits$ = in.readInt();",
+        "    int size$0 = in.readInt();",
+        "    List<Baz.Size> collection$1 = new java.util.ArrayList<Baz.Size>(size$0);",
+        "    for (int i$2 = 0; i$2 < size$0; i$2++) {",
+        "      collection$1.add(in.readInt() == 0 ? null : SIZE_VALUES[in.readInt()]);",
+        "    }",
+        "    this.sizes = collection$1;",
+        "  }",
+        "",
+        "  @Override",
+        "  public void writeToParcel(android.os.Parcel dest, int flags) {",
+        "    dest.writeInt(bits$);",
+        "    dest.writeInt(sizes.size());",
+        "    for (Baz.Size element$0 : sizes) {",
+        "      if (element$0 == null) {",
+        "        dest.writeInt(0);",
+        "      } else {",
+        "        dest.writeInt(1);",
+        "        dest.writeInt(element$0.ordinal());",
+        "      }",
+        "    }",
+        "  }",
+        "",
+        "  @Override",
+        "  public int describeContents() {",
+        "    return 0;",
+        "  }",
+        "",
+        "}");
+    assertAbout(javaSource())
+        .that(javaFileObject)
+        .processedWith(new AutoParcelProcessor())
+        .compilesWithoutError()
+        .and()
+        .generatesSources(expectedOutput);
+  }
+
+  public void testOptionalPrimitive() throws Exception {
+    JavaFileObject javaFileObject = JavaFileObjects.forSourceLines(
+        "foo.bar.Baz",
+        "package foo.bar;",
+        "",
+        "import auto.parcel.AutoParcel;",
+        "",
+        "@AutoParcel",
+        "public abstract class Baz {",
+        "  public abstract String name();",
+        "  public abstract int count();",
+        "  public abstract boolean hasCount();",
+        "",
+        "  public abstract Baz withCount(int count);",
+        "",
+        "  @AutoParcel.Builder",
+        "  public interface Builder {",
+        "    Builder name(String x);",
+        "    Builder count(int x);",
+        "    Baz build();",
+        "  }",
+        "",
+        "  public static Builder builder() {",
+        "    return new AutoParcel_Baz.Builder();",
+        "  }",
+        "}");
+    JavaFileObject expectedOutput = JavaFileObjects.forSourceLines(
+        "foo.bar.gen",
+        "package foo.bar;",
+        "",
+        "import auto.parcel.AutoParcelBuilders;",
+        "",
+        "final class AutoParcel_Baz extends Baz {",
+        "",
+        "  private final String name;",
+        "  private final int count;",
+        "  private final int present$;",
+        "",
+        "  private AutoParcel_Baz(",
+        "      String name,",
+        "      int count,",
+        "      int present$) {",
+        "    if (name == null) {",
+        "      throw new NullPointerException(\"Null name\");",
+        "    }",
+        "    this.name = name;",
+        "    this.count = (present$ & 0x1) != 0 ? count : 0;",
+        "    this.present$ = present$;",
+        "  }",
+        "",
+        "  @Override",
+        "  public String name() {",
+        "    return name;",
+        "  }",
+        "",
+        "  @Override",
+        "  public int count() {",
+        "    return count;",
+        "  }",
+        "",
+        "  @Override",
+        "  public boolean hasCount() {",
+        "    return (present$ & 0x1) != 0;",
+        "  }",
+        "",
+        "  @Override",
+        "  public Baz withCount(int count) {",
+        "    if (count == this.count && (this.present$ & 0x1) != 0) {",
+        "      return this;",
+        "    }",
+        "    Baz result$ = new AutoParcel_Baz(",
+        "        this.name, count, this.present$ | 0x1);",
+        "    return result$;",
+        "  }",
+        "",
+        "  @Override",
+        "  public String toString() {",
+        "    return \"Baz{\"",
+        "        + \"name=\" + name + \", \"",
+        "        + \"count=\" + ((present$ & 0x1) != 0 ? String.valueOf(count) : \"null\")",
+        "        + \"}\";",
+        "  }",
+        "",
+        "  @Override",
+        "  public boolean equals(Object o) {",
+        "    if (o == this) {",
+        "      return true;",
+        "    }",
+        "    if (o instanceof AutoParcel_Baz) {",
+        "      AutoParcel_Baz that = (AutoParcel_Baz) o;",
+        "      return (this.present$ == that.present$)",
+        "           && (this.count == that.count)",
+        "           && (this.name == that.name || this.name.equals(that.name));",
+        "    }",
+        "    if (o instanceof Baz) {",
+        "      Baz that = (Baz) o;",
+        "      return (this.name.equals(that.name()))",
+        "           && (((this.present$ & 0x1) != 0) == that.hasCount() && this.count =="
+            + " that.count());",
+        "    }",
+        "    return false;",
+        "  }",
+        "",
+        "  @Override",
+        "  public int hashCode() {",
+        "    int h = 1;",
+        "    h *= 1000003;",
+        "    h ^= name.hashCode();",
+        "    h *= 1000003;",
+        "    h ^= count;",
+        "    h *= 1000003;",
+        "    h ^= present$;",
+        "    return h;",
+        "  }",
+        "",
+        "  static final class Builder implements Baz.Builder {",
+        "    private static final String[] REQUIRED_PROPERTIES$ = {",
+        "      \"name\",",
+        "    };",
+        "    private int set$;",
+        "    private int present$;",
+        "    private String name;",
+        "    private int count;",
+        "    Builder() {",
+        "    }",
+        "    Builder(AutoParcel_Baz source) {",
+        "      set$ = 0x1;",
+        "      this.name = source.name;",
+        "      this.count = source.count;",
+        "      this.present$ = source.present$;",
+        "    }",
+        "    @Override",
+        "    public Baz.Builder name(String name) {",
+        "      this.name = name;",
+        "      set$ |= 0x1;",
+        "      return this;",
+        "    }",
+        "    @Override",
+        "    public Baz.Builder count(int count) {",
+        "      this.count = count;",
+        "      present$ |= 0x1;",
+        "      return this;",
+        "    }",
+        "    @Override",
+        "    public Baz build() {",
+        "      if (set$ != 0x1) {",
+        "        throw AutoParcelBuilders.missingProperties(REQUIRED_PROPERTIES$,",
+        "                set$);",
+        "      }",
+        "      Baz result = new AutoParcel_Baz(",
+        "          this.name,",
+        "          this.count,",
+        "          this.present$);",
+        "      return result;",
+        "    }",
+        "  }",
+        "}");
+    assertAbout(javaSource())
+        .that(javaFileObject)
+        .processedWith(new AutoParcelProcessor())
+        .compilesWithoutError()
+        .and()
+        .generatesSources(expectedOutput);
+  }
+
+  /**
+   * Returns an {@code @AutoParcel} class with the given number of {@code long} properties, each of
+   * which takes two constructor parameter slots, and optionally a builder.
+   */
+  private static JavaFileObject wideClass(int properties, boolean withBuilder) {
+    ImmutableList.Builder<String> lines = ImmutableList.builder();
+    lines.add(
+        "package foo.bar;",
+        "",
+        "import auto.parcel.AutoParcel;",
+        "",
+        "@AutoParcel",
+        "public abstract class Baz {");
+    for (int i = 0; i < properties; i++) {
+      lines.add("  public abstract long long" + i + "();");
+    }
+    if (withBuilder) {
+      lines.add("  @AutoParcel.Builder", "  public interface Builder {");
+      for (int i = 0; i < properties; i++) {
+        lines.add("    Builder long" + i + "(long x);");
+      }
+      lines.add("    Baz build();", "  }");
+    }
+    lines.add("}");
+    return JavaFileObjects.forSourceLines("foo.bar.Baz", lines.build());
+  }
+
+  public void testWideClassWithoutBuilder() throws Exception {
+    JavaFileObject javaFileObject = wideClass(130, false);
+    assertAbout(javaSource())
+        .that(javaFileObject)
+        .processedWith(new AutoParcelProcessor())
+        .failsToCompile()
+        .withErrorContaining("@AutoParcel class has too many properties for its constructor, which"
+            + " would need 261 parameter slots where the limit is 255")
+        .in(javaFileObject).onLine(6);
+  }
+
+  public void testWideClassWithBuilder() throws Exception {
+    assertAbout(javaSource())
+        .that(wideClass(130, true))
+        .processedWith(new AutoParcelProcessor())
+        .compilesWithoutError();
+  }
+
+  /**
+   * Returns a {@code Parcelable} {@code @AutoParcel} class with the given number of nested map
+   * properties, each of which takes many bytecodes to read from a {@code Parcel}, and optionally a
+   * builder with a {@code toBuilder()} method.
+   */
+  private static JavaFileObject wideParcelableClass(int properties, boolean withBuilder) {
+    String type = "Map<String, Map<String, Map<String, List<String>>>>";
+    ImmutableList.Builder<String> lines = ImmutableList.builder();
+    lines.add(
+        "package foo.bar;",
+        "",
+        "import android.os.Parcelable;",
+        "import auto.parcel.AutoParcel;",
+        "import java.util.List;",
+        "import java.util.Map;",
+        "",
+        "@AutoParcel",
+        "public abstract class Baz implements Parcelable {");
+    for (int i = 0; i < properties; i++) {
+      lines.add("  public abstract " + type + " map" + i + "();");
+    }
+    if (withBuilder) {
+      lines.add("  public abstract Builder toBuilder();");
+      lines.add("  @AutoParcel.Builder", "  public interface Builder {");
+      for (int i = 0; i < properties; i++) {
+        lines.add("    Builder map" + i + "(" + type + " x);");
+      }
+      lines.add("    Baz build();", "  }");
+    }
+    lines.add("}");
+    return JavaFileObjects.forSourceLines("foo.bar.Baz", lines.build());
+  }
+
+  public void testWideParcelableClassWithoutBuilderAtParameterLimit() throws Exception {
+    assertAbout(javaSource())
+        .that(wideParcelableClass(254, false))
+        .processedWith(new AutoParcelProcessor())
+        .compilesWithoutError();
+  }
+
+  public void testWideParcelableClassWithBuilder() throws Exception {
+    assertAbout(javaSource())
+        .that(wideParcelableClass(300, true))
+        .processedWith(new AutoParcelProcessor())
+        .compilesWithoutError();
+  }
+
+  public void testMemoized() throws Exception {
+    JavaFileObject javaFileObject = JavaFileObjects.forSourceLines(
+        "foo.bar.Baz",
+        "package foo.bar;",
+        "",
+        "import auto.parcel.AutoParcel;",
+        "",
+        "import java.util.List;",
+        "",
+        "@AutoParcel",
+        "public abstract class Baz {",
+        "  public abstract List<String> names();",
+        "",
+        "  @AutoParcel.Memoized",
+        "  public String joined() {",
+        "    return names().toString();",
+        "  }",
+        "",
+        "  @AutoParcel.Memoized",
+        "  int count() {",
+        "    return names().size();",
+        "  }",
+        "}");
+    JavaFileObject expectedOutput = JavaFileObjects.forSourceLines(
+        "foo.bar.AutoParcel_Baz",
+        "package foo.bar;",
+        "",
+        "import java.util.List;",
+        "",
+        "final class AutoParcel_Baz extends Baz {",
+        "",
+        "  private final List<String> names;",
+        "",
+        "  private transient String joined$;",
+        "  private transient volatile boolean joined$memoized;",
+        "  private transient int count$;",
+        "  private transient volatile boolean count$memoized;",
+        "",
+        "  AutoParcel_Baz(",
+        "      List<String> names) {",
+        "    if (names == null) {",
+        "      throw new NullPointerException(\"Null names\");",
+        "    }",
+        "    this.names = names;",
+        "  }",
+        "",
+        "  @Override",
+        "  public List<String> names() {",
+        "    return names;",
+        "  }",
+        "",
+        "  @Override",
+        "  public String joined() {",
+        "    if (!joined$memoized) {",
+        "      synchronized (this) {",
+        "        if (!joined$memoized) {",
+        "          joined$ = super.joined();",
+        "          joined$memoized = true;",
+        "        }",
+        "      }",
+        "    }",
+        "    return joined$;",
+        "  }",
+        "",
+        "  @Override",
+        "  int count() {",
+        "    if (!count$memoized) {",
+        "      synchronized (this) {",
+        "        if (!count$memoized) {",
+        "          count$ = super.count();",
+        "          count$memoized = true;",
+        "        }",
+        "      }",
+        "    }",
+        "    return count$;",
+        "  }",
+        "",
+        "  @Override",
+        "  public String toString() {",
+        "    return \"Baz{\"",
+        "        + \"names=\" + names",
+        "        + \"}\";",
+        "  }",
+        "",
+        "  @Override",
+        "  public boolean equals(Object o) {",
+        "    if (o == this) {",
+        "      return true;",
+        "    }",
+        "    if (o instanceof AutoParcel_Baz) {",
+        "      AutoParcel_Baz that = (AutoParcel_Baz) o;",
+        "      return (this.names == that.names || this.names.equals(that.names));",
+        "    }",
+        "    if (o instanceof Baz) {",
+        "      Baz that = (Baz) o;",
+        "      return (this.names.equals(that.names()));",
+        "    }",
+        "    return false;",
+        "  }",
+        "",
+        "  @Override",
+        "  public int hashCode() {",
+        "    int h = 1;",
+        "    h *= 1000003;",
+        "    h ^= names.hashCode();",
+        "    return h;",
+        "  }",
+        "",
+        "}");
+    assertAbout(javaSource())
+        .that(javaFileObject)
+        .processedWith(new AutoParcelProcessor())
+        .compilesWithoutError()
+        .and()
+        .generatesSources(expectedOutput);
+  }
+
+  public void testMemoizedVoidMethod() throws Exception {
+    JavaFileObject javaFileObject = JavaFileObjects.forSourceLines(
+        "foo.bar.Baz",
+        "package foo.bar;",
+        "",
+        "import auto.parcel.AutoParcel;",
+        "",
+        "@AutoParcel",
+        "public abstract class Baz {",
+        "  public abstract int anInt();",
+        "",
+        "  @AutoParcel.Memoized",
+        "  void log() {}",
+        "}");
+    assertAbout(javaSource())
+        .that(javaFileObject)
+        .processedWith(new AutoParcelProcessor())
+        .failsToCompile()
+        .withErrorContaining("Return type of @AutoParcel.Memoized method must not be void")
+        .in(javaFileObject).onLine(10);
+  }
+
+  public void testParcelable() throws Exception {
+    JavaFileObject javaFileObject = JavaFileObjects.forSourceLines(
+        "foo.bar.Baz",
+        "package foo.bar;",
+        "",
+        "import android.os.Parcelable;",
+        "import auto.parcel.AutoParcel;",
+        "",
+        "import java.util.List;",
+        "import javax.annotation.Nullable;",
+        "",
+        "@AutoParcel",
+        "public abstract class Baz implements Parcelable {",
+        "  public abstract int anInt();",
+        "  public abstract boolean aBoolean();",
+        "  @Nullable public abstract Long aNullableLong();",
+        "  public abstract String aString();",
+        "  public abstract double[] aDoubleArray();",
+        "  public abstract List<String> aList();",
+        "}");
+    JavaFileObject expectedOutput = JavaFileObjects.forSourceLines(
+        "foo.bar.AutoParcel_Baz",
+        "package foo.bar;",
+        "",
+        "import java.util.Arrays;",
+        "import java.util.List;",
+        "",
+        "final class AutoParcel_Baz extends Baz {",
+        "  private final int anInt;",
+        "  private final boolean aBoolean;",
+        "  private final Long aNullableLong;",
+        "  private final String aString;",
+        "  private final double[] aDoubleArray;",
+        "  private final List<String> aList;",
+        "",
+        "  AutoParcel_Baz(int anInt, boolean aBoolean, Long aNullableLong, String aString,"
+            + " double[] aDoubleArray, List<String> aList) {",
+        "    this.anInt = anInt;",
+        "    this.aBoolean = aBoolean;",
+        "    this.aNullableLong = aNullableLong;",
+        "    if (aString == null) {",
+        "      throw new NullPointerException(\"Null aString\");",
+        "    }",
+        "    this.aString = aString;",
+        "    if (aDoubleArray == null) {",
+        "      throw new NullPointerException(\"Null aDoubleArray\");",
+        "    }",
+        "    this.aDoubleArray = aDoubleArray;",
+        "    if (aList == null) {",
+        "      throw new NullPointerException(\"Null aList\");",
+        "    }",
+        "    this.aList = aList;",
+        "  }",
+        "",
+        "  @Override public int anInt() {",
+        "    return anInt;",
+        "  }",
+        "",
+        "  @Override public boolean aBoolean() {",
+        "    return aBoolean;",
+        "  }",
+        "",
+        "  @javax.annotation.Nullable",
+        "  @Override public Long aNullableLong() {",
+        "    return aNullableLong;",
+        "  }",
+        "",
+        "  @Override public String aString() {",
+        "    return aString;",
+        "  }",
+        "",
+        "  @Override public double[] aDoubleArray() {",
+        "    return aDoubleArray.clone();",
+        "  }",
+        "",
+        "  @Override public List<String> aList() {",
+        "    return aList;",
+        "  }",
+        "",
+        "  @Override public String toString() {",
+        "    return \"Baz{\"",
+        "        + \"anInt=\" + anInt + \", \"",
+        "        + \"aBoolean=\" + aBoolean + \", \"",
+        "        + \"aNullableLong=\" + aNullableLong + \", \"",
+        "        + \"aString=\" + aString + \", \"",
+        "        + \"aDoubleArray=\" + Arrays.toString(aDoubleArray) + \", \"",
+        "        + \"aList=\" + aList",
+        "        + \"}\";",
+        "  }",
+        "",
+        "  @Override public boolean equals(Object o) {",
+        "    if (o == this) {",
+        "      return true;",
+        "    }",
+        "    if (o instanceof AutoParcel_Baz) {",
+        "      AutoParcel_Baz that = (AutoParcel_Baz) o;",
+        "      return (this.anInt == that.anInt)",
+        "           && (this.aBoolean == that.aBoolean)",
+        "           && (this.aNullableLong == that.aNullableLong || (this.aNullableLong != null"
+            + " && this.aNullableLong.equals(that.aNullableLong)))",
+        "           && (this.aString == that.aString || this.aString.equals(that.aString))",
+        "           && (Arrays.equals(this.aDoubleArray, that.aDoubleArray))",
+        "           && (this.aList == that.aList || this.aList.equals(that.aList));",
+        "    }",
+        "    if (o instanceof Baz) {",
+        "      Baz that = (Baz) o;",
+        "      return (this.anInt == that.anInt())",
+        "          && (this.aBoolean == that.aBoolean())",
+        "          && ((this.aNullableLong == null) ? (that.aNullableLong() == null) "
+                    + ": this.aNullableLong.equals(that.aNullableLong()))",
+        "          && (this.aString.equals(that.aString()))",
+        "           && (Arrays.equals(this.aDoubleArray, that.aDoubleArray()))",
+        "          && (this.aList.equals(that.aList()));",
+        "    }",
+        "    return false;",
+        "  }",
+        "",
+        "  @Override public int hashCode() {",
+        "    int h = 1;",
+        "    h *= 1000003;",
+        "    h ^= anInt;",
+        "    h *= 1000003;",
+        "    h ^= aBoolean ? 1231 : 1237;",
+        "    h *= 1000003;",
+        "    h ^= (aNullableLong == null) ? 0 : aNullableLong.hashCode();",
+        "    h *= 1000003;",
+        "    h ^= aString.hashCode();",
+        "    h *= 1000003;",
+        "    h ^= Arrays.hashCode(aDoubleArray);",
+        "    h *= 1000003;",
+        "    h ^= aList.hashCode();",
+        "    return h;",
+        "  }",
+        "",
+        "  public static final android.os.Parcelable.Creator<AutoParcel_Baz> CREATOR ="
+            + " new android.os.Parcelable.Creator<AutoParcel_Baz>() {",
+        "    @Override public AutoParcel_Baz createFromParcel(android.os.Parcel in) {",
+        "      return new AutoParcel_Baz(in);",
+        "    }",
+        "",
+        "    @Override public AutoParcel_Baz[] newArray(int size) {",
+        "      return new AutoParcel_Baz[size];",
+        "    }",
+        "  };",
+        "",
+        "  private final static java.lang.ClassLoader CL = AutoParcel_Baz.class.getClassLoader();",
+        "",
+        "  private AutoParcel_Baz(android.os.Parcel in) {",
+        "    int nonNull$ = in.readInt();",
+        "    this.anInt = in.readInt();",
+        "    this.aBoolean = in.readInt() != 0;",
+        "    this.aNullableLong = (nonNull$ & 0x1) != 0 ? in.readLong() : null;",
+        "    this.aString = in.readString();",
+        "    if (this.aString == null) {",
+        "      throw new NullPointerException(\"Null aString\");",
+        "    }",
+        "    this.aDoubleArray = in.createDoubleArray();",
+        "    if (this.aDoubleArray == null) {",
+        "      throw new NullPointerException(\"Null aDoubleArray\");",
+        "    }",
+        "    int size$0 = in.readInt();",
+        "    List<String> collection$1 = new java.util.ArrayList<String>(size$0);",
+        "    for (int i$2 = 0; i$2 < size$0; i$2++) {",
+        "      collection$1.add(in.readString());",
+        "    }",
+        "    this.aList = collection$1;",
+        "  }",
+        "",
+        "  @Override public void writeToParcel(android.os.Parcel dest, int flags) {",
+        "    dest.writeInt((aNullableLong != null ? 0x1 : 0));",
+        "    dest.writeInt(anInt);",
+        "    dest.writeInt(aBoolean ? 1 : 0);",
+        "    if (aNullableLong != null) {",
+        "      dest.writeLong(aNullableLong);",
+        "    }",
+        "    dest.writeString(aString);",
+        "    dest.writeDoubleArray(aDoubleArray);",
+        "    dest.writeInt(aList.size());",
+        "    for (String element$0 : aList) {",
+        "      dest.writeString(element$0);",
+        "    }",
+        "  }",
+        "",
+        "  @Override public int describeContents() {",
+        "    return 0;",
+        "  }",
+        "}");
+    assertAbout(javaSource())
+        .that(javaFileObject)
+        .processedWith(new AutoParcelProcessor())
+        .compilesWithoutError()
+        .and()
+        .generatesSources(expectedOutput);
+  }
+
+  public void testParcelableCollections() throws Exception {
+    JavaFileObject javaFileObject = JavaFileObjects.forSourceLines(
+        "foo.bar.Baz",
+        "package foo.bar;",
+        "",
+        "import android.os.Parcelable;",
+        "import auto.parcel.AutoParcel;",
+        "",
+        "import java.util.List;",
+        "import java.util.Map;",
+        "import java.util.Set;",
+        "",
+        "@AutoParcel",
+        "public abstract class Baz implements Parcelable {",
+        "  public abstract Map<String, List<Integer>> aMap();",
+        "  public abstract Set<Long> aSet();",
+        "}");
+    JavaFileObject expectedOutput = JavaFileObjects.forSourceLines(
+        "foo.bar.AutoParcel_Baz",
+        "package foo.bar;",
+        "",
+        "import java.util.List;",
+        "import java.util.Map;",
+        "import java.util.Set;",
+        "",
+        "final class AutoParcel_Baz extends Baz {",
+        "  private final Map<String, List<Integer>> aMap;",
+        "  private final Set<Long> aSet;",
+        "",
+        "  AutoParcel_Baz(Map<String, List<Integer>> aMap, Set<Long> aSet) {",
+        "    if (aMap == null) {",
+        "      throw new NullPointerException(\"Null aMap\");",
+        "    }",
+        "    this.aMap = aMap;",
+        "    if (aSet == null) {",
+        "      throw new NullPointerException(\"Null aSet\");",
+        "    }",
+        "    this.aSet = aSet;",
+        "  }",
+        "",
+        "  @Override public Map<String, List<Integer>> aMap() {",
+        "    return aMap;",
+        "  }",
+        "",
+        "  @Override public Set<Long> aSet() {",
+        "    return aSet;",
+        "  }",
+        "",
+        "  @Override public String toString() {",
+        "    return \"Baz{\"",
+        "        + \"aMap=\" + aMap + \", \"",
+        "        + \"aSet=\" + aSet",
+        "        + \"}\";",
+        "  }",
+        "",
+        "  @Override public boolean equals(Object o) {",
+        "    if (o == this) {",
+        "      return true;",
+        "    }",
+        "    if (o instanceof AutoParcel_Baz) {",
+        "      AutoParcel_Baz that = (AutoParcel_Baz) o;",
+        "      return (this.aMap == that.aMap || this.aMap.equals(that.aMap))",
+        "           && (this.aSet == that.aSet || this.aSet.equals(that.aSet));",
+        "    }",
+        "    if (o instanceof Baz) {",
+        "      Baz that = (Baz) o;",
+        "      return (this.aMap.equals(that.aMap()))",
+        "          && (this.aSet.equals(that.aSet()));",
+        "    }",
+        "    return false;",
+        "  }",
+        "",
+        "  @Override public int hashCode() {",
+        "    int h = 1;",
+        "    h *= 1000003;",
+        "    h ^= aMap.hashCode();",
+        "    h *= 1000003;",
+        "    h ^= aSet.hashCode();",
+        "    return h;",
+        "  }",
+        "",
+        "  public static final android.os.Parcelable.Creator<AutoParcel_Baz> CREATOR ="
+            + " new android.os.Parcelable.Creator<AutoParcel_Baz>() {",
+        "    @Override public AutoParcel_Baz createFromParcel(android.os.Parcel in) {",
+        "      return new AutoParcel_Baz(in);",
+        "    }",
+        "",
+        "    @Override public AutoParcel_Baz[] newArray(int size) {",
+        "      return new AutoParcel_Baz[size];",
+        "    }",
+        "  };",
+        "",
+        "  private final static java.lang.ClassLoader CL = AutoParcel_Baz.class.getClassLoader();",
+        "",
+        "  private AutoParcel_Baz(android.os.Parcel in) {",
+        "    int size$0 = in.readInt();",
+        "    Map<String, List<Integer>> map$1 = new java.util.LinkedHashMap<String,"
+            + " List<Integer>>(size$0 * 4 / 3 + 1);",
+        "    for (int i$2 = 0; i$2 < size$0; i$2++) {",
+        "      String value$3 = in.readString();",
+        "      List<Integer> value$4;",
+        "      if (in.readInt() == 0) {",
+        "        value$4 = null;",
+        "      } else {",
+        "        int size$5 = in.readInt();",
+        "        List<Integer> collection$6 = new java.util.ArrayList<Integer>(size$5);",
+        "        for (int i$7 = 0; i$7 < size$5; i$7++) {",
+        "          collection$6.add(in.readInt() == 0 ? null : in.readInt());",
+        "        }",
+        "        value$4 = collection$6;",
+        "      }",
+        "      map$1.put(value$3, value$4);",
+        "    }",
+        "    this.aMap = map$1;",
+        "    int size$8 = in.readInt();",
+        "    Set<Long> collection$9 = new java.util.LinkedHashSet<Long>(size$8 * 4 / 3 + 1);",
+        "    for (int i$10 = 0; i$10 < size$8; i$10++) {",
+        "      collection$9.add(in.readInt() == 0 ? null : in.readLong());",
+        "    }",
+        "    this.aSet = collection$9;",
+        "  }",
+        "",
+        "  @Override public void writeToParcel(android.os.Parcel dest, int flags) {",
+        "    dest.writeInt(aMap.size());",
+        "    for (java.util.Map.Entry<String, List<Integer>> entry$0 : aMap.entrySet()) {",
+        "      dest.writeString(entry$0.getKey());",
+        "      if (entry$0.getValue() == null) {",
+        "        dest.writeInt(0);",
+        "      } else {",
+        "        dest.writeInt(1);",
+        "        dest.writeInt(entry$0.getValue().size());",
+        "        for (Integer element$1 : entry$0.getValue()) {",
+        "          if (element$1 == null) {",
+        "            dest.writeInt(0);",
+        "          } else {",
+        "            dest.writeInt(1);",
+        "            dest.writeInt(element$1);",
+        "          }",
+        "        }",
+        "      }",
+        "    }",
+        "    dest.writeInt(aSet.size());",
+        "    for (Long element$2 : aSet) {",
+        "      if (element$2 == null) {",
+        "        dest.writeInt(0);",
+        "      } else {",
+        "        dest.writeInt(1);",
+        "        dest.writeLong(element$2);",
+        "      }",
+        "    }",
+        "  }",
+        "",
+        "  @Override public int describeContents() {",
+        "    return 0;",
+        "  }",
+        "}");
+    assertAbout(javaSource())
+        .that(javaFileObject)
+        .processedWith(new AutoParcelProcessor())
+        .compilesWithoutError()
+        .and()
+        .generatesSources(expectedOutput);
+  }
+
+  public void testParcelableCollectionsWithoutFixedImplementation() throws Exception {
+    JavaFileObject javaFileObject = JavaFileObjects.forSourceLines(
+        "foo.bar.Baz",
+        "package foo.bar;",
+        "",
+        "import android.os.Parcelable;",
+        "import auto.parcel.AutoParcel;",
+        "",
+        "import java.util.Collection;",
+        "import java.util.SortedSet;",
+        "",
+        "@AutoParcel",
+        "public abstract class Baz implements Parcelable {",
+        "  public abstract Collection<String> aCollection();",
+        "  public abstract SortedSet<String> aSortedSet();",
+        "",
+        "  public static Baz create(Collection<String> aCollection, SortedSet<String> aSortedSet)"
+            + " {",
+        "    return new AutoParcel_Baz(aCollection, aSortedSet);",
+        "  }",
+        "}");
+    JavaFileObject expectedOutput = JavaFileObjects.forSourceLines(
+        "foo.bar.gen",
+        "package foo.bar;",
+        "",
+        "import java.util.Collection;",
+        "import java.util.SortedSet;",
+        "",
+        "final class AutoParcel_Baz extends Baz {",
+        "",
+        "  private final Collection<String> aCollection;",
+        "  private final SortedSet<String> aSortedSet;",
+        "",
+        "  AutoParcel_Baz(",
+        "      Collection<String> aCollection,",
+        "      SortedSet<String> aSortedSet) {",
+        "    if (aCollection == null) {",
+        "      throw new NullPointerException(\"Null aCollection\");",
+        "    }",
+        "    this.aCollection = aCollection;",
+        "    if (aSortedSet == null) {",
+        "      throw new NullPointerException(\"Null aSortedSet\");",
+        "    }",
+        "    this.aSortedSet = aSortedSet;",
+        "  }",
+        "",
+        "  @Override",
+        "  public Collection<String> aCollection() {",
+        "    return aCollection;",
+        "  }",
+        "",
+        "  @Override",
+        "  public SortedSet<String> aSortedSet() {",
+        "    return aSortedSet;",
+        "  }",
+        "",
+        "  @Override",
+        "  public String toString() {",
+        "    return \"Baz{\"",
+        "        + \"aCollection=\" + aCollection + \", \"",
+        "        + \"aSortedSet=\" + aSortedSet",
+        "        + \"}\";",
+        "  }",
+        "",
+        "  @Override",
+        "  public boolean equals(Object o) {",
+        "    if (o == this) {",
+        "      return true;",
+        "    }",
+        "    if (o instanceof AutoParcel_Baz) {",
+        "      AutoParcel_Baz that = (AutoParcel_Baz) o;",
+        "      return (this.aCollection == that.aCollection ||"
+            + " this.aCollection.equals(that.aCollection))",
+        "           && (this.aSortedSet == that.aSortedSet ||"
+            + " this.aSortedSet.equals(that.aSortedSet));",
+        "    }",
+        "    if (o instanceof Baz) {",
+        "      Baz that = (Baz) o;",
+        "      return (this.aCollection.equals(that.aCollection()))",
+        "           && (this.aSortedSet.equals(that.aSortedSet()));",
+        "    }",
+        "    return false;",
+        "  }",
+        "",
+        "  @Override",
+        "  public int hashCode() {",
+        "    int h = 1;",
+        "    h *= 1000003;",
+        "    h ^= aCollection.hashCode();",
+        "    h *= 1000003;",
+        "    h ^= aSortedSet.hashCode();",
+        "    return h;",
+        "  }",
+        "",
+        "  public static final android.os.Parcelable.Creator<AutoParcel_Baz> CREATOR = new"
+            + " android.os.Parcelable.Creator<AutoParcel_Baz>() {",
+        "    @Override",
+        "    public AutoParcel_Baz createFromParcel(android.os.Parcel in) {",
+        "      return new AutoParcel_Baz(in);",
+        "    }",
+        "    @Override",
+        "    public AutoParcel_Baz[] newArray(int size) {",
+        "      return new AutoParcel_Baz[size];",
+        "    }",
+        "  };",
+        "",
+        "  private final static java.lang.ClassLoader CL = AutoParcel_Baz.class.getClassLoader();",
+        "",
+        "  private AutoParcel_Baz(android.os.Parcel in) {",
+        "    this.aCollection = (Collection<String>) in.readValue(CL);",
+        "    if (this.aCollection == null) {",
+        "      throw new NullPointerException(\"Null aCollection\");",
+        "    }",
+        "    this.aSortedSet = (SortedSet<String>) in.readValue(CL);",
+        "    if (this.aSortedSet == null) {",
+        "      throw new NullPointerException(\"Null aSortedSet\");",
+        "    }",
+        "  }",
+        "",
+        "  @Override",
+        "  public void writeToParcel(android.os.Parcel dest, int flags) {",
+        "    dest.writeValue(aCollection);",
+        "    dest.writeValue(aSortedSet);",
+        "  }",
+        "",
+        "  @Override",
+        "  public int describeContents() {",
+        "    return 0;",
+        "  }",
+        "",
+        "}");
+    assertAbout(javaSource())
+        .that(javaFileObject)
+        .processedWith(new AutoParcelProcessor())
+        .compilesWithoutError()
+        .and()
+        .generatesSources(expectedOutput);
+  }
+
+  public void testParcelableEnums() throws Exception {
+    JavaFileObject javaFileObject = JavaFileObjects.forSourceLines(
+        "foo.bar.Baz",
+        "package foo.bar;",
+        "",
+        "import android.os.Parcelable;",
+        "import auto.parcel.AutoParcel;",
+        "",
+        "import java.util.EnumSet;",
+        "import javax.annotation.Nullable;",
+        "",
+        "@AutoParcel",
+        "public abstract class Baz implements Parcelable {",
+        "  public enum Color { RED, GREEN, BLUE }",
+        "",
+        "  public abstract Color aColor();",
+        "  @Nullable public abstract Color aNullableColor();",
+        "  public abstract EnumSet<Color> anEnumSet();",
+        "}");
+    JavaFileObject expectedOutput = JavaFileObjects.forSourceLines(
+        "foo.bar.AutoParcel_Baz",
+        "package foo.bar;",
+        "",
+        "import java.util.EnumSet;",
+        "",
+        "final class AutoParcel_Baz extends Baz {",
+        "",
+        "  private final Baz.Color aColor;",
+        "  private final Baz.Color aNullableColor;",
+        "  private final EnumSet<Baz.Color> anEnumSet;",
+        "",
+        "  AutoParcel_Baz(",
+        "      Baz.Color aColor,",
+        "      Baz.Color aNullableColor,",
+        "      EnumSet<Baz.Color> anEnumSet) {",
+        "    if (aColor == null) {",
+        "      throw new NullPointerException(\"Null aColor\");",
+        "    }",
+        "    this.aColor = aColor;",
+        "    this.aNullableColor = aNullableColor;",
+        "    if (anEnumSet == null) {",
+        "      throw new NullPointerException(\"Null anEnumSet\");",
+        "    }",
+        "    this.anEnumSet = anEnumSet;",
+        "  }",
+        "",
+        "  @Override",
+        "  public Baz.Color aColor() {",
+        "    return aColor;",
+        "  }",
+        "",
+        "  @javax.annotation.Nullable",
+        "  @Override",
+        "  public Baz.Color aNullableColor() {",
+        "    return aNullableColor;",
+        "  }",
+        "",
+        "  @Override",
+        "  public EnumSet<Baz.Color> anEnumSet() {",
+        "    return anEnumSet;",
+        "  }",
+        "",
+        "  @Override",
+        "  public String toString() {",
+        "    return \"Baz{\"",
+        "        + \"aColor=\" + aColor + \", \"",
+        "        + \"aNullableColor=\" + aNullableColor + \", \"",
+        "        + \"anEnumSet=\" + anEnumSet",
+        "        + \"}\";",
+        "  }",
+        "",
+        "  @Override",
+        "  public boolean equals(Object o) {",
+        "    if (o == this) {",
+        "      return true;",
+        "    }",
+        "    if (o instanceof AutoParcel_Baz) {",
+        "      AutoParcel_Baz that = (AutoParcel_Baz) o;",
+        "      return (this.aColor == that.aColor)",
+        "           && (this.aNullableColor == that.aNullableColor)",
+        "           && (this.anEnumSet == that.anEnumSet ||"
+            + " this.anEnumSet.equals(that.anEnumSet));",
+        "    }",
+        "    if (o instanceof Baz) {",
+        "      Baz that = (Baz) o;",
+        "      return (this.aColor.equals(that.aColor()))",
+        "          && ((this.aNullableColor == null) ? (that.aNullableColor() == null) "
+                    + ": this.aNullableColor.equals(that.aNullableColor()))",
+        "           && (this.anEnumSet.equals(that.anEnumSet()));",
+        "    }",
+        "    return false;",
+        "  }",
+        "",
+        "  @Override",
+        "  public int hashCode() {",
+        "    int h = 1;",
+        "    h *= 1000003;",
+        "    h ^= aColor.hashCode();",
+        "    h *= 1000003;",
+        "    h ^= (aNullableColor == null) ? 0 : aNullableColor.hashCode();",
+        "    h *= 1000003;",
+        "    h ^= anEnumSet.hashCode();",
+        "    return h;",
+        "  }",
+        "",
+        "  public static final android.os.Parcelable.Creator<AutoParcel_Baz> CREATOR ="
+            + " new android.os.Parcelable.Creator<AutoParcel_Baz>() {",
+        "    @Override",
+        "    public AutoParcel_Baz createFromParcel(android.os.Parcel in) {",
+        "      return new AutoParcel_Baz(in);",
+        "    }",
+        "    @Override",
+        "    public AutoParcel_Baz[] newArray(int size) {",
+        "      return new AutoParcel_Baz[size];",
+        "    }",
+        "  };",
+        "",
+        "  private final static java.lang.ClassLoader CL = AutoParcel_Baz.class.getClassLoader();",
+        "",
+        "  private static final Baz.Color[] COLOR_VALUES = Baz.Color.values();",
+        "",
+        "  private AutoParcel_Baz(android.os.Parcel in) {",
+        "    int nonNull$ = in.readInt();",
+        "    this.aColor = COLOR_VALUES[in.readInt()];",
+        "    this.aNullableColor = (nonNull$ & 0x1) != 0 ? COLOR_VALUES[in.readInt()] : null;",
+        "    long mask$0 = in.readLong();",
+        "    EnumSet<Baz.Color> set$1 = java.util.EnumSet.noneOf(Baz.Color.class);",
+        "    while (mask$0 != 0) {",
+        "      set$1.add(COLOR_VALUES[Long.numberOfTrailingZeros(mask$0)]);",
+        "      mask$0 &= mask$0 - 1;",
+        "    }",
+        "    this.anEnumSet = set$1;",
+        "  }",
+        "",
+        "  @Override",
+        "  public void writeToParcel(android.os.Parcel dest, int flags) {",
+        "    dest.writeInt((aNullableColor != null ? 0x1 : 0));",
+        "    dest.writeInt(aColor.ordinal());",
+        "    if (aNullableColor != null) {",
+        "      dest.writeInt(aNullableColor.ordinal());",
+        "    }",
+        "    long mask$0 = 0;",
+        "    for (Baz.Color element$1 : anEnumSet) {",
+        "      mask$0 |= 1L << element$1.ordinal();",
+        "    }",
+        "    dest.writeLong(mask$0);",
+        "  }",
+        "",
+        "  @Override",
+        "  public int describeContents() {",
+        "    return 0;",
+        "  }",
+        "",
+        "}");
+    assertAbout(javaSource())
+        .that(javaFileObject)
+        .processedWith(new AutoParcelProcessor())
+        .compilesWithoutError()
+        .and()
+        .generatesSources(expectedOutput);
+  }
+
+  public void testParcelableJdkValueTypes() throws Exception {
+    JavaFileObject javaFileObject = JavaFileObjects.forSourceLines(
+        "foo.bar.Baz",
+        "package foo.bar;",
+        "",
+        "import android.os.Parcelable;",
+        "import auto.parcel.AutoParcel;",
+        "",
+        "import java.math.BigDecimal;",
+        "import java.util.Date;",
+        "import java.util.List;",
+        "import java.util.UUID;",
+        "import javax.annotation.Nullable;",
+        "",
+        "@AutoParcel",
+        "public abstract class Baz implements Parcelable {",
+        "  public abstract BigDecimal aBigDecimal();",
+        "  @Nullable public abstract UUID aNullableUuid();",
+        "  public abstract List<Date> aDateList();",
+        "}");
+    JavaFileObject expectedOutput = JavaFileObjects.forSourceLines(
+        "foo.bar.AutoParcel_Baz",
+        "package foo.bar;",
+        "",
+        "import java.math.BigDecimal;",
+        "import java.util.Date;",
+        "import java.util.List;",
+        "import java.util.UUID;",
+        "",
+        "final class AutoParcel_Baz extends Baz {",
+        "",
+        "  private final BigDecimal aBigDecimal;",
+        "  private final UUID aNullableUuid;",
+        "  private final List<Date> aDateList;",
+        "",
+        "  AutoParcel_Baz(",
+        "      BigDecimal aBigDecimal,",
+        "      UUID aNullableUuid,",
+        "      List<Date> aDateList) {",
+        "    if (aBigDecimal == null) {",
+        "      throw new NullPointerException(\"Null aBigDecimal\");",
+        "    }",
+        "    this.aBigDecimal = aBigDecimal;",
+        "    this.aNullableUuid = aNullableUuid;",
+        "    if (aDateList == null) {",
+        "      throw new NullPointerException(\"Null aDateList\");",
+        "    }",
+        "    this.aDateList = aDateList;",
+        "  }",
+        "",
+        "  @Override",
+        "  public BigDecimal aBigDecimal() {",
+        "    return aBigDecimal;",
+        "  }",
+        "",
+        "  @javax.annotation.Nullable",
+        "  @Override",
+        "  public UUID aNullableUuid() {",
+        "    return aNullableUuid;",
+        "  }",
+        "",
+        "  @Override",
+        "  public List<Date> aDateList() {",
+        "    return aDateList;",
+        "  }",
+        "",
+        "  @Override",
+        "  public String toString() {",
+        "    return \"Baz{\"",
+        "        + \"aBigDecimal=\" + aBigDecimal + \", \"",
+        "        + \"aNullableUuid=\" + aNullableUuid + \", \"",
+        "        + \"aDateList=\" + aDateList",
+        "        + \"}\";",
+        "  }",
+        "",
+        "  @Override",
+        "  public boolean equals(Object o) {",
+        "    if (o == this) {",
+        "      return true;",
+        "    }",
+        "    if (o instanceof AutoParcel_Baz) {",
+        "      AutoParcel_Baz that = (AutoParcel_Baz) o;",
+        "      return (this.aBigDecimal == that.aBigDecimal ||"
+            + " this.aBigDecimal.equals(that.aBigDecimal))",
+        "           && (this.aNullableUuid == that.aNullableUuid || (this.aNullableUuid != null"
+            + " && this.aNullableUuid.equals(that.aNullableUuid)))",
+        "           && (this.aDateList == that.aDateList ||"
+            + " this.aDateList.equals(that.aDateList));",
+        "    }",
+        "    if (o instanceof Baz) {",
+        "      Baz that = (Baz) o;",
+        "      return (this.aBigDecimal.equals(that.aBigDecimal()))",
+        "           && ((this.aNullableUuid == null) ? (that.aNullableUuid() == null) :"
+            + " this.aNullableUuid.equals(that.aNullableUuid()))",
+        "           && (this.aDateList.equals(that.aDateList()));",
+        "    }",
+        "    return false;",
+        "  }",
+        "",
+        "  @Override",
+        "  public int hashCode() {",
+        "    int h = 1;",
+        "    h *= 1000003;",
+        "    h ^= aBigDecimal.hashCode();",
+        "    h *= 1000003;",
+        "    h ^= (aNullableUuid == null) ? 0 : aNullableUuid.hashCode();",
+        "    h *= 1000003;",
+        "    h ^= aDateList.hashCode();",
+        "    return h;",
+        "  }",
+        "",
+        "  public static final android.os.Parcelable.Creator<AutoParcel_Baz> CREATOR = new"
+            + " android.os.Parcelable.Creator<AutoParcel_Baz>() {",
+        "    @Override",
+        "    public AutoParcel_Baz createFromParcel(android.os.Parcel in) {",
+        "      return new AutoParcel_Baz(in);",
+        "    }",
+        "    @Override",
+        "    public AutoParcel_Baz[] newArray(int size) {",
+        "      return new AutoParcel_Baz[size];",
+        "    }",
+        "  };",
+        "",
+        "  private final static java.lang.ClassLoader CL = AutoParcel_Baz.class.getClassLoader();",
+        "",
+        "  private AutoParcel_Baz(android.os.Parcel in) {",
+        "    int nonNull$ = in.readInt();",
+        "    this.aBigDecimal = new java.math.BigDecimal(new"
+            + " java.math.BigInteger(in.createByteArray()), in.readInt());",
+        "    this.aNullableUuid = (nonNull$ & 0x1) != 0 ? new java.util.UUID(in.readLong(),"
+            + " in.readLong()) : null;",
+        "    int size$0 = in.readInt();",
+        "    List<Date> collection$1 = new java.util.ArrayList<Date>(size$0);",
+        "    for (int i$2 = 0; i$2 < size$0; i$2++) {",
+        "      collection$1.add(in.readInt() == 0 ? null : new java.util.Date(in.readLong()));",
+        "    }",
+        "    this.aDateList = collection$1;",
+        "  }",
+        "",
+        "  @Override",
+        "  public void writeToParcel(android.os.Parcel dest, int flags) {",
+        "    dest.writeInt((aNullableUuid != null ? 0x1 : 0));",
+        "    dest.writeByteArray(aBigDecimal.unscaledValue().toByteArray());",
+        "    dest.writeInt(aBigDecimal.scale());",
+        "    if (aNullableUuid != null) {",
+        "      dest.writeLong(aNullableUuid.getMostSignificantBits());",
+        "      dest.writeLong(aNullableUuid.getLeastSignificantBits());",
+        "    }",
+        "    dest.writeInt(aDateList.size());",
+        "    for (Date element$0 : aDateList) {",
+        "      if (element$0 == null) {",
+        "        dest.writeInt(0);",
+        "      } else {",
+        "        dest.writeInt(1);",
+        "        dest.writeLong(element$0.getTime());",
+        "      }",
+        "    }",
+        "  }",
+        "",
+        "  @Override",
+        "  public int describeContents() {",
+        "    return 0;",
+        "  }",
+        "",
+        "}");
+    assertAbout(javaSource())
+        .that(javaFileObject)
+        .processedWith(new AutoParcelProcessor())
+        .compilesWithoutError()
+        .and()
+        .generatesSources(expectedOutput);
+  }
+
+  public void testParcelableNestedAutoParcel() throws Exception {
+    JavaFileObject bazFileObject = JavaFileObjects.forSourceLines(
+        "foo.bar.Baz",
+        "package foo.bar;",
+        "",
+        "import android.os.Parcelable;",
+        "import auto.parcel.AutoParcel;",
+        "",
+        "import javax.annotation.Nullable;",
+        "",
+        "@AutoParcel",
+        "public abstract class Baz implements Parcelable {",
+        "  public abstract Buh buh();",
+        "  @Nullable public abstract Buh nullableBuh();",
+        "}");
+    JavaFileObject buhFileObject = JavaFileObjects.forSourceLines(
+        "foo.bar.Buh",
+        "package foo.bar;",
+        "",
+        "import android.os.Parcelable;",
+        "import auto.parcel.AutoParcel;",
+        "",
+        "@AutoParcel",
+        "public abstract class Buh implements Parcelable {",
+        "  public abstract int anInt();",
+        "}");
+    JavaFileObject expectedOutput = JavaFileObjects.forSourceLines(
+        "foo.bar.AutoParcel_Baz",
+        "package foo.bar;",
+        "",
+        "final class AutoParcel_Baz extends Baz {",
+        "  private final Buh buh;",
+        "  private final Buh nullableBuh;",
+        "",
+        "  AutoParcel_Baz(Buh buh, Buh nullableBuh) {",
+        "    if (buh == null) {",
+        "      throw new NullPointerException(\"Null buh\");",
+        "    }",
+        "    this.buh = buh;",
+        "    this.nullableBuh = nullableBuh;",
+        "  }",
+        "",
+        "  @Override public Buh buh() {",
+        "    return buh;",
+        "  }",
+        "",
+        "  @javax.annotation.Nullable",
+        "  @Override public Buh nullableBuh() {",
+        "    return nullableBuh;",
+        "  }",
+        "",
+        "  @Override public String toString() {",
+        "    return \"Baz{\"",
+        "        + \"buh=\" + buh + \", \"",
+        "        + \"nullableBuh=\" + nullableBuh",
+        "        + \"}\";",
+        "  }",
+        "",
+        "  @Override public boolean equals(Object o) {",
+        "    if (o == this) {",
+        "      return true;",
+        "    }",
+        "    if (o instanceof AutoParcel_Baz) {",
+        "      AutoParcel_Baz that = (AutoParcel_Baz) o;",
+        "      return (this.buh == that.buh || this.buh.equals(that.buh))",
+        "           && (this.nullableBuh == that.nullableBuh || (this.nullableBuh != null &&"
+            + " this.nullableBuh.equals(that.nullableBuh)));",
+        "    }",
+        "    if (o instanceof Baz) {",
+        "      Baz that = (Baz) o;",
+        "      return (this.buh.equals(that.buh()))",
+        "          && ((this.nullableBuh == null) ? (that.nullableBuh() == null) "
+                    + ": this.nullableBuh.equals(that.nullableBuh()));",
+        "    }",
+        "    return false;",
+        "  }",
+        "",
+        "  @Override public int hashCode() {",
+        "    int h = 1;",
+        "    h *= 1000003;",
+        "    h ^= buh.hashCode();",
+        "    h *= 1000003;",
+        "    h ^= (nullableBuh == null) ? 0 : nullableBuh.hashCode();",
+        "    return h;",
+        "  }",
+        "",
+        "  public static final android.os.Parcelable.Creator<AutoParcel_Baz> CREATOR ="
+            + " new android.os.Parcelable.Creator<AutoParcel_Baz>() {",
+        "    @Override public AutoParcel_Baz createFromParcel(android.os.Parcel in) {",
+        "      return new AutoParcel_Baz(in);",
+        "    }",
+        "",
+        "    @Override public AutoParcel_Baz[] newArray(int size) {",
+        "      return new AutoParcel_Baz[size];",
+        "    }",
+        "  };",
+        "",
+        "  private final static java.lang.ClassLoader CL = AutoParcel_Baz.class.getClassLoader();",
+        "",
+        "  private AutoParcel_Baz(android.os.Parcel in) {",
+        "    int nonNull$ = in.readInt();",
+        "    this.buh = AutoParcel_Buh.CREATOR.createFromParcel(in);",
+        "    this.nullableBuh = (nonNull$ & 0x1) != 0 ?"
+            + " AutoParcel_Buh.CREATOR.createFromParcel(in) : null;",
+        "  }",
+        "",
+        "  @Override public void writeToParcel(android.os.Parcel dest, int flags) {",
+        "    dest.writeInt((nullableBuh != null ? 0x1 : 0));",
+        "    buh.writeToParcel(dest, flags);",
+        "    if (nullableBuh != null) {",
+        "      nullableBuh.writeToParcel(dest, flags);",
+        "    }",
+        "  }",
+        "",
+        "  @Override public int describeContents() {",
+        "    return 0;",
+        "  }",
+        "}");
+    assertAbout(javaSources())
+        .that(ImmutableList.of(bazFileObject, buhFileObject))
+        .processedWith(new AutoParcelProcessor())
+        .compilesWithoutError()
+        .and()
+        .generatesSources(expectedOutput);
+  }
+
+  public void testParcelablePropertyCodec() throws Exception {
+    JavaFileObject bazFileObject = JavaFileObjects.forSourceLines(
+        "foo.bar.Baz",
+        "package foo.bar;",
+        "",
+        "import android.os.Parcelable;",
+        "import auto.parcel.AutoParcel;",
+        "import auto.parcel.PropertyCodec;",
+        "",
+        "import java.util.List;",
+        "import javax.annotation.Nullable;",
+        "",
+        "@AutoParcel",
+        "@PropertyCodec(MoneyCodec.class)",
+        "public abstract class Baz implements Parcelable {",
+        "  public abstract Money price();",
+        "  @Nullable public abstract Money discount();",
+        "  public abstract List<Money> history();",
+        "}");
+    JavaFileObject moneyFileObject = JavaFileObjects.forSourceLines(
+        "foo.bar.Money",
+        "package foo.bar;",
+        "",
+        "public final class Money {",
+        "  final long micros;",
+        "",
+        "  Money(long micros) {",
+        "    this.micros = micros;",
+        "  }",
+        "}");
+    JavaFileObject moneyCodecFileObject = JavaFileObjects.forSourceLines(
+        "foo.bar.MoneyCodec",
+        "package foo.bar;",
+        "",
+        "import android.os.Parcel;",
+        "",
+        "final class MoneyCodec {",
+        "  static void writeToParcel(Money value, Parcel dest) {",
+        "    dest.writeLong(value.micros);",
+        "  }",
+        "",
+        "  static Money createFromParcel(Parcel in) {",
+        "    return new Money(in.readLong());",
+        "  }",
+        "}");
+    JavaFileObject expectedOutput = JavaFileObjects.forSourceLines(
+        "foo.bar.AutoParcel_Baz",
+        "package foo.bar;",
+        "",
+        "import java.util.List;",
+        "",
+        "final class AutoParcel_Baz extends Baz {",
+        "",
+        "  private final Money price;",
+        "  private final Money discount;",
+        "  private final List<Money> history;",
+        "",
+        "  AutoParcel_Baz(",
+        "      Money price,",
+        "      Money discount,",
+        "      List<Money> history) {",
+        "    if (price == null) {",
+        "      throw new NullPointerException(\"Null price\");",
+        "    }",
+        "    this.price = price;",
+        "    this.discount = discount;",
+        "    if (history == null) {",
+        "      throw new NullPointerException(\"Null history\");",
+        "    }",
+        "    this.history = history;",
+        "  }",
+        "",
+        "  @Override",
+        "  public Money price() {",
+        "    return price;",
+        "  }",
+        "",
+        "  @javax.annotation.Nullable",
+        "  @Override",
+        "  public Money discount() {",
+        "    return discount;",
+        "  }",
+        "",
+        "  @Override",
+        "  public List<Money> history() {",
+        "    return history;",
+        "  }",
+        "",
+        "  @Override",
+        "  public String toString() {",
+        "    return \"Baz{\"",
+        "        + \"price=\" + price + \", \"",
+        "        + \"discount=\" + discount + \", \"",
+        "        + \"history=\" + history",
+        "        + \"}\";",
+        "  }",
+        "",
+        "  @Override",
+        "  public boolean equals(Object o) {",
+        "    if (o == this) {",
+        "      return true;",
+        "    }",
+        "    if (o instanceof AutoParcel_Baz) {",
+        "      AutoParcel_Baz that = (AutoParcel_Baz) o;",
+        "      return (this.price == that.price || this.price.equals(that.price))",
+        "           && (this.discount == that.discount || (this.discount != null &&"
+            + " this.discount.equals(that.discount)))",
+        "           && (this.history == that.history || this.history.equals(that.history));",
+        "    }",
+        "    if (o instanceof Baz) {",
+        "      Baz that = (Baz) o;",
+        "      return (this.price.equals(that.price()))",
+        "           && ((this.discount == null) ? (that.discount() == null) :"
+            + " this.discount.equals(that.discount()))",
+        "           && (this.history.equals(that.history()));",
+        "    }",
+        "    return false;",
+        "  }",
+        "",
+        "  @Override",
+        "  public int hashCode() {",
+        "    int h = 1;",
+        "    h *= 1000003;",
+        "    h ^= price.hashCode();",
+        "    h *= 1000003;",
+        "    h ^= (discount == null) ? 0 : discount.hashCode();",
+        "    h *= 1000003;",
+        "    h ^= history.hashCode();",
+        "    return h;",
+        "  }",
+        "",
+        "  public static final android.os.Parcelable.Creator<AutoParcel_Baz> CREATOR = new"
+            + " android.os.Parcelable.Creator<AutoParcel_Baz>() {",
+        "    @Override",
+        "    public AutoParcel_Baz createFromParcel(android.os.Parcel in) {",
+        "      return new AutoParcel_Baz(in);",
+        "    }",
+        "    @Override",
+        "    public AutoParcel_Baz[] newArray(int size) {",
+        "      return new AutoParcel_Baz[size];",
+        "    }",
+        "  };",
+        "",
+        "  private final static java.lang.ClassLoader CL = AutoParcel_Baz.class.getClassLoader();",
+        "",
+        "  private AutoParcel_Baz(android.os.Parcel in) {",
+        "    int nonNull$ = in.readInt();",
+        "    this.price = foo.bar.MoneyCodec.createFromParcel(in);",
+        "    if (this.price == null) {",
+        "      throw new NullPointerException(\"Null price\");",
+        "    }",
+        "    this.discount = (nonNull$ & 0x1) != 0 ? foo.bar.MoneyCodec.createFromParcel(in) :"
+            + " null;",
+        "    int size$0 = in.readInt();",
+        "    List<Money> collection$1 = new java.util.ArrayList<Money>(size$0);",
+        "    for (int i$2 = 0; i$2 < size$0; i$2++) {",
+        "      collection$1.add(in.readInt() == 0 ? null :"
+            + " foo.bar.MoneyCodec.createFromParcel(in));",
+        "    }",
+        "    this.history = collection$1;",
+        "  }",
+        "",
+        "  @Override",
+        "  public void writeToParcel(android.os.Parcel dest, int flags) {",
+        "    dest.writeInt((discount != null ? 0x1 : 0));",
+        "    foo.bar.MoneyCodec.writeToParcel(price, dest);",
+        "    if (discount != null) {",
+        "      foo.bar.MoneyCodec.writeToParcel(discount, dest);",
+        "    }",
+        "    dest.writeInt(history.size());",
+        "    for (Money element$0 : history) {",
+        "      if (element$0 == null) {",
+        "        dest.writeInt(0);",
+        "      } else {",
+        "        dest.writeInt(1);",
+        "        foo.bar.MoneyCodec.writeToParcel(element$0, dest);",
+        "      }",
+        "    }",
+        "  }",
+        "",
+        "  @Override",
+        "  public int describeContents() {",
+        "    return 0;",
+        "  }",
+        "",
+        "}");
+    assertAbout(javaSources())
+        .that(ImmutableList.of(bazFileObject, moneyFileObject, moneyCodecFileObject))
+        .processedWith(new AutoParcelProcessor())
+        .compilesWithoutError()
+        .and()
+        .generatesSources(expectedOutput);
+  }
+
+  public void testParcelableStringTable() throws Exception {
+    JavaFileObject javaFileObject = JavaFileObjects.forSourceLines(
+        "foo.bar.Baz",
+        "package foo.bar;",
+        "",
+        "import android.os.Parcelable;",
+        "import auto.parcel.AutoParcel;",
+        "",
+        "import java.util.List;",
+        "import javax.annotation.Nullable;",
+        "",
+        "@AutoParcel(stringTable = true)",
+        "public abstract class Baz implements Parcelable {",
+        "  public abstract String name();",
+        "  public abstract List<String> tags();",
+        "  @Nullable public abstract Baz parent();",
+        "",
+        "  public static Baz create(String name, List<String> tags, Baz parent) {",
+        "    return new AutoParcel_Baz(name, tags, parent);",
+        "  }",
+        "}");
+    JavaFileObject expectedOutput = JavaFileObjects.forSourceLines(
+        "foo.bar.gen",
+        "package foo.bar;",
+        "",
+        "import auto.parcel.AutoParcelTables;",
+        "import java.util.List;",
+        "",
+        "final class AutoParcel_Baz extends Baz {",
+        "",
+        "  private final String name;",
+        "  private final List<String> tags;",
+        "  private final Baz parent;",
+        "",
+        "  AutoParcel_Baz(",
+        "      String name,",
+        "      List<String> tags,",
+        "      Baz parent) {",
+        "    if (name == null) {",
+        "      throw new NullPointerException(\"Null name\");",
+        "    }",
+        "    this.name = name;",
+        "    if (tags == null) {",
+        "      throw new NullPointerException(\"Null tags\");",
+        "    }",
+        "    this.tags = tags;",
+        "    this.parent = parent;",
+        "  }",
+        "",
+        "  @Override",
+        "  public String name() {",
+        "    return name;",
+        "  }",
+        "",
+        "  @Override",
+        "  public List<String> tags() {",
+        "    return tags;",
+        "  }",
+        "",
+        "  @javax.annotation.Nullable",
+        "  @Override",
+        "  public Baz parent() {",
+        "    return parent;",
+        "  }",
+        "",
+        "  @Override",
+        "  public String toString() {",
+        "    return \"Baz{\"",
+        "        + \"name=\" + name + \", \"",
+        "        + \"tags=\" + tags + \", \"",
+        "        + \"parent=\" + parent",
+        "        + \"}\";",
+        "  }",
+        "",
+        "  @Override",
+        "  public boolean equals(Object o) {",
+        "    if (o == this) {",
+        "      return true;",
+        "    }",
+        "    if (o instanceof AutoParcel_Baz) {",
+        "      AutoParcel_Baz that = (AutoParcel_Baz) o;",
+        "      return (this.name == that.name || this.name.equals(that.name))",
+        "           && (this.parent == that.parent || (this.parent != null &&"
+            + " this.parent.equals(that.parent)))",
+        "           && (this.tags == that.tags || this.tags.equals(that.tags));",
+        "    }",
+        "    if (o instanceof Baz) {",
+        "      Baz that = (Baz) o;",
+        "      return (this.name.equals(that.name()))",
+        "           && (this.tags.equals(that.tags()))",
+        "           && ((this.parent == null) ? (that.parent() == null) :"
+            + " this.parent.equals(that.parent()));",
+        "    }",
+        "    return false;",
+        "  }",
+        "",
+        "  @Override",
+        "  public int hashCode() {",
+        "    int h = 1;",
+        "    h *= 1000003;",
+        "    h ^= name.hashCode();",
+        "    h *= 1000003;",
+        "    h ^= tags.hashCode();",
+        "    h *= 1000003;",
+        "    h ^= (parent == null) ? 0 : parent.hashCode();",
+        "    return h;",
+        "  }",
+        "",
+        "  public static final android.os.Parcelable.Creator<AutoParcel_Baz> CREATOR = new"
+            + " android.os.Parcelable.Creator<AutoParcel_Baz>() {",
+        "    @Override",
+        "    public AutoParcel_Baz createFromParcel(android.os.Parcel in) {",
+        "      return AutoParcel_Baz.createFromParcel(in, new AutoParcelTables());",
+        "    }",
+        "    @Override",
+        "    public AutoParcel_Baz[] newArray(int size) {",
+        "      return new AutoParcel_Baz[size];",
+        "    }",
+        "  };",
+        "",
+        "  static AutoParcel_Baz createFromParcel(android.os.Parcel in, AutoParcelTables"
+            + " tables$) {",
+        "      return new AutoParcel_Baz(in, tables$);",
+        "  }",
+        "",
+        "  private final static java.lang.ClassLoader CL = AutoParcel_Baz.class.getClassLoader();",
+        "",
+        "  private AutoParcel_Baz(android.os.Parcel in, AutoParcelTables tables$) {",
+        "    int nonNull$ = in.readInt();",
+        "    int index$0 = in.readInt();",
+        "    this.name = index$0 < 0 ? tables$.addString(in.readString())"
+            + " : tables$.getString(index$0);",
+        "    if (this.name == null) {",
+        "      throw new NullPointerException(\"Null name\");",
+        "    }",
+        "    int size$1 = in.readInt();",
+        "    List<String> collection$2 = new java.util.ArrayList<String>(size$1);",
+        "    for (int i$3 = 0; i$3 < size$1; i$3++) {",
+        "      String value$4;",
+        "      if (in.readInt() == 0) {",
+        "        value$4 = null;",
+        "      } else {",
+        "        int index$5 = in.readInt();",
+        "        value$4 = index$5 < 0 ? tables$.addString(in.readString())"
+            + " : tables$.getString(index$5);",
+        "      }",
+        "      collection$2.add(value$4);",
+        "    }",
+        "    this.tags = collection$2;",
+        "    this.parent = (nonNull$ & 0x1) != 0 ? (in.readInt() != 0"
+            + " ? AutoParcel_Baz.createFromParcel(in, tables$)"
+            + " : AutoParcel_Baz.CREATOR.createFromParcel(in)) : null;",
+        "  }",
+        "",
+        "  @Override",
+        "  public void writeToParcel(android.os.Parcel dest, int flags) {",
+        "    writeToParcel(dest, flags, new AutoParcelTables());",
+        "  }",
+        "",
+        "  void writeToParcel(android.os.Parcel dest, int flags, AutoParcelTables tables$) {",
+        "    dest.writeInt((parent != null ? 0x1 : 0));",
+        "    int index$0 = tables$.indexOfString(name);",
+        "    dest.writeInt(index$0);",
+        "    if (index$0 < 0) {",
+        "      dest.writeString(name);",
+        "    }",
+        "    dest.writeInt(tags.size());",
+        "    for (String element$1 : tags) {",
+        "      if (element$1 == null) {",
+        "        dest.writeInt(0);",
+        "      } else {",
+        "        dest.writeInt(1);",
+        "        int index$2 = tables$.indexOfString(element$1);",
+        "        dest.writeInt(index$2);",
+        "        if (index$2 < 0) {",
+        "          dest.writeString(element$1);",
+        "        }",
+        "      }",
+        "    }",
+        "    if (parent != null) {",
+        "      if (parent instanceof AutoParcel_Baz) {",
+        "        dest.writeInt(1);",
+        "        ((AutoParcel_Baz) parent).writeToParcel(dest, flags, tables$);",
+        "      } else {",
+        "        dest.writeInt(0);",
+        "        parent.writeToParcel(dest, flags);",
+        "      }",
+        "    }",
+        "  }",
+        "",
+        "  @Override",
+        "  public int describeContents() {",
+        "    return 0;",
+        "  }",
+        "",
+        "}");
+    assertAbout(javaSource())
+        .that(javaFileObject)
+        .processedWith(new AutoParcelProcessor())
+        .compilesWithoutError()
+        .and()
+        .generatesSources(expectedOutput);
+  }
+
+  public void testParcelableGraph() throws Exception {
+    JavaFileObject javaFileObject = JavaFileObjects.forSourceLines(
+        "foo.bar.Baz",
+        "package foo.bar;",
+        "",
+        "import android.os.Parcelable;",
+        "import auto.parcel.AutoParcel;",
+        "",
+        "import java.util.List;",
+        "import javax.annotation.Nullable;",
+        "",
+        "@AutoParcel(graph = true)",
+        "public abstract class Baz implements Parcelable {",
+        "  public abstract List<Baz> friends();",
+        "  @Nullable public abstract Baz partner();",
+        "",
+        "  public static Baz create(List<Baz> friends, Baz partner) {",
+        "    return new AutoParcel_Baz(friends, partner);",
+        "  }",
+        "}");
+    JavaFileObject expectedOutput = JavaFileObjects.forSourceLines(
+        "foo.bar.gen",
+        "package foo.bar;",
+        "",
+        "import auto.parcel.AutoParcelTables;",
+        "import java.util.List;",
+        "",
+        "final class AutoParcel_Baz extends Baz {",
+        "",
+        "  private final List<Baz> friends;",
+        "  private final Baz partner;",
+        "",
+        "  AutoParcel_Baz(",
+        "      List<Baz> friends,",
+        "      Baz partner) {",
+        "    if (friends == null) {",
+        "      throw new NullPointerException(\"Null friends\");",
+        "    }",
+        "    this.friends = friends;",
+        "    this.partner = partner;",
+        "  }",
+        "",
+        "  @Override",
+        "  public List<Baz> friends() {",
+        "    return friends;",
+        "  }",
+        "",
+        "  @javax.annotation.Nullable",
+        "  @Override",
+        "  public Baz partner() {",
+        "    return partner;",
+        "  }",
+        "",
+        "  @Override",
+        "  public String toString() {",
+        "    return \"Baz{\"",
+        "        + \"friends=\" + friends + \", \"",
+        "        + \"partner=\" + partner",
+        "        + \"}\";",
+        "  }",
+        "",
+        "  @Override",
+        "  public boolean equals(Object o) {",
+        "    if (o == this) {",
+        "      return true;",
+        "    }",
+        "    if (o instanceof AutoParcel_Baz) {",
+        "      AutoParcel_Baz that = (AutoParcel_Baz) o;",
+        "      return (this.partner == that.partner || (this.partner != null &&"
+            + " this.partner.equals(that.partner)))",
+        "           && (this.friends == that.friends || this.friends.equals(that.friends));",
+        "    }",
+        "    if (o instanceof Baz) {",
+        "      Baz that = (Baz) o;",
+        "      return (this.friends.equals(that.friends()))",
+        "           && ((this.partner == null) ? (that.partner() == null) :"
+            + " this.partner.equals(that.partner()));",
+        "    }",
+        "    return false;",
+        "  }",
+        "",
+        "  @Override",
+        "  public int hashCode() {",
+        "    int h = 1;",
+        "    h *= 1000003;",
+        "    h ^= friends.hashCode();",
+        "    h *= 1000003;",
+        "    h ^= (partner == null) ? 0 : partner.hashCode();",
+        "    return h;",
+        "  }",
+        "",
+        "  public static final android.os.Parcelable.Creator<AutoParcel_Baz> CREATOR = new"
+            + " android.os.Parcelable.Creator<AutoParcel_Baz>() {",
+        "    @Override",
+        "    public AutoParcel_Baz createFromParcel(android.os.Parcel in) {",
+        "      return AutoParcel_Baz.createFromParcel(in, new AutoParcelTables());",
+        "    }",
+        "    @Override",
+        "    public AutoParcel_Baz[] newArray(int size) {",
+        "      return new AutoParcel_Baz[size];",
+        "    }",
+        "  };",
+        "",
+        "  static AutoParcel_Baz createFromParcel(android.os.Parcel in, AutoParcelTables tables$)"
+            + " {",
+        "      return new AutoParcel_Baz(in, tables$);",
+        "  }",
+        "",
+        "  private final static java.lang.ClassLoader CL = AutoParcel_Baz.class.getClassLoader();",
+        "",
+        "  private AutoParcel_Baz(android.os.Parcel in, AutoParcelTables tables$) {",
+        "    int nonNull$ = in.readInt();",
+        "    int size$0 = in.readInt();",
+        "    List<Baz> collection$1 = new java.util.ArrayList<Baz>(size$0);",
+        "    for (int i$2 = 0; i$2 < size$0; i$2++) {",
+        "      Baz value$3;",
+        "      if (in.readInt() == 0) {",
+        "        value$3 = null;",
+        "      } else {",
+        "        int id$4 = in.readInt();",
+        "        value$3 = id$4 < 0 ? tables$.addValue((in.readInt() != 0"
+            + " ? AutoParcel_Baz.createFromParcel(in, tables$)"
+            + " : AutoParcel_Baz.CREATOR.createFromParcel(in))) : (Baz) tables$.getValue(id$4);",
+        "      }",
+        "      collection$1.add(value$3);",
+        "    }",
+        "    this.friends = collection$1;",
+        "    if ((nonNull$ & 0x1) != 0) {",
+        "      int id$5 = in.readInt();",
+        "      this.partner = id$5 < 0 ? tables$.addValue((in.readInt() != 0"
+            + " ? AutoParcel_Baz.createFromParcel(in, tables$)"
+            + " : AutoParcel_Baz.CREATOR.createFromParcel(in))) : (Baz) tables$.getValue(id$5);",
+        "    } else {",
+        "      this.partner = null;",
+        "    }",
+        "  }",
+        "",
+        "  @Override",
+        "  public void writeToParcel(android.os.Parcel dest, int flags) {",
+        "    writeToParcel(dest, flags, new AutoParcelTables());",
+        "  }",
+        "",
+        "  void writeToParcel(android.os.Parcel dest, int flags, AutoParcelTables tables$) {",
+        "    dest.writeInt((partner != null ? 0x1 : 0));",
+        "    dest.writeInt(friends.size());",
+        "    for (Baz element$0 : friends) {",
+        "      if (element$0 == null) {",
+        "        dest.writeInt(0);",
+        "      } else {",
+        "        dest.writeInt(1);",
+        "        int id$1 = tables$.beginValue(element$0);",
+        "        dest.writeInt(id$1);",
+        "        if (id$1 < 0) {",
+        "          if (element$0 instanceof AutoParcel_Baz) {",
+        "            dest.writeInt(1);",
+        "            ((AutoParcel_Baz) element$0).writeToParcel(dest, flags, tables$);",
+        "          } else {",
+        "            dest.writeInt(0);",
+        "            element$0.writeToParcel(dest, flags);",
+        "          }",
+        "          tables$.endValue(element$0);",
+        "        }",
+        "      }",
+        "    }",
+        "    if (partner != null) {",
+        "      int id$2 = tables$.beginValue(partner);",
+        "      dest.writeInt(id$2);",
+        "      if (id$2 < 0) {",
+        "        if (partner instanceof AutoParcel_Baz) {",
+        "          dest.writeInt(1);",
+        "          ((AutoParcel_Baz) partner).writeToParcel(dest, flags, tables$);",
+        "        } else {",
+        "          dest.writeInt(0);",
+        "          partner.writeToParcel(dest, flags);",
+        "        }",
+        "        tables$.endValue(partner);",
+        "      }",
+        "    }",
+        "  }",
+        "",
+        "  @Override",
+        "  public int describeContents() {",
+        "    return 0;",
+        "  }",
+        "",
+        "}");
+    assertAbout(javaSource())
+        .that(javaFileObject)
+        .processedWith(new AutoParcelProcessor())
+        .compilesWithoutError()
+        .and()
+        .generatesSources(expectedOutput);
+  }
+
+  public void testParcelableLazy() throws Exception {
+    JavaFileObject javaFileObject = JavaFileObjects.forSourceLines(
+        "foo.bar.Baz",
+        "package foo.bar;",
+        "",
+        "import android.os.Parcelable;",
+        "import auto.parcel.AutoParcel;",
+        "",
+        "import java.util.List;",
+        "",
+        "@AutoParcel",
+        "public abstract class Baz implements Parcelable {",
+        "  public abstract int id();",
+        "  @AutoParcel.LazyParcel public abstract List<String> names();",
+        "",
+        "  public static Baz create(int id, List<String> names) {",
+        "    return new AutoParcel_Baz(id, names);",
+        "  }",
+        "}");
+    JavaFileObject expectedOutput = JavaFileObjects.forSourceLines(
+        "foo.bar.gen",
+        "package foo.bar;",
+        "",
+        "import java.util.List;",
+        "",
+        "final class AutoParcel_Baz extends Baz {",
+        "",
+        "  private final int id;",
+        "  private final List<String> names;",
+        "  private final byte[] parcel$names;",
+        "  private transient volatile List<String> decoded$names;",
+        "",
+        "  AutoParcel_Baz(",
+        "      int id,",
+        "      List<String> names) {",
+        "    this.id = id;",
+        "    if (names == null) {",
+        "      throw new NullPointerException(\"Null names\");",
+        "    }",
+        "    this.names = names;",
+        "    this.parcel$names = null;",
+        "  }",
+        "",
+        "  @Override",
+        "  public int id() {",
+        "    return id;",
+        "  }",
+        "",
+        "  @auto.parcel.AutoParcel.LazyParcel",
+        "  @Override",
+        "  public List<String> names() {",
+        "    if (parcel$names == null) {",
+        "      return names;",
+        "    }",
+        "    List<String> value$ = decoded$names;",
+        "    return value$ != null ? value$ : unmarshall$names();",
+        "  }",
+        "",
+        "  @Override",
+        "  public String toString() {",
+        "    return \"Baz{\"",
+        "        + \"id=\" + id + \", \"",
+        "        + \"names=\" + names()",
+        "        + \"}\";",
+        "  }",
+        "",
+        "  @Override",
+        "  public boolean equals(Object o) {",
+        "    if (o == this) {",
+        "      return true;",
+        "    }",
+        "    if (o instanceof AutoParcel_Baz) {",
+        "      AutoParcel_Baz that = (AutoParcel_Baz) o;",
+        "      return (this.id == that.id)",
+        "           && (this.names().equals(that.names()));",
+        "    }",
+        "    if (o instanceof Baz) {",
+        "      Baz that = (Baz) o;",
+        "      return (this.id == that.id())",
+        "           && (this.names().equals(that.names()));",
+        "    }",
+        "    return false;",
+        "  }",
+        "",
+        "  @Override",
+        "  public int hashCode() {",
+        "    int h = 1;",
+        "    h *= 1000003;",
+        "    h ^= id;",
+        "    h *= 1000003;",
+        "    h ^= names().hashCode();",
+        "    return h;",
+        "  }",
+        "",
+        "  public static final android.os.Parcelable.Creator<AutoParcel_Baz> CREATOR = new"
+            + " android.os.Parcelable.Creator<AutoParcel_Baz>() {",
+        "    @Override",
+        "    public AutoParcel_Baz createFromParcel(android.os.Parcel in) {",
+        "      return new AutoParcel_Baz(in);",
+        "    }",
+        "    @Override",
+        "    public AutoParcel_Baz[] newArray(int size) {",
+        "      return new AutoParcel_Baz[size];",
+        "    }",
+        "  };",
+        "",
+        "  private final static java.lang.ClassLoader CL = AutoParcel_Baz.class.getClassLoader();",
+        "",
+        "  private AutoParcel_Baz(android.os.Parcel in) {",
+        "    this.id = in.readInt();",
+        "    this.names = null;",
+        "    this.parcel$names = in.createByteArray();",
+        "    if (this.parcel$names == null) {",
+        "      throw new NullPointerException(\"Null names\");",
+        "    }",
+        "  }",
+        "",
+        "  @Override",
+        "  public void writeToParcel(android.os.Parcel dest, int flags) {",
+        "    dest.writeInt(id);",
+        "    dest.writeByteArray(marshall$names(flags));",
+        "  }",
+        "",
+        "  private byte[] marshall$names(int flags) {",
+        "    if (parcel$names != null) {",
+        "      return parcel$names;",
+        "    }",
+        "    android.os.Parcel dest = android.os.Parcel.obtain();",
+        "    try {",
+        "      dest.writeInt(names.size());",
+        "      for (String element$0 : names) {",
+        "        dest.writeString(element$0);",
+        "      }",
+        "      return dest.marshall();",
+        "    } finally {",
+        "      dest.recycle();",
+        "    }",
+        "  }",
+        "",
+        "  private synchronized List<String> unmarshall$names() {",
+        "    List<String> value$ = decoded$names;",
+        "    if (value$ == null) {",
+        "      android.os.Parcel in = android.os.Parcel.obtain();",
+        "      try {",
+        "        in.unmarshall(parcel$names, 0, parcel$names.length);",
+        "        in.setDataPosition(0);",
+        "        int size$0 = in.readInt();",
+        "        List<String> collection$1 = new java.util.ArrayList<String>(size$0);",
+        "        for (int i$2 = 0; i$2 < size$0; i$2++) {",
+        "          collection$1.add(in.readString());",
+        "        }",
+        "        value$ = collection$1;",
+        "      } finally {",
+        "        in.recycle();",
+        "      }",
+        "      decoded$names = value$;",
+        "    }",
+        "    return value$;",
+        "  }",
+        "",
+        "  @Override",
+        "  public int describeContents() {",
+        "    return 0;",
+        "  }",
+        "",
+        "}");
+    assertAbout(javaSource())
+        .that(javaFileObject)
+        .processedWith(new AutoParcelProcessor())
+        .compilesWithoutError()
+        .and()
+        .generatesSources(expectedOutput);
+  }
+
+  public void testParcelableCached() throws Exception {
+    JavaFileObject javaFileObject = JavaFileObjects.forSourceLines(
+        "foo.bar.Baz",
+        "package foo.bar;",
+        "",
+        "import android.os.Parcelable;",
+        "import auto.parcel.AutoParcel;",
+        "",
+        "import java.util.List;",
+        "",
+        "@AutoParcel(parcelCacheThreshold = 256)",
+        "public abstract class Baz implements Parcelable {",
+        "  public abstract String name();",
+        "  public abstract List<String> values();",
+        "",
+        "  public static Baz create(String name, List<String> values) {",
+        "    return new AutoParcel_Baz(name, values);",
+        "  }",
+        "}");
+    JavaFileObject expectedOutput = JavaFileObjects.forSourceLines(
+        "foo.bar.gen",
+        "package foo.bar;",
+        "",
+        "import java.util.List;",
+        "",
+        "final class AutoParcel_Baz extends Baz {",
+        "",
+        "  private final String name;",
+        "  private final List<String> values;",
+        "",
+        "  private transient volatile android.os.Parcel marshalled$;",
+        "",
+        "  AutoParcel_Baz(",
+        "      String name,",
+        "      List<String> values) {",
+        "    if (name == null) {",
+        "      throw new NullPointerException(\"Null name\");",
+        "    }",
+        "    this.name = name;",
+        "    if (values == null) {",
+        "      throw new NullPointerException(\"Null values\");",
+        "    }",
+        "    this.values = values;",
+        "  }",
+        "",
+        "  @Override",
+        "  public String name() {",
+        "    return name;",
+        "  }",
+        "",
+        "  @Override",
+        "  public List<String> values() {",
+        "    return values;",
+        "  }",
+        "",
+        "  @Override",
+        "  public String toString() {",
+        "    return \"Baz{\"",
+        "        + \"name=\" + name + \", \"",
+        "        + \"values=\" + values",
+        "        + \"}\";",
+        "  }",
+        "",
+        "  @Override",
+        "  public boolean equals(Object o) {",
+        "    if (o == this) {",
+        "      return true;",
+        "    }",
+        "    if (o instanceof AutoParcel_Baz) {",
+        "      AutoParcel_Baz that = (AutoParcel_Baz) o;",
+        "      return (this.name == that.name || this.name.equals(that.name))",
+        "           && (this.values == that.values || this.values.equals(that.values));",
+        "    }",
+        "    if (o instanceof Baz) {",
+        "      Baz that = (Baz) o;",
+        "      return (this.name.equals(that.name()))",
+        "           && (this.values.equals(that.values()));",
+        "    }",
+        "    return false;",
+        "  }",
+        "",
+        "  @Override",
+        "  public int hashCode() {",
+        "    int h = 1;",
+        "    h *= 1000003;",
+        "    h ^= name.hashCode();",
+        "    h *= 1000003;",
+        "    h ^= values.hashCode();",
+        "    return h;",
+        "  }",
+        "",
+        "  public static final android.os.Parcelable.Creator<AutoParcel_Baz> CREATOR = new"
+            + " android.os.Parcelable.Creator<AutoParcel_Baz>() {",
+        "    @Override",
+        "    public AutoParcel_Baz createFromParcel(android.os.Parcel in) {",
+        "      return new AutoParcel_Baz(in);",
+        "    }",
+        "    @Override",
+        "    public AutoParcel_Baz[] newArray(int size) {",
+        "      return new AutoParcel_Baz[size];",
+        "    }",
+        "  };",
+        "",
+        "  private final static java.lang.ClassLoader CL = AutoParcel_Baz.class.getClassLoader();",
+        "",
+        "  private AutoParcel_Baz(android.os.Parcel in) {",
+        "    this.name = in.readString();",
+        "    if (this.name == null) {",
+        "      throw new NullPointerException(\"Null name\");",
+        "    }",
+        "    int size$0 = in.readInt();",
+        "    List<String> collection$1 = new java.util.ArrayList<String>(size$0);",
+        "    for (int i$2 = 0; i$2 < size$0; i$2++) {",
+        "      collection$1.add(in.readString());",
+        "    }",
+        "    this.values = collection$1;",
+        "  }",
+        "",
+        "  @Override",
+        "  public void writeToParcel(android.os.Parcel dest, int flags) {",
+        "    android.os.Parcel cached = marshalled$;",
+        "    if (cached != null && flags == 0) {",
+        "      dest.appendFrom(cached, 0, cached.dataSize());",
+        "      return;",
+        "    }",
+        "    int start = dest.dataPosition();",
+        "    writeToParcel$(dest, flags);",
+        "    int size = dest.dataPosition() - start;",
+        "    if (size >= 256 && flags == 0) {",
+        "      android.os.Parcel marshalled = android.os.Parcel.obtain();",
+        "      marshalled.appendFrom(dest, start, size);",
+        "      marshalled$ = marshalled;",
+        "    }",
+        "  }",
+        "",
+        "  private void writeToParcel$(android.os.Parcel dest, int flags) {",
+        "    dest.writeString(name);",
+        "    dest.writeInt(values.size());",
+        "    for (String element$0 : values) {",
+        "      dest.writeString(element$0);",
+        "    }",
+        "  }",
+        "",
+        "  @Override",
+        "  public int describeContents() {",
+        "    return 0;",
+        "  }",
+        "",
+        "}");
+    assertAbout(javaSource())
+        .that(javaFileObject)
+        .processedWith(new AutoParcelProcessor())
+        .compilesWithoutError()
+        .and()
+        .generatesSources(expectedOutput);
+  }
+
+  public void testParcelableUtf8Strings() throws Exception {
+    JavaFileObject javaFileObject = JavaFileObjects.forSourceLines(
+        "foo.bar.Baz",
+        "package foo.bar;",
+        "",
+        "import android.os.Parcelable;",
+        "import auto.parcel.AutoParcel;",
+        "",
+        "import java.util.List;",
+        "",
+        "@AutoParcel(utf8Strings = true)",
+        "public abstract class Baz implements Parcelable {",
+        "  public abstract String name();",
+        "  public abstract List<String> values();",
+        "",
+        "  public static Baz create(String name, List<String> values) {",
+        "    return new AutoParcel_Baz(name, values);",
+        "  }",
+        "}");
+    JavaFileObject expectedOutput = JavaFileObjects.forSourceLines(
+        "foo.bar.gen",
+        "package foo.bar;",
+        "",
+        "import auto.parcel.AutoParcelStrings;",
+        "import java.util.List;",
+        "",
+        "final class AutoParcel_Baz extends Baz {",
+        "",
+        "  private final String name;",
+        "  private final List<String> values;",
+        "",
+        "  AutoParcel_Baz(",
+        "      String name,",
+        "      List<String> values) {",
+        "    if (name == null) {",
+        "      throw new NullPointerException(\"Null name\");",
+        "    }",
+        "    this.name = name;",
+        "    if (values == null) {",
+        "      throw new NullPointerException(\"Null values\");",
+        "    }",
+        "    this.values = values;",
+        "  }",
+        "",
+        "  @Override",
+        "  public String name() {",
+        "    return name;",
+        "  }",
+        "",
+        "  @Override",
+        "  public List<String> values() {",
+        "    return values;",
+        "  }",
+        "",
+        "  @Override",
+        "  public String toString() {",
+        "    return \"Baz{\"",
+        "        + \"name=\" + name + \", \"",
+        "        + \"values=\" + values",
+        "        + \"}\";",
+        "  }",
+        "",
+        "  @Override",
+        "  public boolean equals(Object o) {",
+        "    if (o == this) {",
+        "      return true;",
+        "    }",
+        "    if (o instanceof AutoParcel_Baz) {",
+        "      AutoParcel_Baz that = (AutoParcel_Baz) o;",
+        "      return (this.name == that.name || this.name.equals(that.name))",
+        "           && (this.values == that.values || this.values.equals(that.values));",
+        "    }",
+        "    if (o instanceof Baz) {",
+        "      Baz that = (Baz) o;",
+        "      return (this.name.equals(that.name()))",
+        "           && (this.values.equals(that.values()));",
+        "    }",
+        "    return false;",
+        "  }",
+        "",
+        "  @Override",
+        "  public int hashCode() {",
+        "    int h = 1;",
+        "    h *= 1000003;",
+        "    h ^= name.hashCode();",
+        "    h *= 1000003;",
+        "    h ^= values.hashCode();",
+        "    return h;",
+        "  }",
+        "",
+        "  public static final android.os.Parcelable.Creator<AutoParcel_Baz> CREATOR = new"
+            + " android.os.Parcelable.Creator<AutoParcel_Baz>() {",
+        "    @Override",
+        "    public AutoParcel_Baz createFromParcel(android.os.Parcel in) {",
+        "      return new AutoParcel_Baz(in);",
+        "    }",
+        "    @Override",
+        "    public AutoParcel_Baz[] newArray(int size) {",
+        "      return new AutoParcel_Baz[size];",
+        "    }",
+        "  };",
+        "",
+        "  private final static java.lang.ClassLoader CL = AutoParcel_Baz.class.getClassLoader();",
+        "",
+        "  private AutoParcel_Baz(android.os.Parcel in) {",
+        "    this.name = AutoParcelStrings.decodeUtf8(in.createByteArray());",
+        "    if (this.name == null) {",
+        "      throw new NullPointerException(\"Null name\");",
+        "    }",
+        "    int size$0 = in.readInt();",
+        "    List<String> collection$1 = new java.util.ArrayList<String>(size$0);",
+        "    for (int i$2 = 0; i$2 < size$0; i$2++) {",
+        "      collection$1.add(AutoParcelStrings.decodeUtf8(in.createByteArray()));",
+        "    }",
+        "    this.values = collection$1;",
+        "  }",
+        "",
+        "  @Override",
+        "  public void writeToParcel(android.os.Parcel dest, int flags) {",
+        "    dest.writeByteArray(AutoParcelStrings.encodeUtf8(name));",
+        "    dest.writeInt(values.size());",
+        "    for (String element$0 : values) {",
+        "      dest.writeByteArray(AutoParcelStrings.encodeUtf8(element$0));",
+        "    }",
+        "  }",
+        "",
+        "  @Override",
+        "  public int describeContents() {",
+        "    return 0;",
+        "  }",
+        "",
+        "}");
+    assertAbout(javaSource())
+        .that(javaFileObject)
+        .processedWith(new AutoParcelProcessor())
+        .compilesWithoutError()
+        .and()
+        .generatesSources(expectedOutput);
+  }
+
+  public void testPropertyCodecWithoutCodecMethods() throws Exception {
+    JavaFileObject javaFileObject = JavaFileObjects.forSourceLines(
+        "foo.bar.Baz",
+        "package foo.bar;",
+        "",
+        "import android.os.Parcelable;",
+        "import auto.parcel.AutoParcel;",
+        "import auto.parcel.PropertyCodec;",
+        "",
+        "@AutoParcel",
+        "public abstract class Baz implements Parcelable {",
+        "  @PropertyCodec(NotACodec.class)",
+        "  public abstract Object anObject();",
+        "",
+        "  static class NotACodec {",
+        "    static void writeToParcel(Object value) {}",
+        "  }",
+        "}");
+    assertAbout(javaSource())
+        .that(javaFileObject)
+        .processedWith(new AutoParcelProcessor())
+        .failsToCompile()
+        .withErrorContaining("foo.bar.Baz.NotACodec must declare static writeToParcel(T, Parcel)")
+        .in(javaFileObject).onLine(10);
+  }
+
+  public void testPropertyCodecWithoutCodecMethodsOrParcelable() throws Exception {
+    JavaFileObject javaFileObject = JavaFileObjects.forSourceLines(
+        "foo.bar.Baz",
+        "package foo.bar;",
+        "",
+        "import auto.parcel.AutoParcel;",
+        "import auto.parcel.PropertyCodec;",
+        "",
+        "@AutoParcel",
+        "public abstract class Baz {",
+        "  @PropertyCodec(NotACodec.class)",
+        "  public abstract Object anObject();",
+        "",
+        "  static class NotACodec {",
+        "    static void write(Object value) {}",
+        "  }",
+        "}");
+    assertAbout(javaSource())
+        .that(javaFileObject)
+        .processedWith(new AutoParcelProcessor())
+        .failsToCompile()
+        .withErrorContaining("foo.bar.Baz.NotACodec must declare static writeToParcel(T, Parcel)")
+        .in(javaFileObject).onLine(9);
+  }
+
+  public void testStringTableWithoutParcelable() throws Exception {
+    JavaFileObject javaFileObject = JavaFileObjects.forSourceLines(
+        "foo.bar.Baz",
+        "package foo.bar;",
+        "",
+        "import auto.parcel.AutoParcel;",
+        "",
+        "@AutoParcel(stringTable = true)",
+        "public abstract class Baz {",
+        "  public abstract String name();",
+        "}");
+    assertAbout(javaSource())
+        .that(javaFileObject)
+        .processedWith(new AutoParcelProcessor())
+        .failsToCompile()
+        .withErrorContaining("@AutoParcel(stringTable = true) and @AutoParcel(graph = true) only"
+            + " apply to a class that implements Parcelable")
+        .in(javaFileObject).onLine(6);
+  }
+
+  public void testUtf8StringsWithoutParcelable() throws Exception {
+    JavaFileObject javaFileObject = JavaFileObjects.forSourceLines(
+        "foo.bar.Baz",
+        "package foo.bar;",
+        "",
+        "import auto.parcel.AutoParcel;",
+        "",
+        "@AutoParcel(utf8Strings = true)",
+        "public abstract class Baz {",
+        "  public abstract String name();",
+        "}");
+    assertAbout(javaSource())
+        .that(javaFileObject)
+        .processedWith(new AutoParcelProcessor())
+        .failsToCompile()
+        .withErrorContaining(
+            "@AutoParcel(utf8Strings = true) only applies to a class that implements Parcelable")
+        .in(javaFileObject).onLine(6);
+  }
+
+  public void testLazyParcelWithoutParcelable() throws Exception {
+    JavaFileObject javaFileObject = JavaFileObjects.forSourceLines(
+        "foo.bar.Baz",
+        "package foo.bar;",
+        "",
+        "import auto.parcel.AutoParcel;",
+        "import java.util.List;",
+        "",
+        "@AutoParcel",
+        "public abstract class Baz {",
+        "  @AutoParcel.LazyParcel public abstract List<String> names();",
+        "}");
+    assertAbout(javaSource())
+        .that(javaFileObject)
+        .processedWith(new AutoParcelProcessor())
+        .failsToCompile()
+        .withErrorContaining(
+            "@AutoParcel.LazyParcel only applies to a class that implements Parcelable")
+        .in(javaFileObject).onLine(7);
+  }
+
+  public void testLazyParcelWithStringTable() throws Exception {
+    JavaFileObject javaFileObject = JavaFileObjects.forSourceLines(
+        "foo.bar.Baz",
+        "package foo.bar;",
+        "",
+        "import android.os.Parcelable;",
+        "import auto.parcel.AutoParcel;",
+        "import java.util.List;",
+        "",
+        "@AutoParcel(stringTable = true)",
+        "public abstract class Baz implements Parcelable {",
+        "  @AutoParcel.LazyParcel public abstract List<String> names();",
+        "}");
+    assertAbout(javaSource())
+        .that(javaFileObject)
+        .processedWith(new AutoParcelProcessor())
+        .failsToCompile()
+        .withErrorContaining("@AutoParcel.LazyParcel does not apply to a class with"
+            + " @AutoParcel(stringTable = true) or @AutoParcel(graph = true)")
+        .in(javaFileObject).onLine(8);
+  }
+
+  public void testLazyParcelWithBinders() throws Exception {
+    JavaFileObject javaFileObject = JavaFileObjects.forSourceLines(
+        "foo.bar.Baz",
+        "package foo.bar;",
+        "",
+        "import android.os.Bundle;",
+        "import android.os.Parcelable;",
+        "import auto.parcel.AutoParcel;",
+        "",
+        "import java.util.List;",
+        "",
+        "@AutoParcel",
+        "public abstract class Baz implements Parcelable {",
+        "  @AutoParcel.LazyParcel public abstract List<Bundle> extras();",
+        "}");
+    assertAbout(javaSource())
+        .that(javaFileObject)
+        .processedWith(new AutoParcelProcessor())
+        .failsToCompile()
+        .withErrorContaining("@AutoParcel.LazyParcel cannot apply to a property whose value may"
+            + " contain binders or file descriptors, which Parcel.marshall() rejects")
+        .in(javaFileObject).onLine(11);
+  }
+
+  public void testLazyParcelClassWithBinders() throws Exception {
+    // The annotation of the class leaves a property whose value may contain binders eager.
+    JavaFileObject javaFileObject = JavaFileObjects.forSourceLines(
+        "foo.bar.Baz",
+        "package foo.bar;",
+        "",
+        "import android.os.Bundle;",
+        "import android.os.Parcelable;",
+        "import auto.parcel.AutoParcel;",
+        "",
+        "import java.util.List;",
+        "",
+        "@AutoParcel",
+        "@AutoParcel.LazyParcel",
+        "public abstract class Baz implements Parcelable {",
+        "  public abstract List<Bundle> extras();",
+        "}");
+    assertAbout(javaSource())
+        .that(javaFileObject)
+        .processedWith(new AutoParcelProcessor())
+        .compilesWithoutError();
+  }
+
+  public void testLazyParcelOnPrimitive() throws Exception {
+    JavaFileObject javaFileObject = JavaFileObjects.forSourceLines(
+        "foo.bar.Baz",
+        "package foo.bar;",
+        "",
+        "import android.os.Parcelable;",
+        "import auto.parcel.AutoParcel;",
+        "",
+        "@AutoParcel",
+        "public abstract class Baz implements Parcelable {",
+        "  @AutoParcel.LazyParcel public abstract int id();",
+        "}");
+    assertAbout(javaSource())
+        .that(javaFileObject)
+        .processedWith(new AutoParcelProcessor())
+        .failsToCompile()
+        .withErrorContaining(
+            "@AutoParcel.LazyParcel can only apply to a property of a non-array reference type")
+        .in(javaFileObject).onLine(8);
+  }
+
   public void testAutoParcelBuilderOnTopLevelClass() throws Exception {
     JavaFileObject javaFileObject = JavaFileObjects.forSourceLines(
         "foo.bar.Builder",
@@ -128,6 +128,10 @@ public class PropertyAnnotationsTest extends TestCase {
             "    if (o == this) {",
             "      return true;",
             "    }",
+            "    if (o instanceof AutoParcel_Baz) {",
+            "      AutoParcel_Baz that = (AutoParcel_Baz) o;",
+            "      return (this.buh == that.buh);",
+            "    }",
             "    if (o instanceof Baz) {",
             "      Baz that = (Baz) o;",
             "      return (this.buh == that.buh());",
@@ -32,6 +32,25 @@ import java.lang.annotation.Target;
  *     abstract int id();
  *   }</pre>
  *
+ * <p>The class may also declare abstract <i>wither</i> methods such as
+ * {@code abstract Person withId(int id)}, which return a copy with one property changed. The
+ * generated implementation calls the constructor once, shares the other properties with the
+ * original, and returns the original itself if the new value is identical to the current one.
+ *
+ * <p>A property of primitive type {@code foo()} or {@code getFoo()} is optional if the class also
+ * declares {@code abstract boolean hasFoo()}. The generated class then stores the property in a
+ * primitive field, without boxing, and whether it is present in one bit of a field shared with the
+ * other optional properties. The constructor takes those fields as its last parameters, the
+ * getter of an absent property returns zero or false, and a builder leaves the property absent
+ * unless its setter is called. Since the pairing is inferred from the method names alone, the
+ * compiler reports a note for each property that it makes optional.
+ *
+ * <p>The generated {@code equals}, {@code hashCode} and {@code Parcel} code of a class with more
+ * than 64 properties is split into methods for 32 properties each. If such a class has a
+ * {@link Builder}, the generated class is constructed from the builder rather than from a
+ * constructor with a parameter per property, so it may have more properties than a Java method
+ * may have parameters.
+ *
  * @author Éamonn McManus
  * @author Kevin Bourrillion
  * @see <a href="https://github.com/frankiesardo/auto-parcel">AutoParcel User's Guide</a>
@@ -40,6 +59,86 @@ import java.lang.annotation.Target;
 @Target(ElementType.TYPE)
 public @interface AutoParcel {
 
+  /**
+   * If true, the generated {@code hashCode()} computes the hash code once and caches it in a
+   * field, and the generated {@code equals(Object)} returns false at once if both objects have
+   * cached hash codes that differ. The cache is written without synchronization, which is safe
+   * because an {@code int} is written atomically and every thread computes the same value. This
+   * suits classes that are often used as hash keys or have expensive properties to hash.
+   */
+  boolean cacheHashCode() default false;
+
+  /**
+   * If true, the generated class keeps a bounded cache of canonical instances, and the values made
+   * by its builder, its wither methods and its {@code Parcelable.Creator} are replaced by an equal
+   * cached instance when there is one. The generated class also has a static {@code intern}
+   * method that does the same for values made with its constructor. The cache holds weak
+   * references and replaces old entries with new ones, so it never keeps a value reachable, and
+   * equal values are usually but not always the same instance, so {@code equals} still compares
+   * the properties of two distinct instances. The {@code Parcelable.Creator} of a class with
+   * {@link LazyParcel} properties does not intern, since hashing a value decodes those properties.
+   * This suits classes whose values are often repeated, such as those decoded from a feed.
+   */
+  boolean intern() default false;
+
+  /**
+   * If true, the generated class stores its {@code boolean} properties, and those whose type is an
+   * enum with at most 256 constants, or 255 if the property is {@code @Nullable}, in the bits of
+   * shared {@code int} or {@code long} fields rather than in a field each, and its getters decode
+   * them. The generated {@code equals}, {@code hashCode} and {@code Parcel} code use the shared
+   * fields directly. This reduces the size of each instance of classes with many such properties.
+   */
+  boolean packed() default false;
+
+  /**
+   * If true, the generated {@code Parcel} code of a {@code Parcelable} class writes each distinct
+   * {@code String} only once per call of {@code writeToParcel}, including the strings of collection
+   * elements and of nested {@code @AutoParcel} values whose class sets this or {@link #graph()},
+   * and writes a small index for every later occurrence of it. Reading the {@code Parcel} then
+   * makes a single instance of each distinct string. This suits values with many repeated strings,
+   * such as lists of nested values that share a few names, but costs a hash lookup for every
+   * string written.
+   */
+  boolean stringTable() default false;
+
+  /**
+   * If true, an instance of the {@code Parcelable} class that is reached several times within one
+   * call of {@code writeToParcel} is written in full only the first time, and as a reference to
+   * that first occurrence after that, so reading the {@code Parcel} makes a single instance which
+   * every occurrence shares. This applies within every value whose class sets this or
+   * {@link #stringTable()}, and among the values nested in such a value. An instance that contains
+   * itself, through a mutable collection, cannot be written and makes {@code writeToParcel} throw
+   * {@link IllegalArgumentException}. This suits graphs of values such as people who list each
+   * other as friends, which would otherwise be written once per path that reaches them.
+   */
+  boolean graph() default false;
+
+  /**
+   * If true, the generated {@code Parcel} code of a {@code Parcelable} class writes each
+   * {@code String} property, collection element and map key or value as a length-prefixed byte
+   * array of its UTF-8 encoding rather than with {@code Parcel.writeString}, which takes two bytes
+   * per character. Strings that are entirely ASCII are copied to and from those bytes directly.
+   * This roughly halves the {@code Parcel} size of mostly-ASCII text such as identifiers and JSON,
+   * which keeps large transactions further from the binder size limit, at the cost of a byte array
+   * per string written or read.
+   *
+   * <p>Like {@link String#getBytes(java.nio.charset.Charset)}, the encoding replaces each unpaired
+   * surrogate with {@code '?'}, so a string that contains one, which is not valid UTF-16, is read
+   * back as a different string, and the value that contains it is then no longer equal to the one
+   * that was written.
+   */
+  boolean utf8Strings() default false;
+
+  /**
+   * If zero or more, the generated {@code writeToParcel} of a {@code Parcelable} class keeps a copy
+   * of what it writes if that takes at least this many bytes, and writes any later copy of the
+   * same object by appending the kept copy in bulk. Since the object is immutable, the copy never
+   * needs to be discarded. Only calls with no {@code flags} use or fill the copy. This suits values
+   * that are passed to many components, such as configurations and sessions, but each object keeps
+   * its copy for as long as it lives, so a threshold should exclude the small ones.
+   */
+  int parcelCacheThreshold() default -1;
+
   /**
    * Specifies that AutoParcel should generate an implementation of the annotated class or interface,
    * to serve as a <i>builder</i> for the value-type class it is nested within. As a simple example,
@@ -59,6 +158,10 @@ public @interface AutoParcel {
    *       Person build();
    *     }
    *   }</pre>
+   * <p>The builder may also declare a no-argument method called {@code reset()} or {@code clear()}
+   * that returns the builder. It forgets every property that has been set, so that one builder can
+   * be reused to build many values. A generated {@link AutoAdapter @AutoAdapter} reuses one builder
+   * per thread when the builder has such a method.</p>
    * <p><b>This API is provisional and subject to change.</b></p>
    *
    * @author Éamonn McManus
@@ -68,6 +171,65 @@ public @interface AutoParcel {
   public @interface Builder {
   }
 
+  /**
+   * Specifies that AutoParcel should override the annotated method in the generated class so that
+   * it calls the original implementation at most once and then returns the same result, which may
+   * be null. The method must be a non-private, non-final, non-static method with no parameters and
+   * a non-void result. The cached result is not part of {@code equals}, {@code hashCode},
+   * {@code toString} or the {@code Parcel} form. It is computed under a lock on the object the
+   * first time the method is called, so the original implementation should not itself lock on
+   * another object that may be waiting for this one.
+   */
+  @Retention(RetentionPolicy.CLASS)
+  @Target(ElementType.METHOD)
+  public @interface Memoized {
+  }
+
+  /**
+   * Specifies that the {@code Parcel} code of a {@code Parcelable} AutoParcel class should not
+   * decode a property when the object is read from a {@code Parcel}, but keep its encoded bytes
+   * and decode them the first time the getter is called. On the getter of a property of a
+   * non-array reference type this applies to that property, and on an {@code @AutoParcel} class it
+   * applies to all of its properties whose type is a {@code Collection}, a {@code Map} or another
+   * {@code @AutoParcel} class. The property is written as a length-prefixed block of bytes, which
+   * the object keeps, so that it writes them back unchanged whether or not it has decoded them.
+   * Decoding is synchronized and publishes its result through a {@code volatile} field, so the
+   * getter may be called from any thread, but {@code equals}, {@code hashCode} and
+   * {@code toString} decode every such property. This suits large values of which a reader
+   * usually needs only a few properties, such as one passed to an {@code Activity} that shows a
+   * summary of it. It does not apply to a class with more than 64 properties and a builder, nor to
+   * one with {@link AutoParcel#stringTable()} or {@link AutoParcel#graph()}.
+   *
+   * <p>The bytes are made with {@code Parcel.marshall()}, which rejects binders and file
+   * descriptors, so the annotation cannot apply to a property whose value may contain them: one
+   * written with {@code writeValue} as a {@code Parcelable} that is not an {@code @AutoParcel}
+   * class, an {@code IBinder} or an {@code Object}, or a collection, map or {@code @AutoParcel}
+   * class that contains one. It is an error on the getter of such a property, and the annotation
+   * of the class leaves such a property to be read at once.
+   */
+  @Retention(RetentionPolicy.CLASS)
+  @Target({ElementType.METHOD, ElementType.TYPE})
+  public @interface LazyParcel {
+  }
+
+  /**
+   * Specifies that AutoParcel should not copy the arrays of array-valued properties. On the getter
+   * of an array property this applies to that property, and on an {@code @AutoParcel} class it
+   * applies to all of its array properties. The generated getter then returns the array held by
+   * the object, and the builder setters and wither methods keep the array they are given, so the
+   * object takes ownership of it. Neither the caller nor the code that reads the property may
+   * modify the array afterwards.
+   *
+   * <p>Independently of this annotation, reading an array property {@code foo()} without copying
+   * it is always possible by declaring abstract methods {@code fooAt(int index)}, returning the
+   * element type, and {@code int fooLength()}, which the generated class implements by indexing
+   * the array it holds.
+   */
+  @Retention(RetentionPolicy.CLASS)
+  @Target({ElementType.METHOD, ElementType.TYPE})
+  public @interface SharedArrays {
+  }
+
   /**
    * Specifies that the annotated method is a validation method. The method should be a non-private
    * no-argument method in an AutoParcel class. It will be called by the {@code build()} method of
@@ -0,0 +1,27 @@
+package auto.parcel;
+
+/**
+ * Support code called by the builders that AutoParcel generates. It is public so that generated
+ * code in any package can reach it, but it is not part of the API.
+ */
+public final class AutoParcelBuilders {
+  private AutoParcelBuilders() {}
+
+  /**
+   * Returns the exception that a builder's {@code build()} method throws when some required
+   * properties have not been set. Bit {@code i} of {@code set}, counting on from one word of
+   * 64 bits to the next, is set if the property named {@code names[i]} has been set.
+   *
+   * <p>This is only called once a builder has already found that a property is missing, so the
+   * work of naming the missing properties is kept out of every generated {@code build()} method.
+   */
+  public static IllegalStateException missingProperties(String[] names, long... set) {
+    StringBuilder missing = new StringBuilder("Missing required properties:");
+    for (int i = 0; i < names.length; i++) {
+      if ((set[i >>> 6] & (1L << i)) == 0) {
+        missing.append(' ').append(names[i]);
+      }
+    }
+    return new IllegalStateException(missing.toString());
+  }
+}
@@ -0,0 +1,57 @@
+package auto.parcel;
+
+import java.lang.ref.WeakReference;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A bounded cache of canonical instances, used by the classes that AutoParcel generates for
+ * {@code @AutoParcel(intern = true)}. It is public so that generated code in any package can reach
+ * it, but it is not part of the API.
+ *
+ * <p>Each value has one slot, chosen by its hash code, which holds a weak reference to the last
+ * value interned there. Looking a value up takes no lock, and interning a value whose slot holds
+ * a different one replaces it, so the cache never grows beyond its capacity and never keeps a
+ * value reachable. The price is that interning is best effort: two equal values are usually, but
+ * not always, the same instance.
+ */
+public final class AutoParcelInterner<T> {
+  private static final int DEFAULT_CAPACITY = 1024;
+
+  private final AtomicReferenceArray<WeakReference<T>> slots;
+  private final int mask;
+
+  public AutoParcelInterner() {
+    this(DEFAULT_CAPACITY);
+  }
+
+  /** Creates a cache with room for {@code capacity} values, rounded up to a power of two. */
+  public AutoParcelInterner(int capacity) {
+    if (capacity <= 0) {
+      throw new IllegalArgumentException("Capacity must be positive: " + capacity);
+    }
+    int size = Integer.highestOneBit(capacity);
+    if (size < capacity) {
+      size <<= 1;
+    }
+    this.slots = new AtomicReferenceArray<WeakReference<T>>(size);
+    this.mask = size - 1;
+  }
+
+  /**
+   * Returns the cached value equal to {@code value} if there is one, and otherwise caches
+   * {@code value} and returns it.
+   */
+  public T intern(T value) {
+    int h = value.hashCode();
+    int index = (h ^ (h >>> 16)) & mask;
+    WeakReference<T> ref = slots.get(index);
+    if (ref != null) {
+      T cached = ref.get();
+      if (cached != null && cached.equals(value)) {
+        return cached;
+      }
+    }
+    slots.lazySet(index, new WeakReference<T>(value));
+    return value;
+  }
+}
@@ -0,0 +1,103 @@
+package auto.parcel;
+
+import java.nio.charset.Charset;
+
+/**
+ * Encodes strings as UTF-8 for the classes that AutoParcel generates for
+ * {@code @AutoParcel(utf8Strings = true)}, which write the bytes with {@code Parcel.writeByteArray}
+ * instead of writing the string with {@code Parcel.writeString}, which takes two bytes per
+ * character. It is public so that generated code in any package can reach it, but it is not part
+ * of the API.
+ *
+ * <p>Strings that are entirely ASCII, which is most of them, are copied between the string and
+ * a byte array of exactly the right size, without going through a {@link Charset}. Other strings
+ * are encoded by hand into a byte array of exactly the right size too, and decoded with the UTF-8
+ * {@code Charset}. Either way, encoding scans the string before allocating the only array it
+ * returns. Like {@link String#getBytes(Charset)}, encoding replaces an unpaired surrogate with
+ * {@code '?'}.
+ */
+public final class AutoParcelStrings {
+  private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+  private AutoParcelStrings() {}
+
+  /** Returns the UTF-8 encoding of {@code value}, or null if {@code value} is null. */
+  @SuppressWarnings("deprecation") // String.getBytes(int, int, byte[], int) is exact for ASCII.
+  public static byte[] encodeUtf8(String value) {
+    if (value == null) {
+      return null;
+    }
+    int length = value.length();
+    int i = 0;
+    while (i < length && value.charAt(i) < 0x80) {
+      i++;
+    }
+    byte[] bytes = new byte[i + encodedLength(value, i)];
+    value.getBytes(0, i, bytes, 0);
+    int pos = i;
+    for (; i < length; i++) {
+      char c = value.charAt(i);
+      if (c < 0x80) {
+        bytes[pos++] = (byte) c;
+      } else if (c < 0x800) {
+        bytes[pos++] = (byte) (0xc0 | c >> 6);
+        bytes[pos++] = (byte) (0x80 | c & 0x3f);
+      } else if (isSurrogatePair(value, i)) {
+        int codePoint = Character.toCodePoint(c, value.charAt(++i));
+        bytes[pos++] = (byte) (0xf0 | codePoint >> 18);
+        bytes[pos++] = (byte) (0x80 | codePoint >> 12 & 0x3f);
+        bytes[pos++] = (byte) (0x80 | codePoint >> 6 & 0x3f);
+        bytes[pos++] = (byte) (0x80 | codePoint & 0x3f);
+      } else if (Character.isSurrogate(c)) {
+        bytes[pos++] = '?';
+      } else {
+        bytes[pos++] = (byte) (0xe0 | c >> 12);
+        bytes[pos++] = (byte) (0x80 | c >> 6 & 0x3f);
+        bytes[pos++] = (byte) (0x80 | c & 0x3f);
+      }
+    }
+    return bytes;
+  }
+
+  /** Returns the string whose UTF-8 encoding is {@code bytes}, or null if {@code bytes} is null. */
+  @SuppressWarnings("deprecation") // String(byte[], int, int, int) is exact for ASCII.
+  public static String decodeUtf8(byte[] bytes) {
+    if (bytes == null) {
+      return null;
+    }
+    for (byte b : bytes) {
+      if (b < 0) {
+        return new String(bytes, UTF_8);
+      }
+    }
+    return new String(bytes, 0, 0, bytes.length);
+  }
+
+  /** Returns the number of bytes that encode the characters of {@code value} from {@code start}. */
+  private static int encodedLength(String value, int start) {
+    int size = 0;
+    int length = value.length();
+    for (int i = start; i < length; i++) {
+      char c = value.charAt(i);
+      if (c < 0x80) {
+        size += 1;
+      } else if (c < 0x800) {
+        size += 2;
+      } else if (isSurrogatePair(value, i)) {
+        size += 4;
+        i++;
+      } else if (Character.isSurrogate(c)) {
+        size += 1;
+      } else {
+        size += 3;
+      }
+    }
+    return size;
+  }
+
+  private static boolean isSurrogatePair(String value, int i) {
+    return Character.isHighSurrogate(value.charAt(i))
+        && i + 1 < value.length()
+        && Character.isLowSurrogate(value.charAt(i + 1));
+  }
+}
@@ -0,0 +1,92 @@
+package auto.parcel;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The strings and values written to or read from one {@code Parcel}, used by the classes that
+ * AutoParcel generates for {@code @AutoParcel(stringTable = true)} and
+ * {@code @AutoParcel(graph = true)}. It is public so that generated code in any package can reach
+ * it, but it is not part of the API.
+ *
+ * <p>The tables are built as the strings and values go by rather than written up front. The first
+ * occurrence of a string is written as {@code -1} followed by the string itself, and every later
+ * occurrence as the index that the first one was given. The reader gives the strings the same
+ * indices in the same order, so every occurrence of a string is read back as the same instance.
+ *
+ * <p>Values work the same way, except that a value is given its id only once it has been written
+ * completely, which is also when the reader has constructed it. A value that is reached again
+ * while it is still being written contains itself, and since it could not be constructed again
+ * from the {@code Parcel}, writing it fails.
+ */
+public final class AutoParcelTables {
+  private static final int WRITING = -1;
+
+  private final Map<String, Integer> stringIndices = new HashMap<String, Integer>();
+  private final List<String> strings = new ArrayList<String>();
+  private final Map<Object, Integer> valueIds = new IdentityHashMap<Object, Integer>();
+  private final List<Object> values = new ArrayList<Object>();
+  private int valueCount;
+
+  /**
+   * Returns the index of {@code value} if it has already been written, and otherwise gives it the
+   * next index and returns -1, meaning that the caller must write the string itself.
+   */
+  public int indexOfString(String value) {
+    Integer index = stringIndices.get(value);
+    if (index != null) {
+      return index;
+    }
+    stringIndices.put(value, stringIndices.size());
+    return -1;
+  }
+
+  /** Records {@code value}, which was read after a -1, under the next index and returns it. */
+  public String addString(String value) {
+    strings.add(value);
+    return value;
+  }
+
+  /** Returns the string that was read with the given index. */
+  public String getString(int index) {
+    return strings.get(index);
+  }
+
+  /**
+   * Returns the id of {@code value} if it has already been written, and otherwise returns -1,
+   * meaning that the caller must write the value itself and then call {@link #endValue}.
+   *
+   * @throws IllegalArgumentException if {@code value} is still being written.
+   */
+  public int beginValue(Object value) {
+    Integer id = valueIds.get(value);
+    if (id == null) {
+      valueIds.put(value, WRITING);
+      return -1;
+    }
+    if (id == WRITING) {
+      throw new IllegalArgumentException("Cannot write an instance of "
+          + value.getClass().getName() + " to a Parcel because it contains itself");
+    }
+    return id;
+  }
+
+  /** Gives {@code value}, which has now been written, the next id. */
+  public void endValue(Object value) {
+    valueIds.put(value, valueCount++);
+  }
+
+  /** Records {@code value}, which was read after a -1, under the next id and returns it. */
+  public <T> T addValue(T value) {
+    values.add(value);
+    return value;
+  }
+
+  /** Returns the value that was read with the given id. */
+  public Object getValue(int id) {
+    return values.get(id);
+  }
+}
@@ -0,0 +1,43 @@
+package auto.parcel;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Names user-supplied codecs for property types that AutoParcel cannot serialize by itself. On a
+ * property getter, the codec applies to that property. On an {@link AutoParcel @AutoParcel} class,
+ * each codec applies to every property, collection element or map key or value of its type.
+ *
+ * <p>A codec is a class with static methods, which the generated code calls directly. For a value
+ * type {@code T}, the methods used in {@code Parcelable} classes are <pre>
+ *   static void writeToParcel(T value, android.os.Parcel dest)
+ *   static T createFromParcel(android.os.Parcel in)</pre>
+ * and the methods used by {@link AutoAdapter @AutoAdapter} are <pre>
+ *   static void write(com.google.gson.stream.JsonWriter out, T value) throws IOException
+ *   static T read(com.google.gson.stream.JsonReader in) throws IOException</pre>
+ * A codec only needs the methods for the serializers it is used with. The generated code never
+ * passes null to a codec; nullable properties are guarded by a null check. For example: <pre>
+ *   &#64;AutoParcel
+ *   abstract class Payment implements Parcelable {
+ *     &#64;PropertyCodec(MoneyCodec.class)
+ *     abstract Money amount();
+ *   }
+ *
+ *   final class MoneyCodec {
+ *     static void writeToParcel(Money value, Parcel dest) {
+ *       dest.writeLong(value.micros());
+ *       dest.writeString(value.currencyCode());
+ *     }
+ *
+ *     static Money createFromParcel(Parcel in) {
+ *       return Money.of(in.readLong(), in.readString());
+ *     }
+ *   }</pre>
+ */
+@Retention(RetentionPolicy.CLASS)
+@Target({ElementType.METHOD, ElementType.TYPE})
+public @interface PropertyCodec {
+  Class<?>[] value();
+}
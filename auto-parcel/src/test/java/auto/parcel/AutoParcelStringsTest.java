@@ -0,0 +1,48 @@
+package auto.parcel;
+
+import junit.framework.TestCase;
+
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+/**
+ * Unit tests for {@link AutoParcelStrings}.
+ */
+public class AutoParcelStringsTest extends TestCase {
+  private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+  public void testNull() {
+    assertNull(AutoParcelStrings.encodeUtf8(null));
+    assertNull(AutoParcelStrings.decodeUtf8(null));
+  }
+
+  public void testAscii() {
+    assertRoundTrip("");
+    assertRoundTrip("user_id");
+    assertRoundTrip("{\"name\": \"Ada\", \"tags\": [\"a\", \"b\"]}\n\t\u0000\u007f");
+  }
+
+  public void testNonAscii() {
+    assertRoundTrip("café");
+    assertRoundTrip("été");
+    assertRoundTrip("中文 text");
+    assertRoundTrip("smile 😀 and ࠀ߿￿");
+  }
+
+  public void testUnpairedSurrogates() {
+    // Like String.getBytes, the encoding replaces each unpaired surrogate with '?', so these
+    // strings do not survive a round trip.
+    for (String value : Arrays.asList("\ud800", "x\udc00y", "\ud83d😀", "\ude00\ud83d")) {
+      byte[] encoded = AutoParcelStrings.encodeUtf8(value);
+      assertTrue(value, Arrays.equals(value.getBytes(UTF_8), encoded));
+      assertEquals(new String(encoded, UTF_8), AutoParcelStrings.decodeUtf8(encoded));
+      assertFalse(value, value.equals(AutoParcelStrings.decodeUtf8(encoded)));
+    }
+  }
+
+  private static void assertRoundTrip(String value) {
+    byte[] encoded = AutoParcelStrings.encodeUtf8(value);
+    assertTrue(value, Arrays.equals(value.getBytes(UTF_8), encoded));
+    assertEquals(value, AutoParcelStrings.decodeUtf8(encoded));
+  }
+}